@@ -0,0 +1,92 @@
+package com.karman.fingerprintdialog;
+
+import android.app.Instrumentation;
+import android.hardware.fingerprint.FingerprintManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.karman.fingerprintdialog.core.AuthCoordinator;
+import com.karman.fingerprintdialog.core.AuthResult;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A dialog closed without cancelling must still finish its session, or every later request would
+ * join it and never hear back.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DialogDismissTest {
+    
+    private static final long TIMEOUT_SECONDS = 5;
+    
+    @Rule
+    public ActivityTestRule<MainActivity> mActivityRule = new ActivityTestRule<> (MainActivity.class);
+    
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation ();
+    
+    @Test
+    public void dismissWithoutCancel_failsTheRequestAndTheNextOneShowsAgain () throws Exception {
+        MainActivity activity = mActivityRule.getActivity ();
+        FingerprintDialog dialog = new FingerprintDialog ();
+        
+        Outcome first = authenticate (activity, dialog);
+        dismiss (activity, dialog);
+        assertTrue ("first request never completed", first.done.await (TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue (String.valueOf (first.failure), first.failure instanceof CancellationException);
+        
+        Outcome second = authenticate (activity, dialog);
+        assertTrue ("second request did not show the dialog", dialog.isAdded ());
+        dismiss (activity, dialog);
+        assertTrue ("second request never completed", second.done.await (TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue (String.valueOf (second.failure), second.failure instanceof CancellationException);
+    }
+    
+    private Outcome authenticate (final MainActivity activity, final FingerprintDialog dialog) {
+        final Outcome outcome = new Outcome ();
+        mInstrumentation.runOnMainSync (new Runnable () {
+            @Override
+            public void run () {
+                dialog.authenticate (new AuthRequest (activity.getFragmentManager ()), AppExecutors.mainThread (), outcome);
+                activity.getFragmentManager ().executePendingTransactions ();
+            }
+        });
+        mInstrumentation.waitForIdleSync ();
+        return outcome;
+    }
+    
+    private void dismiss (final MainActivity activity, final FingerprintDialog dialog) {
+        mInstrumentation.runOnMainSync (new Runnable () {
+            @Override
+            public void run () {
+                dialog.dismiss ();
+                activity.getFragmentManager ().executePendingTransactions ();
+            }
+        });
+        mInstrumentation.waitForIdleSync ();
+    }
+    
+    private static class Outcome implements AuthCoordinator.Callback<AuthResult<FingerprintManager.CryptoObject>> {
+        final CountDownLatch done = new CountDownLatch (1);
+        volatile Exception failure;
+        
+        @Override
+        public void onSuccess (AuthResult<FingerprintManager.CryptoObject> result) {
+            done.countDown ();
+        }
+        
+        @Override
+        public void onFailure (Exception e) {
+            failure = e;
+            done.countDown ();
+        }
+    }
+}
\ No newline at end of file
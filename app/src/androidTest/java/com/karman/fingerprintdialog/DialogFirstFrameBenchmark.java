@@ -0,0 +1,112 @@
+package com.karman.fingerprintdialog;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time from {@code show()} to the dialog's first drawn frame, for a dialog that inflates on show
+ * against one whose hierarchy was pre-warmed and is reused. Medians are logged and reported as
+ * instrumentation status ({@code cold_first_frame_us}, {@code warm_first_frame_us}).
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class DialogFirstFrameBenchmark {
+    
+    private static final String TAG = "DialogFirstFrame";
+    private static final int RUNS = 15;
+    
+    @Rule
+    public ActivityTestRule<MainActivity> mActivityRule = new ActivityTestRule<> (MainActivity.class);
+    
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation ();
+    
+    @Test
+    public void prewarmedDialog_reachesFirstFrameSooner () throws Exception {
+        long cold = medianFirstFrameMicros (false);
+        long warm = medianFirstFrameMicros (true);
+        Log.i (TAG, "first frame median: cold=" + cold + "us warm=" + warm + "us");
+        Bundle results = new Bundle ();
+        results.putLong ("cold_first_frame_us", cold);
+        results.putLong ("warm_first_frame_us", warm);
+        mInstrumentation.sendStatus (0, results);
+        assertTrue ("cold=" + cold + "us warm=" + warm + "us", warm < cold);
+    }
+    
+    private long medianFirstFrameMicros (boolean prewarm) throws Exception {
+        final MainActivity activity = mActivityRule.getActivity ();
+        final FingerprintDialog warmDialog = new FingerprintDialog ();
+        if (prewarm) {
+            mInstrumentation.runOnMainSync (new Runnable () {
+                @Override
+                public void run () {
+                    warmDialog.prewarm (activity);
+                }
+            });
+            // Give the background inflation time to finish and post its result.
+            SystemClock.sleep (500);
+            mInstrumentation.waitForIdleSync ();
+        }
+        long[] samples = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            FingerprintDialog dialog = prewarm ? warmDialog : new FingerprintDialog ();
+            samples[i] = firstFrameMicros (activity, dialog);
+            dismiss (dialog);
+        }
+        Arrays.sort (samples);
+        return samples[RUNS / 2];
+    }
+    
+    private long firstFrameMicros (final MainActivity activity, final FingerprintDialog dialog) throws InterruptedException {
+        final CountDownLatch drawn = new CountDownLatch (1);
+        final long[] elapsed = new long[1];
+        mInstrumentation.runOnMainSync (new Runnable () {
+            @Override
+            public void run () {
+                final long start = System.nanoTime ();
+                dialog.show (activity.getFragmentManager (), TAG);
+                activity.getFragmentManager ().executePendingTransactions ();
+                View decor = dialog.getDialog ().getWindow ().getDecorView ();
+                decor.getViewTreeObserver ().addOnDrawListener (new ViewTreeObserver.OnDrawListener () {
+                    @Override
+                    public void onDraw () {
+                        if (drawn.getCount () > 0) {
+                            elapsed[0] = System.nanoTime () - start;
+                            drawn.countDown ();
+                        }
+                    }
+                });
+            }
+        });
+        assertTrue ("dialog never drew", drawn.await (5, TimeUnit.SECONDS));
+        return TimeUnit.NANOSECONDS.toMicros (elapsed[0]);
+    }
+    
+    private void dismiss (final FingerprintDialog dialog) {
+        mInstrumentation.runOnMainSync (new Runnable () {
+            @Override
+            public void run () {
+                dialog.dismiss ();
+                mActivityRule.getActivity ().getFragmentManager ().executePendingTransactions ();
+            }
+        });
+        mInstrumentation.waitForIdleSync ();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.karman.fingerprintdialog;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opens and closes the activity's dialog a thousand times and checks the heap left after a full GC
+ * does not grow with it: every show must leave nothing behind, neither views nor pending
+ * callbacks. The growth is reported as instrumentation status ({@code retained_growth_bytes}).
+ * Also rotates the activity while the retained dialog is showing and checks that every replaced
+ * activity and the views the dialog had for it become unreachable.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class DialogRetentionTest {
+    
+    private static final String TAG = "DialogRetention";
+    private static final int WARMUP_CYCLES = 50;
+    private static final int CYCLES = 1000;
+    // Allocator and JIT noise; a leaked hierarchy per show would be orders of magnitude more.
+    private static final long MAX_GROWTH_BYTES = 512 * 1024;
+    private static final int ROTATIONS = 5;
+    private static final int SHOWS_PER_ROTATION = 20;
+    private static final int GC_ATTEMPTS = 20;
+    
+    @Rule
+    public ActivityTestRule<MainActivity> mActivityRule = new ActivityTestRule<> (MainActivity.class);
+    
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation ();
+    private FingerprintDialog mDialog;
+    private MainActivity mActivity;
+    
+    @Test
+    public void openAndClose_keepsRetainedHeapFlat () throws Exception {
+        mActivity = mActivityRule.getActivity ();
+        mDialog = mActivity.fingerprintDialog;
+        showAndDismiss (WARMUP_CYCLES);
+        long before = retainedHeapBytes ();
+        
+        showAndDismiss (CYCLES);
+        long growth = retainedHeapBytes () - before;
+        
+        Log.i (TAG, "retained heap growth after " + CYCLES + " shows: " + growth + " bytes");
+        Bundle results = new Bundle ();
+        results.putLong ("retained_growth_bytes", growth);
+        mInstrumentation.sendStatus (0, results);
+        assertTrue ("retained heap grew by " + growth + " bytes", growth < MAX_GROWTH_BYTES);
+    }
+    
+    @Test
+    public void rotationWhileShowing_releasesTheOldActivityAndItsViews () throws Exception {
+        mActivity = mActivityRule.getActivity ();
+        mDialog = mActivity.fingerprintDialog;
+        // The rule keeps the instance it launched until the test ends; only later ones are checked.
+        rotateWhileShowing (new ArrayList<WeakReference<Object>> ());
+        List<WeakReference<Object>> replaced = new ArrayList<> ();
+        for (int i = 0; i < ROTATIONS; i++) {
+            showAndDismiss (SHOWS_PER_ROTATION);
+            rotateWhileShowing (replaced);
+        }
+        mActivity = null;
+        
+        for (WeakReference<Object> reference : replaced) {
+            awaitCleared (reference);
+        }
+    }
+    
+    private void showAndDismiss (int count) {
+        for (int i = 0; i < count; i++) {
+            mInstrumentation.runOnMainSync (new Runnable () {
+                @Override
+                public void run () {
+                    mDialog.show (mActivity.getFragmentManager (), TAG);
+                    mActivity.getFragmentManager ().executePendingTransactions ();
+                    mDialog.dismiss ();
+                    mActivity.getFragmentManager ().executePendingTransactions ();
+                }
+            });
+        }
+        mInstrumentation.waitForIdleSync ();
+    }
+    
+    /**
+     * Recreates the activity with the dialog on screen, then dismisses it from the new instance.
+     * Adds weak references to the old instance and to the dialog's views for it.
+     */
+    private void rotateWhileShowing (final List<WeakReference<Object>> replaced) {
+        mInstrumentation.runOnMainSync (new Runnable () {
+            @Override
+            public void run () {
+                mDialog.show (mActivity.getFragmentManager (), TAG);
+                mActivity.getFragmentManager ().executePendingTransactions ();
+                View views = mDialog.getView ();
+                assertNotNull (views);
+                replaced.add (new WeakReference<Object> (mActivity));
+                replaced.add (new WeakReference<Object> (views));
+                mActivity.recreate ();
+            }
+        });
+        mInstrumentation.waitForIdleSync ();
+        mInstrumentation.runOnMainSync (new Runnable () {
+            @Override
+            public void run () {
+                // The retained dialog re-attached to the new instance.
+                Activity current = mDialog.getActivity ();
+                assertNotNull (current);
+                assertNotSame (replaced.get (replaced.size () - 2).get (), current);
+                mActivity = (MainActivity) current;
+                mDialog.dismiss ();
+                mActivity.getFragmentManager ().executePendingTransactions ();
+            }
+        });
+        mInstrumentation.waitForIdleSync ();
+    }
+    
+    private static long retainedHeapBytes () throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime ();
+        // Finalizers can release more; a few rounds settle the heap.
+        for (int i = 0; i < 3; i++) {
+            runtime.gc ();
+            System.runFinalization ();
+            Thread.sleep (100);
+        }
+        return runtime.totalMemory () - runtime.freeMemory ();
+    }
+    
+    private static void awaitCleared (WeakReference<Object> reference) throws InterruptedException {
+        // Finalizers can release more; a few rounds settle the heap.
+        for (int i = 0; i < GC_ATTEMPTS && reference.get () != null; i++) {
+            Runtime.getRuntime ().gc ();
+            System.runFinalization ();
+            Thread.sleep (100);
+        }
+        assertNull ("still reachable: " + reference.get (), reference.get ());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+package com.karman.fingerprintdialog;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
+import android.security.keystore.KeyProperties;
+import android.security.keystore.UserNotAuthenticatedException;
+
+import com.karman.fingerprintdialog.core.AuthSession;
+import com.karman.fingerprintdialog.core.KeyStoreKeyProvider;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+
+/**
+ * AES keys in AndroidKeyStore that can only be used after the user authenticated with a fingerprint.
+ * By default every operation needs its own authentication; with an auth validity window the keys
+ * stay usable for that many seconds after any fingerprint match.
+ */
+public class AndroidKeyStoreProvider extends KeyStoreKeyProvider {
+    
+    static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+    static final String TRANSFORMATION = KeyProperties.KEY_ALGORITHM_AES + "/"
+            + KeyProperties.BLOCK_MODE_CBC + "/"
+            + KeyProperties.ENCRYPTION_PADDING_PKCS7;
+    
+    /**
+     * For {@link AuthSession}: keys with a validity window throw UserNotAuthenticatedException
+     * once the window has run out.
+     */
+    public static final AuthSession.ExpiryDetector EXPIRY_DETECTOR = new AuthSession.ExpiryDetector () {
+        @Override
+        public boolean isAuthenticationRequired (Exception e) {
+            return e instanceof UserNotAuthenticatedException;
+        }
+    };
+    
+    private final KeyGenerator mKeyGenerator;
+    private final int mAuthValiditySeconds;
+    
+    private AndroidKeyStoreProvider (KeyStore keyStore, KeyGenerator keyGenerator, int authValiditySeconds) {
+        super (keyStore);
+        mKeyGenerator = keyGenerator;
+        mAuthValiditySeconds = authValiditySeconds;
+    }
+    
+    /**
+     * Keys that need a fresh fingerprint (and CryptoObject) for every operation.
+     */
+    public static AndroidKeyStoreProvider create () {
+        return create (0);
+    }
+    
+    /**
+     * @param authValiditySeconds how long keys stay usable after a fingerprint match, 0 to require
+     *                            authentication for every operation
+     */
+    public static AndroidKeyStoreProvider create (int authValiditySeconds) {
+        KeyStore keyStore;
+        try {
+            keyStore = KeyStore.getInstance (ANDROID_KEY_STORE);
+        } catch (KeyStoreException e) {
+            throw new RuntimeException ("Failed to get an instance of KeyStore", e);
+        }
+        KeyGenerator keyGenerator;
+        try {
+            keyGenerator = KeyGenerator.getInstance (KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            throw new RuntimeException ("Failed to get an instance of KeyGenerator", e);
+        }
+        return new AndroidKeyStoreProvider (keyStore, keyGenerator, authValiditySeconds);
+    }
+    
+    @Override
+    public synchronized void generateKey (String alias) throws GeneralSecurityException {
+        // The keystore must be loaded before a key can be generated into it.
+        getKeyStore ();
+        KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec
+                .Builder (alias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes (KeyProperties.BLOCK_MODE_CBC)
+                .setUserAuthenticationRequired (true)
+                .setEncryptionPaddings (KeyProperties.ENCRYPTION_PADDING_PKCS7);
+        if (mAuthValiditySeconds > 0) {
+            builder.setUserAuthenticationValidityDurationSeconds (mAuthValiditySeconds);
+        }
+        mKeyGenerator.init (builder.build ());
+        mKeyGenerator.generateKey ();
+    }
+    
+    @Override
+    public String getTransformation () {
+        return TRANSFORMATION;
+    }
+    
+    @Override
+    public Cipher newCipher () throws GeneralSecurityException {
+        return Cipher.getInstance (TRANSFORMATION);
+    }
+    
+    @Override
+    public boolean isKeyInvalidated (GeneralSecurityException e) {
+        return e instanceof KeyPermanentlyInvalidatedException;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.karman.fingerprintdialog;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
+import android.security.keystore.KeyProperties;
+
+import com.karman.fingerprintdialog.core.BatchSigner;
+import com.karman.fingerprintdialog.core.KeyInvalidatedException;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+
+/**
+ * EC signing keys in AndroidKeyStore for {@link BatchSigner}. The private key can only sign after a
+ * fingerprint match; the public key is freely readable so a server can verify the batches.
+ */
+public class AndroidSigningKeys {
+    
+    private final KeyStore mKeyStore;
+    private final int mAuthValiditySeconds;
+    private boolean mLoaded;
+    
+    private AndroidSigningKeys (KeyStore keyStore, int authValiditySeconds) {
+        mKeyStore = keyStore;
+        mAuthValiditySeconds = authValiditySeconds;
+    }
+    
+    /**
+     * @param authValiditySeconds how long keys stay usable after a fingerprint match, 0 to require
+     *                            authentication for every signature; only a window allows
+     *                            {@link BatchSigner#signEach}
+     */
+    public static AndroidSigningKeys create (int authValiditySeconds) {
+        try {
+            return new AndroidSigningKeys (KeyStore.getInstance (AndroidKeyStoreProvider.ANDROID_KEY_STORE),
+                    authValiditySeconds);
+        } catch (KeyStoreException e) {
+            throw new RuntimeException ("Failed to get an instance of KeyStore", e);
+        }
+    }
+    
+    /**
+     * Returns a signature in sign mode for {@code alias}, generating the key pair on first use. It
+     * only works once a fingerprint authentication with it as the CryptoObject has succeeded.
+     *
+     * @throws KeyInvalidatedException if a new enrollment invalidated the key; delete and retry
+     */
+    public synchronized Signature initSignature (String alias) throws GeneralSecurityException {
+        KeyStore keyStore = getKeyStore ();
+        if (! keyStore.containsAlias (alias)) {
+            generateKeyPair (alias);
+        }
+        Signature signature = Signature.getInstance (BatchSigner.SIGNATURE_ALGORITHM);
+        try {
+            signature.initSign ((PrivateKey) keyStore.getKey (alias, null));
+        } catch (KeyPermanentlyInvalidatedException e) {
+            throw new KeyInvalidatedException (alias, e);
+        }
+        return signature;
+    }
+    
+    public synchronized PublicKey getPublicKey (String alias) throws GeneralSecurityException {
+        return getKeyStore ().getCertificate (alias).getPublicKey ();
+    }
+    
+    public synchronized void deleteKey (String alias) throws GeneralSecurityException {
+        getKeyStore ().deleteEntry (alias);
+    }
+    
+    private void generateKeyPair (String alias) throws GeneralSecurityException {
+        KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec
+                .Builder (alias, KeyProperties.PURPOSE_SIGN)
+                .setAlgorithmParameterSpec (new ECGenParameterSpec ("secp256r1"))
+                .setDigests (KeyProperties.DIGEST_SHA256)
+                .setUserAuthenticationRequired (true);
+        if (mAuthValiditySeconds > 0) {
+            builder.setUserAuthenticationValidityDurationSeconds (mAuthValiditySeconds);
+        }
+        KeyPairGenerator generator = KeyPairGenerator.getInstance (KeyProperties.KEY_ALGORITHM_EC,
+                AndroidKeyStoreProvider.ANDROID_KEY_STORE);
+        generator.initialize (builder.build ());
+        generator.generateKeyPair ();
+    }
+    
+    private KeyStore getKeyStore () throws GeneralSecurityException {
+        if (! mLoaded) {
+            try {
+                mKeyStore.load (null);
+            } catch (IOException e) {
+                throw new GeneralSecurityException ("Failed to load keystore", e);
+            }
+            mLoaded = true;
+        }
+        return mKeyStore;
+    }
+}
\ No newline at end of file
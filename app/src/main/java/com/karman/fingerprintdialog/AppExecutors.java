@@ -0,0 +1,103 @@
+package com.karman.fingerprintdialog;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.karman.fingerprintdialog.core.SuccessHold;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Process-wide executors shared by the dialog and the activity.
+ */
+public final class AppExecutors {
+    
+    private static final Handler MAIN_HANDLER = new Handler (Looper.getMainLooper ());
+    
+    private static final Executor MAIN_THREAD = new Executor () {
+        @Override
+        public void execute (Runnable command) {
+            MAIN_HANDLER.post (command);
+        }
+    };
+    
+    private static final SuccessHold.Scheduler MAIN_SCHEDULER = new SuccessHold.Scheduler () {
+        @Override
+        public void postDelayed (Runnable runnable, long delayMillis) {
+            MAIN_HANDLER.postDelayed (runnable, delayMillis);
+        }
+        
+        @Override
+        public void cancel (Runnable runnable) {
+            MAIN_HANDLER.removeCallbacks (runnable);
+        }
+    };
+    
+    // Keystore operations are serialized on a single thread; they contend on the TEE anyway.
+    private static final ExecutorService KEYSTORE = newSerialExecutor ("fingerprint-keystore");
+    
+    // CPU-bound work such as the password KDF, kept off the keystore thread so key preparation
+    // does not queue behind it.
+    private static final ExecutorService BACKGROUND = newSerialExecutor ("fingerprint-background");
+    
+    // Background key generation, separate from the keystore thread so a dialog's cipher init never
+    // queues behind the keygen for a key it does not need.
+    private static final ExecutorService KEYGEN = newSerialExecutor ("fingerprint-keygen");
+    
+    // Capability probes, so a refresh on resume does not wait behind a ~150 ms password KDF on the
+    // background thread.
+    private static final ExecutorService CAPABILITIES = newSerialExecutor ("fingerprint-capabilities");
+    
+    // Audit log flushes; disk syncs should not hold up a password check either.
+    private static final ExecutorService AUDIT = newSerialExecutor ("fingerprint-audit");
+    
+    private AppExecutors () {
+    }
+    
+    public static Executor mainThread () {
+        return MAIN_THREAD;
+    }
+    
+    /** The one main-thread handler shared by the dialog's delayed UI work. */
+    public static Handler mainHandler () {
+        return MAIN_HANDLER;
+    }
+    
+    public static SuccessHold.Scheduler mainScheduler () {
+        return MAIN_SCHEDULER;
+    }
+    
+    public static Executor keystore () {
+        return KEYSTORE;
+    }
+    
+    public static Executor background () {
+        return BACKGROUND;
+    }
+    
+    public static Executor keygen () {
+        return KEYGEN;
+    }
+    
+    public static Executor capabilities () {
+        return CAPABILITIES;
+    }
+    
+    public static Executor audit () {
+        return AUDIT;
+    }
+    
+    private static ExecutorService newSerialExecutor (final String name) {
+        return Executors.newSingleThreadExecutor (new ThreadFactory () {
+            @Override
+            public Thread newThread (Runnable r) {
+                Thread thread = new Thread (r, name);
+                thread.setDaemon (true);
+                return thread;
+            }
+        });
+    }
+}
\ No newline at end of file
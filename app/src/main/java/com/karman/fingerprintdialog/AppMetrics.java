@@ -0,0 +1,87 @@
+package com.karman.fingerprintdialog;
+
+import android.content.Context;
+import android.os.Trace;
+import android.util.Log;
+
+import com.karman.fingerprintdialog.core.AuditLog;
+import com.karman.fingerprintdialog.core.AuthResult;
+import com.karman.fingerprintdialog.core.LatencyRecorder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Process-wide latency recorder for the authentication flow. Synchronous stages show up as
+ * {@code auth:*} sections in systrace; plug a {@link LatencyRecorder.MetricsSink} into
+ * {@link #latency()} to ship samples to analytics. Authentication outcomes also go to an
+ * {@link AuditLog} in the app's files directory.
+ */
+public final class AppMetrics {
+    
+    private static final String TAG = "AppMetrics";
+    private static final String AUDIT_LOG_NAME = "auth_audit.log";
+    
+    private static final LatencyRecorder LATENCY = new LatencyRecorder (new LatencyRecorder.Tracer () {
+        @Override
+        public void beginSection (String name) {
+            Trace.beginSection (name);
+        }
+        
+        @Override
+        public void endSection () {
+            Trace.endSection ();
+        }
+    });
+    
+    private static boolean sAuditLogRequested;
+    private static volatile AuditLog sAuditLog;
+    
+    private AppMetrics () {
+    }
+    
+    public static LatencyRecorder latency () {
+        return LATENCY;
+    }
+    
+    /**
+     * Opens the audit log on the audit thread; opening reads the file to cut off a torn tail, so it
+     * stays off the main thread. Only the first call does anything.
+     */
+    public static synchronized void openAuditLog (Context context) {
+        if (sAuditLogRequested) {
+            return;
+        }
+        sAuditLogRequested = true;
+        final File file = getAuditLogFile (context);
+        AppExecutors.audit ().execute (new Runnable () {
+            @Override
+            public void run () {
+                try {
+                    sAuditLog = AuditLog.open (file, AppExecutors.audit ());
+                } catch (IOException e) {
+                    Log.w (TAG, "Failed to open the audit log", e);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Queues an authentication event; the write happens later on the audit thread. Dropped if the
+     * log is not open (yet).
+     */
+    public static void audit (AuditLog.Event event, AuthResult.Method method, int detail) {
+        AuditLog auditLog = sAuditLog;
+        if (auditLog != null) {
+            auditLog.record (event, method, detail);
+        }
+    }
+    
+    /**
+     * The audit file, for export with {@link AuditLog.Reader}. Flush first via
+     * {@link AuditLog#flush()} on the audit thread to include the latest events.
+     */
+    public static File getAuditLogFile (Context context) {
+        return new File (context.getApplicationContext ().getFilesDir (), AUDIT_LOG_NAME);
+    }
+}
\ No newline at end of file
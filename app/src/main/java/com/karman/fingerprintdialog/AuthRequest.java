@@ -0,0 +1,26 @@
+package com.karman.fingerprintdialog;
+
+import android.app.FragmentManager;
+
+/**
+ * One call to {@link FingerprintDialog#authenticate}. Records when it was made so the result can
+ * report how long the prompt took to appear.
+ */
+public class AuthRequest {
+    
+    private final FragmentManager mFragmentManager;
+    private final long mCreatedAtNanos;
+    
+    public AuthRequest (FragmentManager fragmentManager) {
+        mFragmentManager = fragmentManager;
+        mCreatedAtNanos = System.nanoTime ();
+    }
+    
+    public FragmentManager getFragmentManager () {
+        return mFragmentManager;
+    }
+    
+    public long getCreatedAtNanos () {
+        return mCreatedAtNanos;
+    }
+}
\ No newline at end of file
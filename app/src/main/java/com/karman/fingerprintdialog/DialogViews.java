@@ -0,0 +1,65 @@
+package com.karman.fingerprintdialog;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+/**
+ * The views of {@code R.layout.fingerprint_dialog}, looked up once per inflation so a pre-warmed
+ * hierarchy can be reused across shows without another round of findViewById.
+ */
+class DialogViews {
+    
+    /** The activity the hierarchy was inflated for; it cannot be shown in any other. */
+    final Context owner;
+    final View root;
+    final ImageView ivIcon;
+    final TextView tvMessage;
+    final Button btPositive, btNeutral, btNegative;
+    final CheckBox cbFingerprintInFuture;
+    final EditText etPassword;
+    final TextView tv2;
+    final View[] fingerprintViews;
+    final View[] passwordViews;
+    
+    DialogViews (View root, Context owner) {
+        this.root = root;
+        this.owner = owner;
+        ivIcon = (ImageView) root.findViewById (R.id.ivIcon);
+        tvMessage = (TextView) root.findViewById (R.id.tvMessage);
+        btPositive = (Button) root.findViewById (R.id.btPositive);
+        btNegative = (Button) root.findViewById (R.id.btNegative);
+        btNeutral = (Button) root.findViewById (R.id.btNeutral);
+        cbFingerprintInFuture = (CheckBox) root.findViewById (R.id.cbFingerprintInFuture);
+        etPassword = (EditText) root.findViewById (R.id.etPassword);
+        tv2 = (TextView) root.findViewById (R.id.tv2);
+        fingerprintViews = new View[] {root.findViewById (R.id.tv1), ivIcon, tvMessage};
+        passwordViews = new View[] {tv2, etPassword};
+    }
+    
+    void showFingerprintViews (boolean fingerprint) {
+        setVisibility (fingerprintViews, fingerprint ? View.VISIBLE : View.GONE);
+        setVisibility (passwordViews, fingerprint ? View.GONE : View.VISIBLE);
+        if (fingerprint) {
+            cbFingerprintInFuture.setVisibility (View.GONE);
+        }
+    }
+    
+    /** Detaches the hierarchy from the dialog it was last shown in, so it can be added again. */
+    void detach () {
+        if (root.getParent () instanceof ViewGroup) {
+            ((ViewGroup) root.getParent ()).removeView (root);
+        }
+    }
+    
+    private static void setVisibility (View[] views, int visibility) {
+        for (View view : views) {
+            view.setVisibility (visibility);
+        }
+    }
+}
\ No newline at end of file
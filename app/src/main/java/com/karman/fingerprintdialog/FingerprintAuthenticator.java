@@ -0,0 +1,87 @@
+package com.karman.fingerprintdialog;
+
+import android.hardware.fingerprint.FingerprintManager;
+import android.os.CancellationSignal;
+
+import com.karman.fingerprintdialog.core.Authenticator;
+
+/**
+ * {@link Authenticator} over {@link FingerprintManager}. Callbacks arrive on the main thread.
+ */
+public class FingerprintAuthenticator implements Authenticator<FingerprintManager.CryptoObject> {
+    
+    private final FingerprintManager mFingerprintManager;
+    private Session mSession;
+    
+    public FingerprintAuthenticator (FingerprintManager fingerprintManager) {
+        mFingerprintManager = fingerprintManager;
+    }
+    
+    @Override
+    public boolean isAvailable () {
+        // The line below prevents the false positive inspection from Android Studio
+        // noinspection ResourceType
+        return mFingerprintManager.isHardwareDetected () && mFingerprintManager.hasEnrolledFingerprints ();
+    }
+    
+    @Override
+    public void authenticate (FingerprintManager.CryptoObject crypto, Callback<FingerprintManager.CryptoObject> callback) {
+        cancel ();
+        mSession = new Session (callback);
+        // The line below prevents the false positive inspection from Android Studio
+        // noinspection ResourceType
+        mFingerprintManager.authenticate (crypto, mSession.mCancellationSignal, 0 /* flags */, mSession, null);
+    }
+    
+    @Override
+    public void cancel () {
+        if (mSession != null) {
+            mSession.mSelfCancelled = true;
+            mSession.mCancellationSignal.cancel ();
+            mSession = null;
+        }
+    }
+    
+    /**
+     * One {@link FingerprintManager#authenticate} call. Late callbacks of a cancelled session are
+     * swallowed so they cannot leak into the next one.
+     */
+    private static class Session extends FingerprintManager.AuthenticationCallback {
+        
+        final CancellationSignal mCancellationSignal = new CancellationSignal ();
+        final Callback<FingerprintManager.CryptoObject> mCallback;
+        boolean mSelfCancelled;
+        
+        Session (Callback<FingerprintManager.CryptoObject> callback) {
+            mCallback = callback;
+        }
+        
+        @Override
+        public void onAuthenticationError (int errMsgId, CharSequence errString) {
+            if (! mSelfCancelled) {
+                mCallback.onAuthenticationError (errMsgId, errString);
+            }
+        }
+        
+        @Override
+        public void onAuthenticationHelp (int helpMsgId, CharSequence helpString) {
+            if (! mSelfCancelled) {
+                mCallback.onAuthenticationHelp (helpMsgId, helpString);
+            }
+        }
+        
+        @Override
+        public void onAuthenticationFailed () {
+            if (! mSelfCancelled) {
+                mCallback.onAuthenticationFailed ();
+            }
+        }
+        
+        @Override
+        public void onAuthenticationSucceeded (FingerprintManager.AuthenticationResult result) {
+            if (! mSelfCancelled) {
+                mCallback.onAuthenticationSucceeded (result.getCryptoObject ());
+            }
+        }
+    }
+}
\ No newline at end of file
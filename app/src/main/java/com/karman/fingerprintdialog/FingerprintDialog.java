@@ -17,21 +17,23 @@
 package com.karman.fingerprintdialog;
 
 import android.annotation.SuppressLint;
+import android.app.Activity;
 import android.app.DialogFragment;
 import android.app.FragmentManager;
 import android.app.KeyguardManager;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.hardware.fingerprint.FingerprintManager;
 import android.os.Bundle;
-import android.os.CancellationSignal;
-import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
-import android.security.keystore.KeyGenParameterSpec;
-import android.security.keystore.KeyPermanentlyInvalidatedException;
-import android.security.keystore.KeyProperties;
+import android.security.keystore.UserNotAuthenticatedException;
+import android.support.v4.view.AsyncLayoutInflater;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -42,124 +44,470 @@ import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.ImageView;
-import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.IOException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
+import com.karman.fingerprintdialog.core.AuditLog;
+import com.karman.fingerprintdialog.core.AuthCoordinator;
+import com.karman.fingerprintdialog.core.AuthFeedback;
+import com.karman.fingerprintdialog.core.AuthResult;
+import com.karman.fingerprintdialog.core.AuthSession;
+import com.karman.fingerprintdialog.core.AuthStateMachine;
+import com.karman.fingerprintdialog.core.AuthenticationType;
+import com.karman.fingerprintdialog.core.Authenticator;
+import com.karman.fingerprintdialog.core.CapabilityCache;
+import com.karman.fingerprintdialog.core.KeyInvalidatedException;
+import com.karman.fingerprintdialog.core.KeyLifecycleManager;
+import com.karman.fingerprintdialog.core.KeyRegistry;
+import com.karman.fingerprintdialog.core.KeyPreparer;
+import com.karman.fingerprintdialog.core.LatencyPolicy;
+import com.karman.fingerprintdialog.core.LatencyRecorder;
+import com.karman.fingerprintdialog.core.PasswordHasher;
+import com.karman.fingerprintdialog.core.SensorSession;
+import com.karman.fingerprintdialog.core.SuccessHold;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 
 import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
 
 /**
  * A dialog which uses fingerprint APIs to authenticate the user, and falls back to password
- * authentication if fingerprint is not available.
+ * authentication if fingerprint is not available. Show it with {@link #authenticate}, which reports
+ * the outcome; the older {@link #showFingerprintDialog} only shows it and is deprecated.
  */
 @SuppressLint("ValidFragment")
 public class FingerprintDialog extends DialogFragment {
+    private static final String TAG = "FingerprintDialog";
+    private static final int DIALOG_THEME = android.R.style.Theme_Material_Light_Dialog;
+    private static KeyLifecycleManager sKeyManager;
+    private static KeyRegistry sKeyRegistry;
+    private static AndroidSigningKeys sSigningKeys;
+    private static CapabilityCache sCapabilities;
+    
     public static String SECRET_MESSAGE = "secret_message";
     String USE_FINGERPRINT_IN_FUTURE = "use_fingerprint_in_future";
-    String DEFAULT_KEY_NAME = "default_key_name";
+    static final String DEFAULT_KEY_NAME = "default_key_name";
+    String PASSWORD_HASH = "password_hash";
+    
+    // The sample's store password, hashed into preferences the first time the dialog is used. Kept
+    // hard-coded on purpose: the sample has no set-up screen, so while it is in the source the KDF
+    // only shows where a user-chosen password would be stored.
+    private static final String DEFAULT_PASSWORD = "123456";
+    private static final long PASSWORD_KDF_TARGET_MILLIS = 150;
     
-    KeyStore keyStore;
-    KeyGenerator keyGenerator;
     Cipher cipher;
     ImageView ivIcon;
     TextView tvMessage;
     Button btPositive, btNeutral, btNegative;
     CheckBox cbFingerprintInFuture;
-    RelativeLayout rlFingerprint, rlPassword;
     EditText etPassword;
     TextView tv2;
     
     Context context;
     
-    
-    boolean isNewFingerprintEnrolled = false;
-    
-    
-    AuthenticationType authenticationType = AuthenticationType.FINGERPRINT;
+    final AuthStateMachine authState = new AuthStateMachine ();
     
     private FingerprintManager.CryptoObject cryptoObject;
     private FingerprintUiHelper fingerprintUiHelper;
-    private MainActivity mActivity;
+    private AuthSession mAuthSession;
+    private DialogViews mViews;
+    private LatencyPolicy mLatencyPolicy = LatencyPolicy.DEFAULT;
+    private String mKeyAlias = DEFAULT_KEY_NAME;
+    private String mSigningAlias;
+    private boolean mEarlyArming;
+    // The authorized cipher or signature is single-use: only the request that opened the dialog gets it.
+    private final AuthCoordinator<AuthResult<FingerprintManager.CryptoObject>> mCoordinator = new AuthCoordinator<> (
+            new AuthCoordinator.Sharing<AuthResult<FingerprintManager.CryptoObject>> () {
+                @Override
+                public AuthResult<FingerprintManager.CryptoObject> share (AuthResult<FingerprintManager.CryptoObject> result) {
+                    return result.withoutCrypto ();
+                }
+            });
+    private AuthCoordinator.Callback<AuthResult<FingerprintManager.CryptoObject>> mCompletion;
+    private long mRequestedAtNanos;
+    private long mShownAtNanos;
+    // Set while the retained dialog is between onPause and onResume of a configuration change.
+    private boolean mChangingConfigurations;
+    // A password check that finished while the views were being rebuilt for a rotation.
+    private Boolean mPendingPasswordMatch;
+    private final KeyPreparer<FingerprintManager.CryptoObject> mKeyPreparer =
+            new KeyPreparer<> (AppExecutors.keystore (), AppExecutors.mainThread ());
+    private final KeyPreparer.Task<FingerprintManager.CryptoObject> mInitKeysTask =
+            new KeyPreparer.Task<FingerprintManager.CryptoObject> () {
+                @Override
+                public FingerprintManager.CryptoObject prepare () {
+                    return initKeys (false);
+                }
+            };
+    private final KeyPreparer.Task<FingerprintManager.CryptoObject> mRecreateKeysTask =
+            new KeyPreparer.Task<FingerprintManager.CryptoObject> () {
+                @Override
+                public FingerprintManager.CryptoObject prepare () {
+                    return initKeys (true);
+                }
+            };
+    private final KeyPreparer.Listener<FingerprintManager.CryptoObject> mKeysListener =
+            new KeyPreparer.Listener<FingerprintManager.CryptoObject> () {
+                @Override
+                public void onPrepared (FingerprintManager.CryptoObject result) {
+                    onKeysPrepared (result);
+                }
+                
+                @Override
+                public void onFailed (Exception e) {
+                    onKeysFailed (e);
+                }
+            };
+    
+    private final CapabilityCache.Listener mCapabilitiesListener = new CapabilityCache.Listener () {
+        @Override
+        public void onCapabilitiesChanged (CapabilityCache.Snapshot snapshot) {
+            AppExecutors.mainThread ().execute (new Runnable () {
+                @Override
+                public void run () {
+                    onCapabilitiesUpdated ();
+                }
+            });
+        }
+    };
     
     private InputMethodManager mInputMethodManager;
     private final Runnable mShowKeyboardRunnable = new Runnable () {
         @Override
         public void run () {
-            mInputMethodManager.showSoftInput (etPassword, 0);
+            if (etPassword != null) {
+                mInputMethodManager.showSoftInput (etPassword, 0);
+            }
+        }
+    };
+    private final Runnable mHideKeyboardRunnable = new Runnable () {
+        @Override
+        public void run () {
+            View view = getView ();
+            if (view != null) {
+                mInputMethodManager.hideSoftInputFromWindow (view.getWindowToken (), 0);
+            }
         }
     };
     private SharedPreferences mSharedPreferences;
     
+    // Resolved once in onAttach so sensor callbacks do no resource lookups.
+    private int mHintColor, mWarningColor, mSuccessColor;
+    private String mHintText, mNotRecognizedText, mSuccessText, mPreparingText;
+    
     @Override
     public void onAttach (Context context) {
         super.onAttach (context);
         this.context = context;
-        mActivity = (MainActivity) getActivity ();
-        mInputMethodManager = context.getSystemService (InputMethodManager.class);
+        mInputMethodManager = context.getApplicationContext ().getSystemService (InputMethodManager.class);
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences (context);
-        fingerprintUiHelper = new FingerprintUiHelper (context.getSystemService (FingerprintManager.class));
+        mHintColor = context.getColor (R.color.hint_color);
+        mWarningColor = context.getColor (R.color.warning_color);
+        mSuccessColor = context.getColor (R.color.success_color);
+        mHintText = context.getString (R.string.fingerprint_hint);
+        mNotRecognizedText = context.getString (R.string.fingerprint_not_recognized);
+        mSuccessText = context.getString (R.string.fingerprint_success);
+        mPreparingText = context.getString (R.string.fingerprint_preparing);
+        getCapabilities (context).setListener (mCapabilitiesListener);
+        if (mChangingConfigurations) {
+            // Re-attached after a rotation: the prepared keys and the sensor session carried over,
+            // only the views are rebound in onCreateView.
+            return;
+        }
+        if (fingerprintUiHelper == null) {
+            fingerprintUiHelper = createUiHelper (context);
+        }
+        // A new show; an earlier show's password fallback does not carry over.
+        authState.onShow (mSharedPreferences.getBoolean (USE_FINGERPRINT_IN_FUTURE, true));
+        AppMetrics.openAuditLog (context);
         checkFingerprintAvailable (context);
-        initKeys (context);
+        if (! mSharedPreferences.contains (PASSWORD_HASH)) {
+            AppExecutors.background ().execute (new Runnable () {
+                @Override
+                public void run () {
+                    loadPasswordHash ();
+                }
+            });
+        }
+        mKeyPreparer.prepareIfIdle (mInitKeysTask);
+        mKeyPreparer.setListener (mKeysListener);
+    }
+    
+    private FingerprintUiHelper createUiHelper (Context context) {
+        return new FingerprintUiHelper (new FingerprintAuthenticator (
+                context.getApplicationContext ().getSystemService (FingerprintManager.class)));
+    }
+    
+    @Override
+    public void onDestroy () {
+        super.onDestroy ();
+        mKeyPreparer.cancel ();
+        if (mCompletion != null) {
+            failAuthentication (new CancellationException ("Dialog destroyed"));
+        }
+    }
+    
+    @Override
+    public void onDetach () {
+        super.onDetach ();
+        getCapabilities (context).setListener (null);
+        // The fragment is retained; it must not keep the activity alive between shows.
+        context = null;
+    }
+    
+    /**
+     * Starts generating the key and initialising the cipher on the keystore thread, so that the
+     * {@link FingerprintManager.CryptoObject} is usually ready by the time the dialog is shown.
+     */
+    public void prepareKeys () {
+        mKeyPreparer.prepare (mInitKeysTask);
+    }
+    
+    /**
+     * Opens {@code session}'s validity window whenever the user authenticates with a fingerprint,
+     * so queued operations on time-bound keys can run without another prompt. A password fallback
+     * fails the queued operations instead, since the password unlocks no keystore key. For callers
+     * with keys from {@code AndroidKeyStoreProvider.create(int)}; the sample's own keys are per-use
+     * and it sets no session.
+     */
+    public void setAuthSession (AuthSession session) {
+        mAuthSession = session;
+    }
+    
+    /**
+     * Sets how long the success and error states are held. With a zero success hold, or one that
+     * delivers during the hold, the caller's post-auth work starts as soon as the sensor matches.
+     */
+    public void setLatencyPolicy (LatencyPolicy policy) {
+        mLatencyPolicy = policy;
+        if (fingerprintUiHelper != null) {
+            fingerprintUiHelper.mSuccessHold.setPolicy (policy);
+        }
+    }
+    
+    /**
+     * Selects the key the dialog authorises, normally one from {@link #getKeyRegistry()}. Call it
+     * before {@link #prepareKeys()}.
+     */
+    public void setKeyAlias (String alias) {
+        mKeyAlias = alias;
+    }
+    
+    /**
+     * Arms the sensor from {@link #authenticate} itself instead of once the dialog is on screen, so
+     * a touch made while the dialog is still on its way in is not lost. Failures that early are
+     * shown when the dialog attaches; a match completes the request and the dialog is dismissed
+     * before it is drawn. Needs {@link #prewarm} and keys already prepared, otherwise the sensor
+     * starts in onResume as usual.
+     */
+    public void setEarlyArming (boolean earlyArming) {
+        mEarlyArming = earlyArming;
+    }
+    
+    /**
+     * Makes the dialog authorize a {@link java.security.Signature} on the EC key {@code alias}
+     * instead of a cipher, for signing a batch with {@code BatchSigner}. Pass null to go back to
+     * the cipher. Call it before {@link #prepareKeys()}.
+     */
+    public void setSigningKey (String alias) {
+        mSigningAlias = alias;
+    }
+    
+    @Override
+    public void onCancel (DialogInterface dialog) {
+        super.onCancel (dialog);
+        failAuthentication (new CancellationException ("Authentication cancelled"));
+    }
+    
+    @Override
+    public void onDismiss (DialogInterface dialog) {
+        super.onDismiss (dialog);
+        Activity activity = getActivity ();
+        if (mCompletion != null && (activity == null || ! activity.isChangingConfigurations ())) {
+            // Closed without an outcome: dismiss() from code, or the host finishing. Requests that
+            // join the session would otherwise wait on it for ever.
+            failAuthentication (new CancellationException ("Dialog dismissed"));
+        }
+    }
+    
+    private void failAuthentication (CancellationException cancelled) {
+        AppMetrics.audit (AuditLog.Event.CANCELLED, null, 0);
+        if (mAuthSession != null) {
+            mAuthSession.onAuthenticationFailed (cancelled);
+        }
+        AuthCoordinator.Callback<AuthResult<FingerprintManager.CryptoObject>> completion = mCompletion;
+        mCompletion = null;
+        if (completion != null) {
+            completion.onFailure (cancelled);
+        }
+    }
+    
+    private void completeAuthentication (FingerprintManager.CryptoObject crypto, AuthResult.Method method) {
+        AppMetrics.audit (AuditLog.Event.SUCCEEDED, method, 0);
+        AuthCoordinator.Callback<AuthResult<FingerprintManager.CryptoObject>> completion = mCompletion;
+        mCompletion = null;
+        if (completion != null) {
+            completion.onSuccess (new AuthResult<> (crypto, method, mRequestedAtNanos, mShownAtNanos, System.nanoTime ()));
+        }
+    }
+    
+    private void recreateKeys () {
+        mKeyPreparer.prepare (mRecreateKeysTask);
     }
     
     @Override
     public void onCreate (Bundle savedInstanceState) {
         super.onCreate (savedInstanceState);
         setRetainInstance (true);
-        setStyle (DialogFragment.STYLE_NORMAL, android.R.style.Theme_Material_Light_Dialog);
+        setStyle (DialogFragment.STYLE_NORMAL, DIALOG_THEME);
+    }
+    
+    /**
+     * Inflates the dialog's view hierarchy on a background thread ahead of the first show. The
+     * hierarchy is then kept and reused by every later show from the same activity.
+     */
+    public void prewarm (final Activity activity) {
+        if (fingerprintUiHelper == null) {
+            // Early arming may need the sensor before the first attach.
+            fingerprintUiHelper = createUiHelper (activity);
+            mSharedPreferences = PreferenceManager.getDefaultSharedPreferences (activity.getApplicationContext ());
+            getCapabilities (activity);
+        }
+        if (mViews != null && mViews.owner == activity) {
+            return;
+        }
+        new AsyncLayoutInflater (new ContextThemeWrapper (activity, DIALOG_THEME)).inflate (R.layout.fingerprint_dialog, null,
+                new AsyncLayoutInflater.OnInflateFinishedListener () {
+                    @Override
+                    public void onInflateFinished (View view, int resid, ViewGroup parent) {
+                        if (! activity.isDestroyed () && (mViews == null || mViews.owner != activity)) {
+                            initView (new DialogViews (view, activity));
+                        }
+                    }
+                });
     }
     
     @Override
     public View onCreateView (LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         getDialog ().setTitle (getString (R.string.sign_in));
-        View v = inflater.inflate (R.layout.fingerprint_dialog, container, false);
-        
-        initView (v);
-        initListener ();
+        if (mViews == null || mViews.owner != getActivity ()) {
+            long inflateStart = AppMetrics.latency ().begin (LatencyRecorder.Stage.LAYOUT_INFLATE);
+            View v = inflater.inflate (R.layout.fingerprint_dialog, container, false);
+            AppMetrics.latency ().end (LatencyRecorder.Stage.LAYOUT_INFLATE, inflateStart);
+            initView (new DialogViews (v, getActivity ()));
+        } else {
+            resetViews ();
+        }
+        mViews.detach ();
         
         if (! fingerprintUiHelper.isFingerprintAuthAvailable ()) {
             showPasswordLayout ();
+        } else if (cryptoObject == null) {
+            showPreparing ();
+        } else if (authState.getType () != AuthenticationType.FINGERPRINT) {
+            showPasswordLayout ();
+        }
+        return mViews.root;
+    }
+    
+    @Override
+    public void onDestroyView () {
+        // The old activity's window takes the dialog down with it; without this its dismiss message
+        // would also remove the retained fragment instead of letting it re-attach.
+        if (getDialog () != null && getRetainInstance ()) {
+            getDialog ().setDismissMessage (null);
+        }
+        super.onDestroyView ();
+        if (! mChangingConfigurations) {
+            cancelPendingCallbacks ();
+        }
+        Activity activity = getActivity ();
+        if (activity == null || activity.isChangingConfigurations () || activity.isFinishing ()) {
+            // The hierarchy belongs to an activity that is going away.
+            releaseViews ();
+        } else if (mViews != null) {
+            // Keep the hierarchy for the next show, but take it out of this dialog's window.
+            mViews.detach ();
+        }
+    }
+    
+    /**
+     * Drops the hierarchy prewarmed for {@code owner}. Call it when {@code owner} is destroyed while
+     * the dialog is not showing, so a dialog that outlives it does not keep its views.
+     */
+    public void releaseViews (Activity owner) {
+        if (! isAdded () && mViews != null && mViews.owner == owner) {
+            releaseViews ();
+        }
+    }
+    
+    private void releaseViews () {
+        if (mViews != null) {
+            mViews.detach ();
+        }
+        mViews = null;
+        ivIcon = null;
+        tvMessage = null;
+        btPositive = null;
+        btNegative = null;
+        btNeutral = null;
+        cbFingerprintInFuture = null;
+        etPassword = null;
+        tv2 = null;
+    }
+    
+    /**
+     * Drops the delayed UI work of a show that is over; none of it may outlive the dialog's views.
+     */
+    private void cancelPendingCallbacks () {
+        AppExecutors.mainHandler ().removeCallbacks (mShowKeyboardRunnable);
+        AppExecutors.mainHandler ().removeCallbacks (mHideKeyboardRunnable);
+        if (fingerprintUiHelper != null) {
+            fingerprintUiHelper.mFeedback.cancel ();
         }
-        return v;
     }
     
-    public void initView (View v) {
-        ivIcon = (ImageView) v.findViewById (R.id.ivIcon);
-        tvMessage = (TextView) v.findViewById (R.id.tvMessage);
-        btPositive = (Button) v.findViewById (R.id.btPositive);
-        btNegative = (Button) v.findViewById (R.id.btNegative);
-        btNeutral = (Button) v.findViewById (R.id.btNeutral);
-        cbFingerprintInFuture = (CheckBox) v.findViewById (R.id.cbFingerprintInFuture);
-        rlFingerprint = (RelativeLayout) v.findViewById (R.id.rlFingerprint);
-        rlPassword = (RelativeLayout) v.findViewById (R.id.rlPassword);
-        etPassword = (EditText) v.findViewById (R.id.etPassword);
-        tv2 = (TextView) v.findViewById (R.id.tv2);
+    private void initView (DialogViews views) {
+        mViews = views;
+        ivIcon = views.ivIcon;
+        tvMessage = views.tvMessage;
+        btPositive = views.btPositive;
+        btNegative = views.btNegative;
+        btNeutral = views.btNeutral;
+        cbFingerprintInFuture = views.cbFingerprintInFuture;
+        etPassword = views.etPassword;
+        tv2 = views.tv2;
+        initListener ();
     }
     
-    public void initListener () {
+    /**
+     * Puts a reused hierarchy back into the state a fresh inflation starts in.
+     */
+    private void resetViews () {
+        mViews.showFingerprintViews (true);
+        btNeutral.setText ("PASSWORD");
+        btNeutral.setEnabled (true);
+        btPositive.setEnabled (false);
+        etPassword.setText ("");
+        etPassword.setError (null);
+        fingerprintUiHelper.mFeedback.reset ();
+    }
+    
+    private void initListener () {
         btNegative.setOnClickListener (new View.OnClickListener () {
             @Override
             public void onClick (View view) {
+                onCancel (getDialog ());
                 dismiss ();
             }
         });
         btNeutral.setOnClickListener (new View.OnClickListener () {
             @Override
             public void onClick (View view) {
-                if (authenticationType == AuthenticationType.FINGERPRINT) {
+                if (authState.getType () == AuthenticationType.FINGERPRINT) {
                     showPasswordLayout ();
                 } else {
                     showFingerprintLayout ();
@@ -207,129 +555,310 @@ public class FingerprintDialog extends DialogFragment {
     @Override
     public void onResume () {
         super.onResume ();
-        if (authenticationType == AuthenticationType.FINGERPRINT) {
-            fingerprintUiHelper.startListening (cryptoObject);
+        if (mChangingConfigurations) {
+            mChangingConfigurations = false;
+            if (mPendingPasswordMatch != null) {
+                boolean matches = mPendingPasswordMatch;
+                mPendingPasswordMatch = null;
+                onPasswordChecked (matches);
+                return;
+            }
+        } else {
+            // The user may have changed the lock screen or fingerprints while we were in the background.
+            getCapabilities (context).refresh ();
+        }
+        if (mShownAtNanos == 0) {
+            mShownAtNanos = System.nanoTime ();
+        }
+        if (authState.getType () == AuthenticationType.FINGERPRINT) {
+            startFingerprintListening ();
         }
     }
     
     @Override
     public void onPause () {
         super.onPause ();
-        fingerprintUiHelper.stopListening ();
+        if (getActivity ().isChangingConfigurations ()) {
+            // Keep the sensor armed through the rotation; a touch in progress is not lost.
+            mChangingConfigurations = true;
+            fingerprintUiHelper.park ();
+        } else {
+            fingerprintUiHelper.stopListening ();
+        }
+    }
+    
+    private void startFingerprintListening () {
+        if (cryptoObject == null) {
+            // Keys are still being prepared; onKeysPrepared starts listening once they are ready.
+            showPreparing ();
+            return;
+        }
+        fingerprintUiHelper.startListening (cryptoObject);
+    }
+    
+    private void showPreparing () {
+        tvMessage.setTextColor (mHintColor);
+        tvMessage.setText (mPreparingText);
+    }
+    
+    private void onKeysPrepared (FingerprintManager.CryptoObject cryptoObject) {
+        this.cryptoObject = cryptoObject;
+        authState.onKeysReady (cryptoObject == null, mSharedPreferences.getBoolean (USE_FINGERPRINT_IN_FUTURE, true));
+        if (getView () == null) {
+            return;
+        }
+        if (authState.getType () != AuthenticationType.FINGERPRINT) {
+            showPasswordLayout ();
+        } else if (isResumed ()) {
+            startFingerprintListening ();
+        }
+    }
+    
+    /**
+     * A keystore failure while preparing in the background. The password still works, so fall
+     * back to it instead of crashing; the next show prepares the keys again.
+     */
+    private void onKeysFailed (Exception e) {
+        Log.e (TAG, "Failed to initKeys Cipher", e);
+        cryptoObject = null;
+        mKeyPreparer.cancel ();
+        authState.switchToPassword ();
+        if (getView () != null) {
+            showPasswordLayout ();
+        }
     }
     
     private void showPasswordLayout () {
         btNeutral.setText ("FINGERPRINT");
         tv2.setText ("Enter password to continue");
-        rlFingerprint.setVisibility (View.GONE);
-        rlPassword.setVisibility (View.VISIBLE);
-        if (isNewFingerprintEnrolled) {
-            authenticationType = AuthenticationType.NEW_FINGERPRINT_ENROLLED;
+        mViews.showFingerprintViews (false);
+        authState.switchToPassword ();
+        if (! authState.canSwitchToFingerprint ()) {
             btNeutral.setEnabled (false);
             tv2.setText ("New fingerprint enrolled, password compulsory");
             cbFingerprintInFuture.setVisibility (View.VISIBLE);
-        } else {
-            authenticationType = AuthenticationType.PASSWORD;
         }
         etPassword.requestFocus ();
-        etPassword.postDelayed (mShowKeyboardRunnable, 100);
+        AppExecutors.mainHandler ().removeCallbacks (mShowKeyboardRunnable);
+        AppExecutors.mainHandler ().postDelayed (mShowKeyboardRunnable, 100);
         fingerprintUiHelper.stopListening ();
     }
     
     private void showFingerprintLayout () {
         hideKeyboard ();
-        authenticationType = AuthenticationType.FINGERPRINT;
-        fingerprintUiHelper.startListening (cryptoObject);
+        authState.switchToFingerprint ();
+        startFingerprintListening ();
         btPositive.setEnabled (false);
         btNeutral.setText ("PASSWORD");
         etPassword.setText ("");
-        rlFingerprint.setVisibility (View.VISIBLE);
-        rlPassword.setVisibility (View.GONE);
+        mViews.showFingerprintViews (true);
     }
     
     private void verifyPassword () {
-        if (! checkPassword (etPassword.getText ().toString ())) {
+        final char[] password = etPassword.getText ().toString ().toCharArray ();
+        showCheckingPassword (true);
+        AppExecutors.background ().execute (new Runnable () {
+            @Override
+            public void run () {
+                final boolean matches = checkPassword (password);
+                Arrays.fill (password, '\0');
+                AppExecutors.mainThread ().execute (new Runnable () {
+                    @Override
+                    public void run () {
+                        onPasswordChecked (matches);
+                    }
+                });
+            }
+        });
+    }
+    
+    private void showCheckingPassword (boolean checking) {
+        etPassword.setEnabled (! checking);
+        btPositive.setEnabled (! checking);
+        btPositive.setText (checking ? R.string.password_checking : R.string.ok);
+    }
+    
+    private void onPasswordChecked (boolean matches) {
+        if (! isAdded ()) {
+            return;
+        }
+        if (mViews == null) {
+            // Mid-rotation; onResume finishes the check on the new views.
+            mPendingPasswordMatch = matches;
+            return;
+        }
+        showCheckingPassword (false);
+        if (! matches) {
+            AppMetrics.audit (AuditLog.Event.FAILED, AuthResult.Method.PASSWORD, 0);
             etPassword.setError ("Password Not Match");
             return;
         }
-        if (authenticationType == AuthenticationType.NEW_FINGERPRINT_ENROLLED) {
+        if (authState.getType () == AuthenticationType.NEW_FINGERPRINT_ENROLLED) {
             SharedPreferences.Editor editor = mSharedPreferences.edit ();
             editor.putBoolean (USE_FINGERPRINT_IN_FUTURE, cbFingerprintInFuture.isChecked ());
             editor.apply ();
-            
-            if (cbFingerprintInFuture.isChecked ()) {
-                createKey (DEFAULT_KEY_NAME);
-                authenticationType = AuthenticationType.FINGERPRINT;
-            }
+        }
+        if (authState.onPasswordVerified (cbFingerprintInFuture.isChecked ())) {
+            recreateKeys ();
         }
         etPassword.setText ("");
-        mActivity.onSuccessfulAuthentication (false /* without Fingerprint */, null);
+        if (mAuthSession != null) {
+            mAuthSession.onAuthenticationFailed (new UserNotAuthenticatedException (
+                    "Authenticated with the password, which does not unlock keystore keys"));
+        }
+        completeAuthentication (null, AuthResult.Method.PASSWORD);
         dismiss ();
     }
     
-    public void createKey (String keyName) {
-        try {
-            keyStore.load (null);
-            KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec
-                    .Builder (keyName, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
-                    .setBlockModes (KeyProperties.BLOCK_MODE_CBC)
-                    .setUserAuthenticationRequired (true)
-                    .setEncryptionPaddings (KeyProperties.ENCRYPTION_PADDING_PKCS7);
-            keyGenerator.init (builder.build ());
-            keyGenerator.generateKey ();
-        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException
-                | CertificateException | IOException e) {
-            throw new RuntimeException (e);
+    /**
+     * Process-wide, like the key manager. The first call schedules the initial probe; until it has
+     * finished {@link CapabilityCache#get()} returns null and the dialog assumes fingerprint works.
+     */
+    static synchronized CapabilityCache getCapabilities (Context context) {
+        if (sCapabilities == null) {
+            final Context appContext = context.getApplicationContext ();
+            sCapabilities = new CapabilityCache (new CapabilityCache.Probe () {
+                @Override
+                public CapabilityCache.Snapshot probe () {
+                    LatencyRecorder latency = AppMetrics.latency ();
+                    long start = latency.begin (LatencyRecorder.Stage.CAPABILITY_PROBE);
+                    try {
+                        KeyguardManager keyguardManager = appContext.getSystemService (KeyguardManager.class);
+                        FingerprintManager fingerprintManager = appContext.getSystemService (FingerprintManager.class);
+                        // The line below prevents the false positive inspection from Android Studio
+                        // noinspection ResourceType
+                        return new CapabilityCache.Snapshot (keyguardManager.isKeyguardSecure (),
+                                fingerprintManager.isHardwareDetected (), fingerprintManager.hasEnrolledFingerprints ());
+                    } finally {
+                        latency.end (LatencyRecorder.Stage.CAPABILITY_PROBE, start);
+                    }
+                }
+            }, AppExecutors.capabilities ());
+            sCapabilities.refresh ();
         }
+        return sCapabilities;
     }
     
-    public void initKeys (Context context) {
-        try {
-            keyStore = KeyStore.getInstance ("AndroidKeyStore");
-        } catch (KeyStoreException e) {
-            throw new RuntimeException ("Failed to get an instance of KeyStore", e);
+    private void onCapabilitiesUpdated () {
+        if (! isAdded ()) {
+            return;
         }
-        try {
-            keyGenerator = KeyGenerator.getInstance (KeyProperties.KEY_ALGORITHM_AES, "AndroidKeyStore");
-        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
-            throw new RuntimeException ("Failed to get an instance of KeyGenerator", e);
+        checkFingerprintAvailable (context);
+        if (getView () != null && authState.getType () == AuthenticationType.FINGERPRINT
+                && ! fingerprintUiHelper.isFingerprintAuthAvailable ()) {
+            fingerprintUiHelper.stopListening ();
+            showPasswordLayout ();
         }
+    }
+    
+    /**
+     * The key manager lives as long as the process, so the key handle is loaded once and reused by
+     * every dialog instance.
+     */
+    static synchronized KeyLifecycleManager getKeyManager () {
+        if (sKeyManager == null) {
+            sKeyManager = new KeyLifecycleManager (AndroidKeyStoreProvider.create ());
+        }
+        return sKeyManager;
+    }
+    
+    /**
+     * The per-account, per-purpose keys. Missing ones are generated on the keygen executor by
+     * {@link KeyRegistry#pregenerate()}, so a dialog show finds its key ready.
+     */
+    public static synchronized KeyRegistry getKeyRegistry () {
+        if (sKeyRegistry == null) {
+            sKeyRegistry = new KeyRegistry (getKeyManager (), AppExecutors.keygen ());
+        }
+        return sKeyRegistry;
+    }
+    
+    static synchronized AndroidSigningKeys getSigningKeys () {
+        if (sSigningKeys == null) {
+            sSigningKeys = AndroidSigningKeys.create (0);
+        }
+        return sSigningKeys;
+    }
+    
+    /**
+     * Hands the cipher of a {@link FingerprintManager.CryptoObject} the caller has finished with
+     * (after its doFinal) back to the pool, so the next show skips building a new one.
+     */
+    public void recycle (FingerprintManager.CryptoObject crypto) {
+        if (crypto != null && crypto.getCipher () != null) {
+            getKeyManager ().releaseCipher (mKeyAlias, crypto.getCipher ());
+        }
+    }
+    
+    /**
+     * Runs on the keystore thread. Returns null when the key was permanently invalidated by a new
+     * fingerprint enrollment.
+     */
+    public FingerprintManager.CryptoObject initKeys (boolean recreateKey) {
+        if (mSigningAlias != null) {
+            return initSignature (recreateKey);
+        }
+        KeyRegistry registry = getKeyRegistry ();
+        KeyLifecycleManager keyManager = registry.getKeyManager ();
+        LatencyRecorder latency = AppMetrics.latency ();
         try {
-            cipher = Cipher.getInstance (
-                    KeyProperties.KEY_ALGORITHM_AES + "/"
-                            + KeyProperties.BLOCK_MODE_CBC + "/"
-                            + KeyProperties.ENCRYPTION_PADDING_PKCS7);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new RuntimeException ("Failed to get an instance of Cipher", e);
-        }
-        createKey (DEFAULT_KEY_NAME);
-        
-        try {
-            keyStore.load (null);
-            SecretKey key = (SecretKey) keyStore.getKey (DEFAULT_KEY_NAME, null);
-            cipher.init (Cipher.ENCRYPT_MODE, key);
-            cryptoObject = new FingerprintManager.CryptoObject (cipher);
-            mSharedPreferences = PreferenceManager.getDefaultSharedPreferences (context);
-            if (mSharedPreferences.getBoolean (USE_FINGERPRINT_IN_FUTURE, true)) {
-                authenticationType = AuthenticationType.FINGERPRINT;
-            } else {
-                authenticationType = AuthenticationType.PASSWORD;
+            long start = latency.begin (LatencyRecorder.Stage.KEY_LOAD);
+            try {
+                if (recreateKey) {
+                    registry.recreateKey (mKeyAlias);
+                } else if (! registry.isReady (mKeyAlias)) {
+                    // Only when pre-generation has not got to this key yet.
+                    keyManager.getKey (mKeyAlias);
+                }
+            } finally {
+                latency.end (LatencyRecorder.Stage.KEY_LOAD, start);
             }
-            isNewFingerprintEnrolled = false;
-        } catch (KeyPermanentlyInvalidatedException e) {
-            authenticationType = AuthenticationType.NEW_FINGERPRINT_ENROLLED;
-            isNewFingerprintEnrolled = true;
-        } catch (KeyStoreException | CertificateException | UnrecoverableKeyException | IOException
-                | NoSuchAlgorithmException | InvalidKeyException e) {
+            start = latency.begin (LatencyRecorder.Stage.CIPHER_INIT);
+            try {
+                cipher = registry.initCipher (mKeyAlias, Cipher.ENCRYPT_MODE);
+            } finally {
+                latency.end (LatencyRecorder.Stage.CIPHER_INIT, start);
+            }
+            Log.d (TAG, "initKeys: " + keyManager.getStats ());
+            return new FingerprintManager.CryptoObject (cipher);
+        } catch (KeyInvalidatedException e) {
+            // A new enrollment invalidated the key, so the enrolled set has changed too.
+            getCapabilities (context).refresh ();
+            return null;
+        } catch (GeneralSecurityException e) {
             throw new RuntimeException ("Failed to initKeys Cipher", e);
         }
     }
     
+    private FingerprintManager.CryptoObject initSignature (boolean recreateKey) {
+        AndroidSigningKeys signingKeys = getSigningKeys ();
+        LatencyRecorder latency = AppMetrics.latency ();
+        long start = latency.begin (LatencyRecorder.Stage.CIPHER_INIT);
+        try {
+            if (recreateKey) {
+                signingKeys.deleteKey (mSigningAlias);
+            }
+            return new FingerprintManager.CryptoObject (signingKeys.initSignature (mSigningAlias));
+        } catch (KeyInvalidatedException e) {
+            getCapabilities (context).refresh ();
+            return null;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException ("Failed to init Signature", e);
+        } finally {
+            latency.end (LatencyRecorder.Stage.CIPHER_INIT, start);
+        }
+    }
+    
+    /**
+     * Reads the cached capability snapshot, so it is cheap enough for the main thread. Returns true
+     * while the first probe is still running.
+     */
     public boolean checkFingerprintAvailable (Context context) {
-        KeyguardManager keyguardManager = context.getSystemService (KeyguardManager.class);
-        FingerprintManager fingerprintManager = context.getSystemService (FingerprintManager.class);
-        
-        if (! keyguardManager.isKeyguardSecure ()) {
+        CapabilityCache.Snapshot capabilities = getCapabilities (context).get ();
+        if (capabilities == null) {
+            return true;
+        }
+        if (! capabilities.isKeyguardSecure ()) {
             // Show a message that the user hasn't set up a fingerprint or lock screen.
             Toast.makeText (context,
                     "Secure lock screen hasn't set up.\n"
@@ -337,9 +866,7 @@ public class FingerprintDialog extends DialogFragment {
                     Toast.LENGTH_LONG).show ();
             return false;
         }
-        // The line below prevents the false positive inspection from Android Studio
-        // noinspection ResourceType
-        if (! fingerprintManager.hasEnrolledFingerprints ()) {
+        if (! capabilities.hasEnrolledFingerprints ()) {
             // This happens when no fingerprints are registered.
             Toast.makeText (context,
                     "Go to 'Settings -> Security -> Fingerprint' and register at least one fingerprint",
@@ -349,134 +876,302 @@ public class FingerprintDialog extends DialogFragment {
         return true;
     }
     
+    /**
+     * Shows the dialog and reports the outcome to {@code listener} on {@code executor}, so the
+     * post-auth crypto can run off the UI thread. Safe to call from any thread; if the dialog is
+     * already showing, the caller joins that sensor session instead of restarting it. The crypto
+     * object of a result is null when the user fell back to the password, and for a caller that
+     * joined: only the request that opened the dialog may use it.
+     */
+    public void authenticate (final AuthRequest request, Executor executor,
+                              AuthCoordinator.Callback<AuthResult<FingerprintManager.CryptoObject>> listener) {
+        mCoordinator.request (AuthCoordinator.deliverOn (executor, listener),
+                new AuthCoordinator.Session<AuthResult<FingerprintManager.CryptoObject>> () {
+                    @Override
+                    public void start (final AuthCoordinator.Callback<AuthResult<FingerprintManager.CryptoObject>> completion) {
+                        Runnable start = new Runnable () {
+                            @Override
+                            public void run () {
+                                mCompletion = completion;
+                                mRequestedAtNanos = request.getCreatedAtNanos ();
+                                mShownAtNanos = 0;
+                                if (mSharedPreferences != null) {
+                                    // Before arming, which only starts the sensor for FINGERPRINT.
+                                    authState.onShow (mSharedPreferences.getBoolean (USE_FINGERPRINT_IN_FUTURE, true));
+                                }
+                                if (mEarlyArming) {
+                                    armSensor (request.getFragmentManager ());
+                                }
+                                show (request.getFragmentManager (), null);
+                            }
+                        };
+                        // From a click, arm the sensor now rather than a frame later.
+                        if (Looper.myLooper () == Looper.getMainLooper ()) {
+                            start.run ();
+                        } else {
+                            AppExecutors.mainThread ().execute (start);
+                        }
+                    }
+                });
+    }
+    
+    /**
+     * Shows the dialog without reporting how it ended.
+     *
+     * @deprecated the dialog no longer calls back into its activity; use
+     * {@link #authenticate(AuthRequest, Executor, AuthCoordinator.Callback)} to get the result and
+     * the authorized crypto object.
+     */
+    @Deprecated
     public void showFingerprintDialog (FragmentManager fragmentManager) {
-        show (fragmentManager, null);
+        authenticate (new AuthRequest (fragmentManager), AppExecutors.mainThread (),
+                new AuthCoordinator.Callback<AuthResult<FingerprintManager.CryptoObject>> () {
+                    @Override
+                    public void onSuccess (AuthResult<FingerprintManager.CryptoObject> result) {
+                        // The single-use crypto object goes unused; hand it back for the next show.
+                        recycle (result.getCrypto ());
+                    }
+                    
+                    @Override
+                    public void onFailure (Exception e) {
+                        Log.d (TAG, "Authentication did not complete", e);
+                    }
+                });
     }
     
-    private void hideKeyboard () {
-        new Handler ().postDelayed (new Runnable () {
+    /**
+     * Starts the sensor before the dialog has attached. Skipped unless fingerprint is what the
+     * dialog would listen for anyway.
+     */
+    private void armSensor (final FragmentManager fragmentManager) {
+        if (fingerprintUiHelper == null || ! fingerprintUiHelper.isFingerprintAuthAvailable ()) {
+            return;
+        }
+        if (cryptoObject == null && mKeyPreparer.getState () == KeyPreparer.State.READY) {
+            // First show: the prepared keys have not been handed over by onAttach yet.
+            onKeysPrepared (mKeyPreparer.getResult ());
+        }
+        if (cryptoObject == null || authState.getType () != AuthenticationType.FINGERPRINT) {
+            return;
+        }
+        fingerprintUiHelper.arm (cryptoObject, new SensorSession.EarlyMatchListener<FingerprintManager.CryptoObject> () {
             @Override
-            public void run () {
-                try {
-                    InputMethodManager inputManager = (InputMethodManager) context.getSystemService (Context.INPUT_METHOD_SERVICE);
-                    inputManager.hideSoftInputFromWindow (getView ().getWindowToken (), 0);
-                } catch (Exception e) {
+            public void onEarlyMatch (FingerprintManager.CryptoObject crypto) {
+                fingerprintUiHelper.onEarlyMatch ();
+                if (! isAdded ()) {
+                    // The show is still queued; run it so it can be taken down in the same frame.
+                    fragmentManager.executePendingTransactions ();
+                }
+                if (isAdded ()) {
+                    dismiss ();
                 }
             }
-        }, 200);
-        
+        });
     }
     
-    private boolean checkPassword (String password) {
-        if (password.equalsIgnoreCase ("123456")) {
-            return true;
-        } else {
-            return false;
+    private void hideKeyboard () {
+        AppExecutors.mainHandler ().removeCallbacks (mHideKeyboardRunnable);
+        AppExecutors.mainHandler ().postDelayed (mHideKeyboardRunnable, 200);
+    }
+    
+    /**
+     * Runs the KDF, so call it on the background executor only.
+     */
+    private boolean checkPassword (char[] password) {
+        PasswordHasher.Hash stored = loadPasswordHash ();
+        return stored != null && PasswordHasher.verify (password, stored);
+    }
+    
+    /**
+     * Returns null if the stored hash was corrupt. It is enrolled again, but the attempt being
+     * checked counts as a mismatch.
+     */
+    private synchronized PasswordHasher.Hash loadPasswordHash () {
+        String stored = mSharedPreferences.getString (PASSWORD_HASH, null);
+        if (stored != null) {
+            try {
+                return PasswordHasher.Hash.decode (stored);
+            } catch (IllegalArgumentException e) {
+                Log.w (TAG, "Malformed password hash, enrolling it again", e);
+                enrollPassword ();
+                return null;
+            }
         }
+        return enrollPassword ();
     }
     
-    private enum AuthenticationType {
-        FINGERPRINT,
-        NEW_FINGERPRINT_ENROLLED,
-        PASSWORD
+    private PasswordHasher.Hash enrollPassword () {
+        int iterations = PasswordHasher.calibrate (PASSWORD_KDF_TARGET_MILLIS);
+        PasswordHasher.Hash hash = new PasswordHasher (iterations).hash (DEFAULT_PASSWORD.toCharArray ());
+        mSharedPreferences.edit ().putString (PASSWORD_HASH, hash.encode ()).apply ();
+        Log.d (TAG, "Calibrated password KDF to " + iterations + " iterations");
+        return hash;
     }
     
-    public class FingerprintUiHelper extends FingerprintManager.AuthenticationCallback {
+    public class FingerprintUiHelper implements Authenticator.Callback<FingerprintManager.CryptoObject>,
+            AuthFeedback.FeedbackView {
         
-        private static final long ERROR_TIMEOUT_MILLIS = 1500;
-        private static final long SUCCESS_DELAY_MILLIS = 1000;
-        
-        private final FingerprintManager mFingerprintManager;
-        private CancellationSignal mCancellationSignal;
-        
-        private boolean mSelfCancelled;
-        private Runnable mResetErrorTextRunnable = new Runnable () {
-            @Override
-            public void run () {
-                tvMessage.setTextColor (getResources ().getColor (R.color.hint_color, null));
-                tvMessage.setText (getResources ().getString (R.string.fingerprint_hint));
-                ivIcon.setImageResource (R.drawable.ic_fp_40px);
-            }
-        };
+        private final SensorSession<FingerprintManager.CryptoObject> mSession;
+        final SuccessHold mSuccessHold;
+        final AuthFeedback<FingerprintManager.CryptoObject> mFeedback;
+        private long mListeningSinceNanos;
+        private long mSucceededAtNanos;
         
-        FingerprintUiHelper (FingerprintManager fingerprintManager) {
-            mFingerprintManager = fingerprintManager;
+        FingerprintUiHelper (Authenticator<FingerprintManager.CryptoObject> authenticator) {
+            mSession = new SensorSession<> (authenticator);
+            mSuccessHold = new SuccessHold (AppExecutors.mainScheduler (), new SuccessHold.Target () {
+                @Override
+                public void deliverResult () {
+                    onAuthenticated ();
+                }
+                
+                @Override
+                public void finish () {
+                    if (isAdded ()) {
+                        dismiss ();
+                    }
+                }
+            }, mLatencyPolicy);
+            mFeedback = new AuthFeedback<> (this, AppExecutors.mainScheduler (), mSuccessHold, new Runnable () {
+                @Override
+                public void run () {
+                    onError ();
+                }
+            });
         }
         
         public boolean isFingerprintAuthAvailable () {
-            // The line below prevents the false positive inspection from Android Studio
-            // noinspection ResourceType
-            return mFingerprintManager.isHardwareDetected () && mFingerprintManager.hasEnrolledFingerprints ();
+            CapabilityCache.Snapshot capabilities = getCapabilities (context).get ();
+            return capabilities == null || capabilities.isFingerprintAvailable ();
         }
         
         public void startListening (FingerprintManager.CryptoObject cryptoObject) {
             if (! isFingerprintAuthAvailable ()) {
                 return;
             }
-            mCancellationSignal = new CancellationSignal ();
-            mSelfCancelled = false;
-            // The line below prevents the false positive inspection from Android Studio
-            // noinspection ResourceType
-            mFingerprintManager.authenticate (cryptoObject, mCancellationSignal, 0 /* flags */, this, null);
-            ivIcon.setImageResource (R.drawable.ic_fp_40px);
+            long start = AppMetrics.latency ().begin (LatencyRecorder.Stage.START_LISTENING);
+            boolean started = mSession.listen (cryptoObject, this);
+            if (started) {
+                mFeedback.reset ();
+            }
+            long end = AppMetrics.latency ().end (LatencyRecorder.Stage.START_LISTENING, start);
+            if (started) {
+                // A rebind after a rotation keeps the original start for SENSOR_WAIT.
+                mListeningSinceNanos = end;
+            }
         }
         
-        public void stopListening () {
-            if (mCancellationSignal != null) {
-                mSelfCancelled = true;
-                mCancellationSignal.cancel ();
-                mCancellationSignal = null;
+        /**
+         * Starts the sensor with no UI bound yet; the next {@link #startListening} with the same
+         * crypto object takes over the session.
+         */
+        void arm (FingerprintManager.CryptoObject cryptoObject,
+                  SensorSession.EarlyMatchListener<FingerprintManager.CryptoObject> listener) {
+            if (mSession.arm (cryptoObject, listener)) {
+                mFeedback.reset ();
+                mListeningSinceNanos = System.nanoTime ();
             }
         }
         
+        public void stopListening () {
+            mSession.cancel ();
+        }
+        
+        /**
+         * Keeps the sensor session running while the views are rebuilt; the next
+         * {@link #startListening} with the same crypto object picks it up again.
+         */
+        void park () {
+            mSession.park ();
+        }
+        
         @Override
         public void onAuthenticationError (int errMsgId, CharSequence errString) {
-            if (! mSelfCancelled) {
-                showError (errString);
-                ivIcon.postDelayed (new Runnable () {
-                    @Override
-                    public void run () {
-                        onError ();
-                    }
-                }, ERROR_TIMEOUT_MILLIS);
-            }
+            // Lockout or hardware errors may mean the capabilities changed under us.
+            getCapabilities (context).refresh ();
+            AppMetrics.audit (AuditLog.Event.ERROR, AuthResult.Method.FINGERPRINT, errMsgId);
+            mFeedback.onAuthenticationError (errMsgId, errString);
         }
         
         @Override
         public void onAuthenticationHelp (int helpMsgId, CharSequence helpString) {
-            showError (helpString);
+            mFeedback.onAuthenticationHelp (helpMsgId, helpString);
         }
         
         @Override
         public void onAuthenticationFailed () {
-            showError (getResources ().getString (R.string.fingerprint_not_recognized));
+            AppMetrics.audit (AuditLog.Event.FAILED, AuthResult.Method.FINGERPRINT, 0);
+            mFeedback.onAuthenticationFailed ();
         }
         
         @Override
-        public void onAuthenticationSucceeded (FingerprintManager.AuthenticationResult result) {
-            tvMessage.removeCallbacks (mResetErrorTextRunnable);
-            ivIcon.setImageResource (R.drawable.ic_fingerprint_success);
-            tvMessage.setTextColor (getResources ().getColor (R.color.success_color, null));
-            tvMessage.setText (getResources ().getString (R.string.fingerprint_success));
-            ivIcon.postDelayed (new Runnable () {
-                @Override
-                public void run () {
-                    onAuthenticated ();
-                }
-            }, SUCCESS_DELAY_MILLIS);
+        public void onAuthenticationSucceeded (FingerprintManager.CryptoObject crypto) {
+            LatencyRecorder latency = AppMetrics.latency ();
+            long start = latency.begin (LatencyRecorder.Stage.SUCCEEDED_CALLBACK);
+            latency.record (LatencyRecorder.Stage.SENSOR_WAIT, start - mListeningSinceNanos);
+            mSucceededAtNanos = start;
+            mFeedback.onAuthenticationSucceeded (crypto);
+            latency.end (LatencyRecorder.Stage.SUCCEEDED_CALLBACK, start);
+        }
+        
+        @Override
+        public void showHint () {
+            if (mViews == null) {
+                return;
+            }
+            tvMessage.setTextColor (mHintColor);
+            tvMessage.setText (mHintText);
+            ivIcon.setImageResource (R.drawable.ic_fp_40px);
         }
         
-        private void showError (CharSequence error) {
+        @Override
+        public void showError (CharSequence error) {
+            if (mViews == null) {
+                return;
+            }
             ivIcon.setImageResource (R.drawable.ic_fingerprint_error);
             tvMessage.setText (error);
-            tvMessage.setTextColor (getResources ().getColor (R.color.warning_color, null));
-            tvMessage.removeCallbacks (mResetErrorTextRunnable);
-            tvMessage.postDelayed (mResetErrorTextRunnable, ERROR_TIMEOUT_MILLIS);
+            tvMessage.setTextColor (mWarningColor);
+        }
+        
+        @Override
+        public void showNotRecognized () {
+            showError (mNotRecognizedText);
+        }
+        
+        @Override
+        public void showSuccess () {
+            if (mViews == null) {
+                return;
+            }
+            ivIcon.setImageResource (R.drawable.ic_fingerprint_success);
+            tvMessage.setTextColor (mSuccessColor);
+            tvMessage.setText (mSuccessText);
         }
         
         void onAuthenticated () {
-            mActivity.onSuccessfulAuthentication (true /* withFingerprint */, cryptoObject);
-            dismiss ();
+            AppMetrics.latency ().record (LatencyRecorder.Stage.SUCCESS_HOLD, System.nanoTime () - mSucceededAtNanos);
+            if (mAuthSession != null) {
+                mAuthSession.onAuthenticated ();
+            }
+            completeAuthentication (cryptoObject, AuthResult.Method.FINGERPRINT);
+            // The cipher has been used up by doFinal, get a fresh one ready for the next show.
+            cryptoObject = null;
+            prepareKeys ();
+        }
+        
+        /**
+         * A match while the sensor was armed ahead of the dialog: no success state to hold.
+         */
+        void onEarlyMatch () {
+            long now = System.nanoTime ();
+            AppMetrics.latency ().record (LatencyRecorder.Stage.SENSOR_WAIT, now - mListeningSinceNanos);
+            mSucceededAtNanos = now;
+            if (mShownAtNanos == 0) {
+                // Never on screen; the whole wait counts as the user's.
+                mShownAtNanos = mRequestedAtNanos;
+            }
+            onAuthenticated ();
         }
         
         void onError () {
@@ -3,7 +3,8 @@ package com.karman.fingerprintdialog;
 import android.app.Activity;
 import android.hardware.fingerprint.FingerprintManager;
 import android.os.Bundle;
-import android.support.annotation.Nullable;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.util.Base64;
 import android.util.Log;
 import android.view.View;
@@ -11,14 +12,33 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.karman.fingerprintdialog.core.AuthCoordinator;
+import com.karman.fingerprintdialog.core.AuthResult;
+import com.karman.fingerprintdialog.core.BatchSigner;
+import com.karman.fingerprintdialog.core.KeyRegistry;
+import com.karman.fingerprintdialog.core.LatencyPolicy;
+import com.karman.fingerprintdialog.core.LatencyRecorder;
+
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 
 
 public class MainActivity extends Activity {
+    private static final String TAG = "MainActivity";
+    // The sample has a single signed-in user.
+    private static final String ACCOUNT = "default";
     
     Button purchaseButton;
     FingerprintDialog fingerprintDialog;
+    private PurchaseCallback purchaseCallback;
+    // Purchases waiting for the next authentication; signed as one batch when the dialog is in
+    // signing mode (see FingerprintDialog.setSigningKey).
+    private final List<byte[]> pendingTransactions = new ArrayList<> ();
     
     @Override
     protected void onCreate (Bundle savedInstanceState) {
@@ -29,12 +49,55 @@ public class MainActivity extends Activity {
         initListener ();
     }
     
+    @Override
+    public Object onRetainNonConfigurationInstance () {
+        return new Retained (fingerprintDialog, purchaseCallback);
+    }
+    
+    @Override
+    protected void onDestroy () {
+        super.onDestroy ();
+        // Both may outlive this instance; neither may keep it, or its views, alive.
+        purchaseCallback.activity = null;
+        fingerprintDialog.releaseViews (this);
+    }
+    
     private void initView () {
         purchaseButton = (Button) findViewById (R.id.purchase_button);
     }
     
     private void initData () {
-        fingerprintDialog = new FingerprintDialog ();
+        final KeyRegistry keyRegistry = FingerprintDialog.getKeyRegistry ();
+        String paymentKey = keyRegistry.register (ACCOUNT, KeyRegistry.Purpose.PAYMENT);
+        keyRegistry.register (ACCOUNT, KeyRegistry.Purpose.VAULT);
+        keyRegistry.register (ACCOUNT, KeyRegistry.Purpose.SIGN_IN);
+        // Generate whatever keys are missing once startup has settled, off the keystore thread.
+        Looper.myQueue ().addIdleHandler (new MessageQueue.IdleHandler () {
+            @Override
+            public boolean queueIdle () {
+                keyRegistry.pregenerate ();
+                return false;
+            }
+        });
+        // After a rotation the dialog from the previous instance comes back with its keys prepared.
+        Retained retained = (Retained) getLastNonConfigurationInstance ();
+        if (retained != null) {
+            fingerprintDialog = retained.dialog;
+            purchaseCallback = retained.callback;
+        } else {
+            purchaseCallback = new PurchaseCallback ();
+            fingerprintDialog = new FingerprintDialog ();
+            fingerprintDialog.setKeyAlias (paymentKey);
+            // Start the doFinal while the success state is still showing instead of after it.
+            fingerprintDialog.setLatencyPolicy (LatencyPolicy.INSTANT);
+            // Arm the sensor from the purchase tap; a finger already down there is not lost.
+            fingerprintDialog.setEarlyArming (true);
+            fingerprintDialog.prepareKeys ();
+        }
+        purchaseCallback.activity = this;
+        fingerprintDialog.prewarm (this);
+        // Probe the device capabilities now so opening the dialog needs no binder calls.
+        FingerprintDialog.getCapabilities (this);
     }
     
     private void initListener () {
@@ -43,36 +106,135 @@ public class MainActivity extends Activity {
             public void onClick (View v) {
                 findViewById (R.id.confirmation_message).setVisibility (View.GONE);
                 findViewById (R.id.encrypted_message).setVisibility (View.GONE);
-                fingerprintDialog.showFingerprintDialog (getFragmentManager ());
+                queueTransaction ();
+                // The doFinal on the authorized cipher runs on the keystore thread, not the UI thread.
+                fingerprintDialog.authenticate (new AuthRequest (getFragmentManager ()), AppExecutors.keystore (),
+                        purchaseCallback);
             }
         });
     }
     
+    private void queueTransaction () {
+        synchronized (pendingTransactions) {
+            pendingTransactions.add (("purchase " + System.currentTimeMillis ()).getBytes ());
+        }
+    }
+    
+    private List<byte[]> drainTransactions () {
+        synchronized (pendingTransactions) {
+            List<byte[]> transactions = new ArrayList<> (pendingTransactions);
+            pendingTransactions.clear ();
+            return transactions;
+        }
+    }
     
-    public void onSuccessfulAuthentication (boolean withFingerprint, @Nullable FingerprintManager.CryptoObject cryptoObject) {
-        if (withFingerprint) {
-            // If the user has authenticated with fingerprint, verify that using cryptography and then show the confirmation message.
-            assert cryptoObject != null;
+    private void onSuccessfulAuthentication (AuthResult<FingerprintManager.CryptoObject> result) {
+        Log.d (TAG, "Authenticated " + result);
+        List<byte[]> transactions = drainTransactions ();
+        LatencyRecorder latency = AppMetrics.latency ();
+        if (result.getMethod () == AuthResult.Method.PASSWORD) {
+            // Authentication happened with backup password. Just show the confirmation message.
+            latency.record (LatencyRecorder.Stage.TIME_TO_UNLOCK, System.nanoTime () - result.getRequestedAtNanos ());
+            showConfirmation (null);
+            return;
+        }
+        if (result.getCrypto () == null) {
+            // Joined the session of an earlier tap, which got the crypto and drained the queue.
+            showConfirmation (null);
+            return;
+        }
+        if (result.getCrypto ().getSignature () != null) {
+            signTransactions (result.getCrypto ().getSignature (), transactions);
+            return;
+        }
+        // If the user has authenticated with fingerprint, verify that using cryptography and then show the confirmation message.
+        try {
+            byte[] encrypted;
+            long start = latency.begin (LatencyRecorder.Stage.DO_FINAL);
+            long end;
             try {
-                byte[] encrypted = cryptoObject.getCipher ().doFinal (FingerprintDialog.SECRET_MESSAGE.getBytes ());
+                encrypted = result.getCrypto ().getCipher ().doFinal (FingerprintDialog.SECRET_MESSAGE.getBytes ());
+            } finally {
+                end = latency.end (LatencyRecorder.Stage.DO_FINAL, start);
+                fingerprintDialog.recycle (result.getCrypto ());
+            }
+            latency.record (LatencyRecorder.Stage.TIME_TO_UNLOCK, end - result.getRequestedAtNanos ());
+            Log.d (TAG, "Latency " + latency);
+            showConfirmation (encrypted != null ? Base64.encodeToString (encrypted, 0 /* flags */) : null);
+        } catch (BadPaddingException | IllegalBlockSizeException e) {
+            Log.e (TAG, "Failed to encrypt the data with the generated key." + e.getMessage ());
+            showToast ("Failed to encrypt the data with the generated key. Retry the purchase", Toast.LENGTH_LONG);
+        } catch (Exception e) {
+            e.printStackTrace ();
+            showToast ("exception occured", Toast.LENGTH_SHORT);
+        }
+    }
+    
+    /**
+     * One fingerprint touch signs every queued purchase: a single signature over their hashes.
+     */
+    private void signTransactions (Signature authorized, List<byte[]> transactions) {
+        try {
+            BatchSigner.Manifest manifest = new BatchSigner ().signManifest (authorized, transactions);
+            Log.d (TAG, "Signed " + manifest.getStats ());
+            showConfirmation (Base64.encodeToString (manifest.getSignature (), 0 /* flags */));
+        } catch (GeneralSecurityException e) {
+            Log.e (TAG, "Failed to sign the transactions." + e.getMessage ());
+            showToast ("Failed to sign the transactions. Retry the purchase", Toast.LENGTH_LONG);
+        }
+    }
+    
+    private void showConfirmation (final String encrypted) {
+        runOnUiThread (new Runnable () {
+            @Override
+            public void run () {
                 findViewById (R.id.confirmation_message).setVisibility (View.VISIBLE);
                 if (encrypted != null) {
                     TextView v = (TextView) findViewById (R.id.encrypted_message);
                     v.setVisibility (View.VISIBLE);
-                    v.setText (Base64.encodeToString (encrypted, 0 /* flags */));
+                    v.setText (encrypted);
                 }
-            } catch (BadPaddingException | IllegalBlockSizeException e) {
-                Toast.makeText (this, "Failed to encrypt the data with the generated key. "
-                        + "Retry the purchase", Toast.LENGTH_LONG).show ();
-                Log.e ("TAG", "Failed to encrypt the data with the generated key." + e.getMessage ());
-            } catch (Exception e) {
-                Toast.makeText (this, "exception occured", Toast.LENGTH_SHORT).show ();
-                e.printStackTrace ();
             }
-        } else {
-            findViewById (R.id.confirmation_message).setVisibility (View.VISIBLE);
-            
-            // Authentication happened with backup password. Just show the confirmation message.
+        });
+    }
+    
+    private void showToast (final String message, final int duration) {
+        runOnUiThread (new Runnable () {
+            @Override
+            public void run () {
+                Toast.makeText (MainActivity.this, message, duration).show ();
+            }
+        });
+    }
+    
+    /**
+     * Reports to whichever instance of the activity is current, so an authentication still in
+     * flight across a rotation neither pins the old instance nor loses its result.
+     */
+    private static class PurchaseCallback implements AuthCoordinator.Callback<AuthResult<FingerprintManager.CryptoObject>> {
+        volatile MainActivity activity;
+        
+        @Override
+        public void onSuccess (AuthResult<FingerprintManager.CryptoObject> result) {
+            MainActivity current = activity;
+            if (current != null) {
+                current.onSuccessfulAuthentication (result);
+            }
+        }
+        
+        @Override
+        public void onFailure (Exception e) {
+        }
+    }
+    
+    /** What a rotation carries over to the next instance. */
+    private static class Retained {
+        final FingerprintDialog dialog;
+        final PurchaseCallback callback;
+        
+        Retained (FingerprintDialog dialog, PurchaseCallback callback) {
+            this.dialog = dialog;
+            this.callback = callback;
         }
     }
 }
\ No newline at end of file
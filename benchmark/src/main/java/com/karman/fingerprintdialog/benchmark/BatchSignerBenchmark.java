@@ -0,0 +1,74 @@
+package com.karman.fingerprintdialog.benchmark;
+
+import com.karman.fingerprintdialog.core.BatchSigner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One batch of transaction records per operation, signed with a software EC key. Multiply ops/s by
+ * {@code batchSize} for records per second; the manifest mode pays one ECDSA signature per batch,
+ * the per-record mode one per record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchSignerBenchmark {
+    
+    @Param({"10", "1000"})
+    public int batchSize;
+    
+    @Param({"256"})
+    public int recordSize;
+    
+    private List<byte[]> mRecords;
+    private Signature mSignature;
+    private BatchSigner mSigner;
+    
+    @Setup
+    public void setUp () throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance ("EC");
+        generator.initialize (256);
+        KeyPair keyPair = generator.generateKeyPair ();
+        mSignature = Signature.getInstance (BatchSigner.SIGNATURE_ALGORITHM);
+        mSignature.initSign (keyPair.getPrivate ());
+        mSigner = new BatchSigner ();
+        Random random = new Random (42);
+        mRecords = new ArrayList<> (batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            byte[] record = new byte[recordSize];
+            random.nextBytes (record);
+            mRecords.add (record);
+        }
+    }
+    
+    @Benchmark
+    public BatchSigner.Manifest manifest () throws Exception {
+        return mSigner.signManifest (mSignature, mRecords);
+    }
+    
+    @Benchmark
+    public BatchSigner.Batch perRecord () throws Exception {
+        return mSigner.signEach (mSignature, mRecords);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+package com.karman.fingerprintdialog.benchmark;
+
+import com.karman.fingerprintdialog.core.KeyLifecycleManager;
+import com.karman.fingerprintdialog.core.SoftwareKeyProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * A dialog show's cipher checkout with and without the pool in {@link KeyLifecycleManager}.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CipherPoolBenchmark {
+    
+    private static final String ALIAS = "default_key_name";
+    
+    private SoftwareKeyProvider mProvider;
+    private KeyLifecycleManager mKeyManager;
+    private SecretKey mKey;
+    
+    @Setup
+    public void setUp () throws Exception {
+        mProvider = new SoftwareKeyProvider ();
+        mKeyManager = new KeyLifecycleManager (mProvider);
+        mKey = mKeyManager.getKey (ALIAS);
+    }
+    
+    /**
+     * What every show paid before: provider lookup, construction and init.
+     */
+    @Benchmark
+    public Cipher unpooledInit () throws Exception {
+        Cipher cipher = mProvider.newCipher ();
+        cipher.init (Cipher.ENCRYPT_MODE, mKey);
+        return cipher;
+    }
+    
+    /**
+     * Checkout from the pool, init, and hand back after use.
+     */
+    @Benchmark
+    public Cipher pooledInit () throws Exception {
+        Cipher cipher = mKeyManager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+        mKeyManager.releaseCipher (ALIAS, cipher);
+        return cipher;
+    }
+}
\ No newline at end of file
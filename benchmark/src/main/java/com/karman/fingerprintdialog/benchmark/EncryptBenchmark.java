@@ -0,0 +1,53 @@
+package com.karman.fingerprintdialog.benchmark;
+
+import com.karman.fingerprintdialog.core.KeyLifecycleManager;
+import com.karman.fingerprintdialog.core.SoftwareKeyProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+/**
+ * {@code MainActivity.onSuccessfulAuthentication}: one {@code doFinal} over the whole payload with
+ * the authorized cipher.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Thread)
+public class EncryptBenchmark {
+    
+    @Param({"16", "1024", "65536", "1048576", "16777216", "67108864"})
+    public int payloadSize;
+    
+    private byte[] mPayload;
+    private Cipher mCipher;
+    
+    @Setup
+    public void setUp () throws Exception {
+        mPayload = new byte[payloadSize];
+        new Random (42).nextBytes (mPayload);
+        KeyLifecycleManager keyManager = new KeyLifecycleManager (new SoftwareKeyProvider ());
+        mCipher = keyManager.initCipher ("default_key_name", Cipher.ENCRYPT_MODE);
+    }
+    
+    @Benchmark
+    public byte[] encryptOnSuccess () throws Exception {
+        return mCipher.doFinal (mPayload);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+package com.karman.fingerprintdialog.benchmark;
+
+import com.karman.fingerprintdialog.core.KeyLifecycleManager;
+import com.karman.fingerprintdialog.core.SoftwareKeyProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * The steps {@code FingerprintDialog.initKeys} goes through when the dialog attaches.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyInitBenchmark {
+    
+    private static final String ALIAS = "default_key_name";
+    private static final String SCRATCH_ALIAS = "scratch_key_name";
+    
+    private SoftwareKeyProvider mProvider;
+    private KeyLifecycleManager mKeyManager;
+    private SecretKey mKey;
+    private Cipher mCipher;
+    
+    @Setup
+    public void setUp () throws Exception {
+        mProvider = new SoftwareKeyProvider ();
+        mKeyManager = new KeyLifecycleManager (mProvider);
+        mKey = mKeyManager.getKey (ALIAS);
+        mCipher = mProvider.newCipher ();
+    }
+    
+    /**
+     * {@code createKey}: a full key generation.
+     */
+    @Benchmark
+    public SecretKey createKey () throws Exception {
+        mProvider.generateKey (SCRATCH_ALIAS);
+        return mProvider.loadKey (SCRATCH_ALIAS);
+    }
+    
+    /**
+     * Provider lookup and cipher construction.
+     */
+    @Benchmark
+    public Cipher cipherGetInstance () throws Exception {
+        return mProvider.newCipher ();
+    }
+    
+    /**
+     * {@code cipher.init} with a fresh random IV.
+     */
+    @Benchmark
+    public Cipher cipherInit () throws Exception {
+        mCipher.init (Cipher.ENCRYPT_MODE, mKey);
+        return mCipher;
+    }
+    
+    /**
+     * Steady-state {@code initKeys}: cached key handle, new cipher, init.
+     */
+    @Benchmark
+    public Cipher initKeys () throws Exception {
+        return mKeyManager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+    }
+}
\ No newline at end of file
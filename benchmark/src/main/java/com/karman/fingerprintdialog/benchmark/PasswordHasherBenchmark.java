@@ -0,0 +1,70 @@
+package com.karman.fingerprintdialog.benchmark;
+
+import com.karman.fingerprintdialog.core.PasswordHasher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the password fallback check. {@code verify} at a fixed iteration count shows how the KDF
+ * scales; {@code verifyCalibrated} checks that calibration lands near its 150 ms target on this
+ * CPU, and {@code calibrate} is what the first password setup pays for picking the count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PasswordHasherBenchmark {
+    
+    static final long TARGET_MILLIS = 150;
+    
+    static final char[] PASSWORD = "123456".toCharArray ();
+    
+    @State(Scope.Thread)
+    public static class Fixed {
+        @Param({"1000", "10000", "100000"})
+        public int iterations;
+        
+        PasswordHasher.Hash mHash;
+        
+        @Setup
+        public void setUp () {
+            mHash = new PasswordHasher (iterations).hash (PASSWORD);
+        }
+    }
+    
+    private PasswordHasher.Hash mCalibratedHash;
+    
+    @Setup
+    public void setUp () {
+        mCalibratedHash = new PasswordHasher (PasswordHasher.calibrate (TARGET_MILLIS)).hash (PASSWORD);
+    }
+    
+    @Benchmark
+    public boolean verify (Fixed fixed) {
+        return PasswordHasher.verify (PASSWORD, fixed.mHash);
+    }
+    
+    @Benchmark
+    public boolean verifyCalibrated () {
+        return PasswordHasher.verify (PASSWORD, mCalibratedHash);
+    }
+    
+    @Benchmark
+    public int calibrate () {
+        return PasswordHasher.calibrate (TARGET_MILLIS);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,113 @@
+package com.karman.fingerprintdialog.benchmark;
+
+import com.karman.fingerprintdialog.core.SecureVault;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Vault lookups after unlock. An uncached lookup should cost the same however many records the
+ * file holds: one index probe and one GCM decrypt.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SecureVaultBenchmark {
+    
+    private static final Executor DIRECT = new Executor () {
+        @Override
+        public void execute (Runnable command) {
+            command.run ();
+        }
+    };
+    
+    @Param({"100", "10000"})
+    public int recordCount;
+    
+    @Param({"256"})
+    public int valueSize;
+    
+    private File mFile;
+    private SecureVault mCached;
+    private SecureVault mUncached;
+    private String[] mNames;
+    private int mNext;
+    
+    @Setup
+    public void setUp () throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance ("AES");
+        keyGenerator.init (256);
+        SecretKey keystoreKey = keyGenerator.generateKey ();
+        Cipher authorized = Cipher.getInstance ("AES/CBC/PKCS5Padding");
+        authorized.init (Cipher.ENCRYPT_MODE, keystoreKey);
+        
+        mFile = File.createTempFile ("vault", ".bin");
+        mFile.delete ();
+        SecureVault vault = SecureVault.create (mFile, authorized, DIRECT);
+        Random random = new Random (42);
+        byte[] value = new byte[valueSize];
+        mNames = new String[recordCount];
+        for (int i = 0; i < recordCount; i++) {
+            mNames[i] = "record-" + i;
+            random.nextBytes (value);
+            vault.put (mNames[i], value);
+        }
+        vault.close ();
+        
+        mCached = SecureVault.open (mFile, DIRECT);
+        mUncached = SecureVault.open (mFile, DIRECT, 0);
+        for (SecureVault opened : new SecureVault[] {mCached, mUncached}) {
+            Cipher unlock = Cipher.getInstance ("AES/CBC/PKCS5Padding");
+            unlock.init (Cipher.DECRYPT_MODE, keystoreKey, new IvParameterSpec (opened.getWrappedKey ().getIv ()));
+            opened.unlock (unlock);
+        }
+        mCached.get (mNames[0]);
+    }
+    
+    @TearDown
+    public void tearDown () throws Exception {
+        mCached.close ();
+        mUncached.close ();
+        mFile.delete ();
+    }
+    
+    /**
+     * A value already in the LRU.
+     */
+    @Benchmark
+    public byte[] cachedGet () throws Exception {
+        return mCached.get (mNames[0]);
+    }
+    
+    /**
+     * Index probe plus GCM decrypt of one record, never served from the LRU.
+     */
+    @Benchmark
+    public byte[] uncachedGet () throws Exception {
+        mNext = (mNext + 1) % recordCount;
+        return mUncached.get (mNames[mNext]);
+    }
+}
\ No newline at end of file
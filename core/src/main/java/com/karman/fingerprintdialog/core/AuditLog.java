@@ -0,0 +1,366 @@
+package com.karman.fingerprintdialog.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of authentication outcomes. {@link #record} only copies the event into a
+ * preallocated ring buffer and, if no flush is pending, queues one on the flush executor, so the
+ * callback that reports the event never touches the disk. The flush drains whatever has piled up
+ * since, writes it with one {@link FileChannel} write and syncs.
+ * <p>
+ * Layout: {@code magic(4) version(1)}, then fixed-size records
+ * {@code crc32(4) timeMillis(8) event(1) method(1) detail(4)}, the CRC covering the rest of the
+ * record. A crash can leave a torn last record; {@link Reader} stops in front of it and
+ * {@link #open} cuts it off before appending. A header torn by a crash on creation is rewritten.
+ */
+public class AuditLog implements Closeable {
+    
+    public enum Event {
+        SUCCEEDED,
+        FAILED,
+        ERROR,
+        CANCELLED
+    }
+    
+    public static final int DEFAULT_CAPACITY = 256;
+    static final int HEADER_LENGTH = 5;
+    static final int RECORD_LENGTH = 4 + 8 + 1 + 1 + 4;
+    
+    private static final int MAGIC = 0x4650414c;
+    private static final byte VERSION = 1;
+    private static final Event[] EVENTS = Event.values ();
+    private static final AuthResult.Method[] METHODS = AuthResult.Method.values ();
+    
+    private final RandomAccessFile mRaf;
+    private final FileChannel mChannel;
+    private final Executor mFlushExecutor;
+    private final Object mFlushLock = new Object ();
+    private final AtomicInteger mDropped = new AtomicInteger ();
+    private final AtomicInteger mWriteErrors = new AtomicInteger ();
+    
+    // The ring; guarded by this.
+    private final int mMask;
+    private final long[] mTimes;
+    private final byte[] mEvents;
+    private final byte[] mMethods;
+    private final int[] mDetails;
+    private long mHead;
+    private long mTail;
+    private boolean mFlushQueued;
+    private boolean mClosed;
+    
+    // Only touched under mFlushLock.
+    private final ByteBuffer mBatch;
+    private final CRC32 mCrc = new CRC32 ();
+    private long mPosition;
+    
+    private final Runnable mFlushTask = new Runnable () {
+        @Override
+        public void run () {
+            try {
+                flush ();
+            } catch (IOException e) {
+                // The unwritten records are still in the ring; the next event queues a retry.
+                mWriteErrors.incrementAndGet ();
+            }
+        }
+    };
+    
+    private AuditLog (RandomAccessFile raf, long position, Executor flushExecutor, int capacity) {
+        mRaf = raf;
+        mChannel = raf.getChannel ();
+        mPosition = position;
+        mFlushExecutor = flushExecutor;
+        int size = Integer.highestOneBit (Math.max (capacity - 1, 1)) << 1;
+        mMask = size - 1;
+        mTimes = new long[size];
+        mEvents = new byte[size];
+        mMethods = new byte[size];
+        mDetails = new int[size];
+        mBatch = ByteBuffer.allocate (size * RECORD_LENGTH);
+    }
+    
+    public static AuditLog open (File file, Executor flushExecutor) throws IOException {
+        return open (file, flushExecutor, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Opens or creates the log. A torn record left by a crash is truncated away, and a file too
+     * short to hold the header starts over as an empty log.
+     *
+     * @param capacity records the ring holds between flushes, rounded up to a power of two; events
+     *                 recorded while it is full are dropped and counted
+     */
+    public static AuditLog open (File file, Executor flushExecutor, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile (file, "rw");
+        try {
+            long end;
+            if (raf.length () < HEADER_LENGTH) {
+                raf.setLength (0);
+                raf.writeInt (MAGIC);
+                raf.writeByte (VERSION);
+                raf.getChannel ().force (true);
+                end = HEADER_LENGTH;
+            } else {
+                end = validLength (file);
+                if (end < raf.length ()) {
+                    raf.setLength (end);
+                }
+            }
+            return new AuditLog (raf, end, flushExecutor, capacity);
+        } catch (IOException e) {
+            raf.close ();
+            throw e;
+        }
+    }
+    
+    /**
+     * Queues an event stamped with the current wall-clock time. Allocation-free and never blocks on
+     * I/O.
+     *
+     * @param method how the user was authenticating, or null if not known
+     * @param detail event-specific, e.g. the error code of {@link Event#ERROR}
+     */
+    public void record (Event event, AuthResult.Method method, int detail) {
+        record (System.currentTimeMillis (), event, method, detail);
+    }
+    
+    void record (long timeMillis, Event event, AuthResult.Method method, int detail) {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            if (mHead - mTail > mMask) {
+                mDropped.incrementAndGet ();
+                return;
+            }
+            int slot = (int) (mHead & mMask);
+            mTimes[slot] = timeMillis;
+            mEvents[slot] = (byte) event.ordinal ();
+            mMethods[slot] = (byte) (method == null ? 0 : method.ordinal () + 1);
+            mDetails[slot] = detail;
+            mHead++;
+            if (mFlushQueued) {
+                return;
+            }
+            mFlushQueued = true;
+        }
+        mFlushExecutor.execute (mFlushTask);
+    }
+    
+    /**
+     * Writes everything recorded so far. Runs on the flush executor; call it directly only to
+     * persist synchronously, e.g. in tests or before an export.
+     */
+    public void flush () throws IOException {
+        synchronized (mFlushLock) {
+            int count;
+            while ((count = copyBatch ()) > 0) {
+                long batchStart = mPosition;
+                try {
+                    mBatch.flip ();
+                    while (mBatch.hasRemaining ()) {
+                        mPosition += mChannel.write (mBatch, mPosition);
+                    }
+                    mChannel.force (false);
+                } catch (IOException e) {
+                    // The batch stays in the ring and is written again over whatever part of it made
+                    // it, so no torn record ends up in front of later ones. Clear the queued flag so
+                    // the next event queues that retry instead of waiting on this flush.
+                    mPosition = batchStart;
+                    synchronized (this) {
+                        mFlushQueued = false;
+                    }
+                    throw e;
+                }
+                synchronized (this) {
+                    mTail += count;
+                }
+            }
+        }
+    }
+    
+    /** Events lost because the ring was full. */
+    public int getDroppedCount () {
+        return mDropped.get ();
+    }
+    
+    /**
+     * Background flushes that failed with an I/O error. Their records stay queued for the next flush;
+     * while they do, the ring fills up sooner and more events may be dropped.
+     */
+    public int getWriteErrorCount () {
+        return mWriteErrors.get ();
+    }
+    
+    /**
+     * Flushes what is queued and closes the file. Later events are ignored.
+     */
+    @Override
+    public void close () throws IOException {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        synchronized (mFlushLock) {
+            try {
+                flush ();
+            } finally {
+                mRaf.close ();
+            }
+        }
+    }
+    
+    /**
+     * Encodes the queued records into {@link #mBatch} and returns how many there are. They stay in
+     * the ring until the caller has written them and moves the tail past them. Returns 0, and clears
+     * the queued flag so the next event queues a new flush, once the ring is empty.
+     */
+    private int copyBatch () {
+        mBatch.clear ();
+        synchronized (this) {
+            if (mTail == mHead) {
+                mFlushQueued = false;
+                return 0;
+            }
+            for (long next = mTail; next != mHead; next++) {
+                int slot = (int) (next & mMask);
+                int start = mBatch.position ();
+                mBatch.putInt (0)
+                        .putLong (mTimes[slot])
+                        .put (mEvents[slot])
+                        .put (mMethods[slot])
+                        .putInt (mDetails[slot]);
+                mCrc.reset ();
+                mCrc.update (mBatch.array (), start + 4, RECORD_LENGTH - 4);
+                mBatch.putInt (start, (int) mCrc.getValue ());
+            }
+            return (int) (mHead - mTail);
+        }
+    }
+    
+    /**
+     * The length of the header plus every intact record.
+     */
+    static long validLength (File file) throws IOException {
+        Reader reader = new Reader (new FileInputStream (file));
+        try {
+            long length = HEADER_LENGTH;
+            while (reader.next ()) {
+                length += RECORD_LENGTH;
+            }
+            return length;
+        } finally {
+            reader.close ();
+        }
+    }
+    
+    /**
+     * Streams the records of a log, e.g. for export. It holds one record at a time; stops at the end
+     * of the stream or at the first torn or corrupt record.
+     */
+    public static final class Reader implements Closeable {
+        private final DataInputStream mIn;
+        private final byte[] mRecord = new byte[RECORD_LENGTH];
+        private final ByteBuffer mView = ByteBuffer.wrap (mRecord);
+        private final CRC32 mCrc = new CRC32 ();
+        private boolean mTornTail;
+        
+        private long mTimeMillis;
+        private Event mEvent;
+        private AuthResult.Method mMethod;
+        private int mDetail;
+        
+        public Reader (InputStream in) throws IOException {
+            mIn = new DataInputStream (new BufferedInputStream (in));
+            try {
+                if (mIn.readInt () != MAGIC || mIn.readByte () != VERSION) {
+                    throw new IOException ("Not an audit log");
+                }
+            } catch (EOFException e) {
+                mIn.close ();
+                throw new IOException ("Not an audit log", e);
+            } catch (IOException e) {
+                mIn.close ();
+                throw e;
+            }
+        }
+        
+        public static Reader open (File file) throws IOException {
+            return new Reader (new FileInputStream (file));
+        }
+        
+        /**
+         * Advances to the next record. Returns false at the end of the log.
+         */
+        public boolean next () throws IOException {
+            if (mTornTail) {
+                return false;
+            }
+            int read = 0;
+            while (read < RECORD_LENGTH) {
+                int n = mIn.read (mRecord, read, RECORD_LENGTH - read);
+                if (n < 0) {
+                    mTornTail = read > 0;
+                    return false;
+                }
+                read += n;
+            }
+            mCrc.reset ();
+            mCrc.update (mRecord, 4, RECORD_LENGTH - 4);
+            int event = mRecord[12];
+            int method = mRecord[13];
+            if ((int) mCrc.getValue () != mView.getInt (0)
+                    || event < 0 || event >= EVENTS.length || method < 0 || method > METHODS.length) {
+                mTornTail = true;
+                return false;
+            }
+            mTimeMillis = mView.getLong (4);
+            mEvent = EVENTS[event];
+            mMethod = method == 0 ? null : METHODS[method - 1];
+            mDetail = mView.getInt (14);
+            return true;
+        }
+        
+        /** Whether reading stopped at a partial or corrupt record rather than a clean end. */
+        public boolean hasTornTail () {
+            return mTornTail;
+        }
+        
+        public long getTimeMillis () {
+            return mTimeMillis;
+        }
+        
+        public Event getEvent () {
+            return mEvent;
+        }
+        
+        public AuthResult.Method getMethod () {
+            return mMethod;
+        }
+        
+        public int getDetail () {
+            return mDetail;
+        }
+        
+        @Override
+        public void close () throws IOException {
+            mIn.close ();
+        }
+    }
+}
\ No newline at end of file
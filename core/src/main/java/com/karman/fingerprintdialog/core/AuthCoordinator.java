@@ -0,0 +1,191 @@
+package com.karman.fingerprintdialog.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single-flight coalescing of authentication requests: concurrent requests join the sensor session
+ * already in flight instead of cancelling it, and its result is fanned out to every waiter.
+ * <p>
+ * Lock-free: waiters are pushed onto a Treiber stack that the completing session closes with a
+ * single swap, so a request racing with completion either makes it into the fan-out or starts the
+ * next session.
+ */
+public class AuthCoordinator<R> {
+    
+    /**
+     * The result of a session goes to exactly one waiter, the one that started it. A single-use
+     * result, e.g. an authorized Cipher, must not be handed to several consumers, so the other
+     * waiters receive what {@link Sharing#share} makes of it, or the same object if the coordinator
+     * has no {@link Sharing}.
+     */
+    public interface Callback<R> {
+        void onSuccess (R result);
+        
+        void onFailure (Exception e);
+    }
+    
+    public interface Sharing<R> {
+        /** What the waiters that joined the session receive instead of {@code result}. */
+        R share (R result);
+    }
+    
+    public interface Session<R> {
+        /**
+         * Start one sensor session and report its outcome, exactly once, to {@code completion}.
+         * May complete synchronously.
+         */
+        void start (Callback<R> completion);
+    }
+    
+    private final AtomicReference<Flight<R>> mFlight = new AtomicReference<> ();
+    private final AtomicInteger mSessionsStarted = new AtomicInteger ();
+    private final Sharing<R> mSharing;
+    
+    public AuthCoordinator () {
+        this (null);
+    }
+    
+    public AuthCoordinator (Sharing<R> sharing) {
+        mSharing = sharing;
+    }
+    
+    /**
+     * Joins the session in flight, or starts one with {@code session} if there is none.
+     *
+     * @return true if this request started a new session
+     */
+    public boolean request (Callback<R> callback, Session<R> session) {
+        Waiter<R> waiter = new Waiter<> (callback);
+        while (true) {
+            Flight<R> flight = mFlight.get ();
+            if (flight == null) {
+                Flight<R> created = new Flight<> (this);
+                created.add (waiter);
+                if (mFlight.compareAndSet (null, created)) {
+                    mSessionsStarted.incrementAndGet ();
+                    session.start (created);
+                    return true;
+                }
+            } else if (flight.add (waiter)) {
+                return false;
+            } else {
+                // Completed between our read and add; help clear it and retry.
+                mFlight.compareAndSet (flight, null);
+            }
+        }
+    }
+    
+    /**
+     * Wraps {@code callback} so it is invoked on {@code executor} rather than on whichever thread
+     * completes the session.
+     */
+    public static <R> Callback<R> deliverOn (final Executor executor, final Callback<R> callback) {
+        return new Callback<R> () {
+            @Override
+            public void onSuccess (final R result) {
+                executor.execute (new Runnable () {
+                    @Override
+                    public void run () {
+                        callback.onSuccess (result);
+                    }
+                });
+            }
+            
+            @Override
+            public void onFailure (final Exception e) {
+                executor.execute (new Runnable () {
+                    @Override
+                    public void run () {
+                        callback.onFailure (e);
+                    }
+                });
+            }
+        };
+    }
+    
+    public boolean isInFlight () {
+        return mFlight.get () != null;
+    }
+    
+    public int getSessionsStarted () {
+        return mSessionsStarted.get ();
+    }
+    
+    private static final class Waiter<R> {
+        final Callback<R> mCallback;
+        Waiter<R> mNext;
+        
+        Waiter (Callback<R> callback) {
+            mCallback = callback;
+        }
+    }
+    
+    private static final class Flight<R> implements Callback<R> {
+        
+        @SuppressWarnings("rawtypes")
+        private static final Waiter CLOSED = new Waiter<> (null);
+        
+        private final AuthCoordinator<R> mOwner;
+        private final AtomicReference<Waiter<R>> mWaiters = new AtomicReference<> ();
+        
+        Flight (AuthCoordinator<R> owner) {
+            mOwner = owner;
+        }
+        
+        boolean add (Waiter<R> waiter) {
+            while (true) {
+                Waiter<R> head = mWaiters.get ();
+                if (head == CLOSED) {
+                    return false;
+                }
+                waiter.mNext = head;
+                if (mWaiters.compareAndSet (head, waiter)) {
+                    return true;
+                }
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        private Waiter<R> close () {
+            Waiter<R> head = mWaiters.getAndSet ((Waiter<R>) CLOSED);
+            if (head == CLOSED) {
+                return null;
+            }
+            mOwner.mFlight.compareAndSet (this, null);
+            // Reverse so waiters hear back in arrival order.
+            Waiter<R> reversed = null;
+            while (head != null) {
+                Waiter<R> next = head.mNext;
+                head.mNext = reversed;
+                reversed = head;
+                head = next;
+            }
+            return reversed;
+        }
+        
+        @Override
+        public void onSuccess (R result) {
+            Waiter<R> first = close ();
+            if (first == null) {
+                return;
+            }
+            first.mCallback.onSuccess (result);
+            if (first.mNext == null) {
+                return;
+            }
+            R shared = mOwner.mSharing == null ? result : mOwner.mSharing.share (result);
+            for (Waiter<R> w = first.mNext; w != null; w = w.mNext) {
+                w.mCallback.onSuccess (shared);
+            }
+        }
+        
+        @Override
+        public void onFailure (Exception e) {
+            for (Waiter<R> w = close (); w != null; w = w.mNext) {
+                w.mCallback.onFailure (e);
+            }
+        }
+    }
+}
\ No newline at end of file
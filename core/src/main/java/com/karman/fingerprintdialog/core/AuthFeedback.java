@@ -0,0 +1,89 @@
+package com.karman.fingerprintdialog.core;
+
+/**
+ * Turns sensor callbacks into what the dialog shows and schedules. A user swiping repeatedly
+ * produces a steady stream of failed and help callbacks, so this path allocates nothing: the
+ * runnables are created once and the view is expected to use pre-resolved colors and strings.
+ */
+public class AuthFeedback<C> implements Authenticator.Callback<C> {
+    
+    public interface FeedbackView {
+        /** Idle state: sensor icon and the "touch sensor" hint. */
+        void showHint ();
+        
+        void showError (CharSequence message);
+        
+        void showNotRecognized ();
+        
+        void showSuccess ();
+    }
+    
+    private final FeedbackView mView;
+    private final SuccessHold.Scheduler mScheduler;
+    private final SuccessHold mSuccessHold;
+    
+    private final Runnable mShowHintRunnable = new Runnable () {
+        @Override
+        public void run () {
+            mView.showHint ();
+        }
+    };
+    private final Runnable mErrorHoldElapsedRunnable;
+    
+    /**
+     * @param onErrorHoldElapsed runs once a fatal sensor error has been shown for the error hold,
+     *                           typically to fall back to the password
+     */
+    public AuthFeedback (FeedbackView view, SuccessHold.Scheduler scheduler, SuccessHold successHold,
+                         Runnable onErrorHoldElapsed) {
+        mView = view;
+        mScheduler = scheduler;
+        mSuccessHold = successHold;
+        mErrorHoldElapsedRunnable = onErrorHoldElapsed;
+    }
+    
+    /** Back to the idle state, dropping any pending error reset. */
+    public void reset () {
+        mScheduler.cancel (mShowHintRunnable);
+        mView.showHint ();
+    }
+    
+    /** Drops everything still scheduled, e.g. when the dialog goes away. */
+    public void cancel () {
+        mScheduler.cancel (mShowHintRunnable);
+        mScheduler.cancel (mErrorHoldElapsedRunnable);
+        mSuccessHold.cancel ();
+    }
+    
+    @Override
+    public void onAuthenticationSucceeded (C crypto) {
+        mScheduler.cancel (mShowHintRunnable);
+        mView.showSuccess ();
+        mSuccessHold.start ();
+    }
+    
+    @Override
+    public void onAuthenticationFailed () {
+        mView.showNotRecognized ();
+        scheduleReset ();
+    }
+    
+    @Override
+    public void onAuthenticationHelp (int helpCode, CharSequence helpString) {
+        mView.showError (helpString);
+        scheduleReset ();
+    }
+    
+    @Override
+    public void onAuthenticationError (int errorCode, CharSequence errString) {
+        mView.showError (errString);
+        scheduleReset ();
+        mScheduler.cancel (mErrorHoldElapsedRunnable);
+        mScheduler.postDelayed (mErrorHoldElapsedRunnable, mSuccessHold.getPolicy ().getErrorHoldMillis ());
+    }
+    
+    private void scheduleReset () {
+        mScheduler.cancel (mShowHintRunnable);
+        mScheduler.postDelayed (mShowHintRunnable, mSuccessHold.getPolicy ().getErrorHoldMillis ());
+    }
+}
\ No newline at end of file
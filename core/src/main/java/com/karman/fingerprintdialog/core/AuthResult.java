@@ -0,0 +1,80 @@
+package com.karman.fingerprintdialog.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of one authentication: the crypto object unlocked by it (null for password, and for a
+ * request that joined another's session, see {@link #withoutCrypto()}), how the user
+ * authenticated and when each phase happened, in {@link System#nanoTime()} units.
+ */
+public class AuthResult<C> {
+    
+    public enum Method {
+        FINGERPRINT,
+        PASSWORD
+    }
+    
+    private final C mCrypto;
+    private final Method mMethod;
+    private final long mRequestedAtNanos;
+    private final long mShownAtNanos;
+    private final long mCompletedAtNanos;
+    
+    public AuthResult (C crypto, Method method, long requestedAtNanos, long shownAtNanos, long completedAtNanos) {
+        mCrypto = crypto;
+        mMethod = method;
+        mRequestedAtNanos = requestedAtNanos;
+        mShownAtNanos = shownAtNanos;
+        mCompletedAtNanos = completedAtNanos;
+    }
+    
+    /**
+     * The same outcome for a second consumer. The crypto object is single-use and stays with the
+     * first.
+     */
+    public AuthResult<C> withoutCrypto () {
+        return new AuthResult<> (null, mMethod, mRequestedAtNanos, mShownAtNanos, mCompletedAtNanos);
+    }
+    
+    public C getCrypto () {
+        return mCrypto;
+    }
+    
+    public Method getMethod () {
+        return mMethod;
+    }
+    
+    public long getRequestedAtNanos () {
+        return mRequestedAtNanos;
+    }
+    
+    public long getShownAtNanos () {
+        return mShownAtNanos;
+    }
+    
+    public long getCompletedAtNanos () {
+        return mCompletedAtNanos;
+    }
+    
+    /** Time from the request until the prompt was on screen. */
+    public long getTimeToPromptMillis () {
+        return TimeUnit.NANOSECONDS.toMillis (mShownAtNanos - mRequestedAtNanos);
+    }
+    
+    /** Time the user spent on the prompt. */
+    public long getUserMillis () {
+        return TimeUnit.NANOSECONDS.toMillis (mCompletedAtNanos - mShownAtNanos);
+    }
+    
+    public long getTotalMillis () {
+        return TimeUnit.NANOSECONDS.toMillis (mCompletedAtNanos - mRequestedAtNanos);
+    }
+    
+    @Override
+    public String toString () {
+        return "AuthResult{method=" + mMethod
+                + ", timeToPromptMs=" + getTimeToPromptMillis ()
+                + ", userMs=" + getUserMillis ()
+                + ", totalMs=" + getTotalMillis () + "}";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,176 @@
+package com.karman.fingerprintdialog.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets one fingerprint touch authorize a burst of crypto operations. Meant for keys created with an
+ * authentication validity window (see {@code AndroidKeyStoreProvider.create(int)}): after a
+ * successful authentication every key of that kind is usable for the window, so operations run
+ * straight away while it is open and are queued behind a single prompt once it has expired.
+ * <p>
+ * Every prompt must be settled with {@link #onAuthenticated()} or
+ * {@link #onAuthenticationFailed(Exception)}, including a password fallback, which unlocks no
+ * keystore key; until then later submits queue behind it. Library only: the sample app's keys are
+ * per-use and it does not create a session.
+ */
+public class AuthSession {
+    
+    public interface Clock {
+        long nanoTime ();
+    }
+    
+    public interface Prompt {
+        /**
+         * Ask the user to authenticate. Report back through {@link #onAuthenticated()} or
+         * {@link #onAuthenticationFailed(Exception)}.
+         */
+        void requestAuthentication ();
+    }
+    
+    public interface ExpiryDetector {
+        /**
+         * Whether {@code e}, thrown by an operation, means the keystore no longer considers the user
+         * authenticated (UserNotAuthenticatedException on a device).
+         */
+        boolean isAuthenticationRequired (Exception e);
+    }
+    
+    public interface Operation {
+        void run () throws Exception;
+        
+        void onError (Exception e);
+    }
+    
+    public static final Clock SYSTEM_CLOCK = new Clock () {
+        @Override
+        public long nanoTime () {
+            return System.nanoTime ();
+        }
+    };
+    
+    private final long mValidityNanos;
+    private final Clock mClock;
+    private final Prompt mPrompt;
+    private final ExpiryDetector mExpiryDetector;
+    private final Executor mExecutor;
+    private final Queue<Operation> mPending = new ArrayDeque<> ();
+    
+    private boolean mOpen;
+    private long mExpiresAtNanos;
+    private boolean mPrompting;
+    private int mPromptCount;
+    
+    public AuthSession (int validitySeconds, Clock clock, Prompt prompt, ExpiryDetector expiryDetector,
+                        Executor executor) {
+        mValidityNanos = TimeUnit.SECONDS.toNanos (validitySeconds);
+        mClock = clock;
+        mPrompt = prompt;
+        mExpiryDetector = expiryDetector;
+        mExecutor = executor;
+    }
+    
+    /**
+     * Runs {@code operation} on the executor if the window is open, otherwise queues it and prompts
+     * once for the whole queue.
+     */
+    public void submit (Operation operation) {
+        boolean prompt;
+        synchronized (this) {
+            if (isOpenLocked ()) {
+                dispatch (operation);
+                return;
+            }
+            mPending.add (operation);
+            prompt = ! mPrompting;
+            if (prompt) {
+                mPrompting = true;
+                mPromptCount++;
+            }
+        }
+        if (prompt) {
+            mPrompt.requestAuthentication ();
+        }
+    }
+    
+    public void onAuthenticated () {
+        List<Operation> ready;
+        synchronized (this) {
+            mPrompting = false;
+            mOpen = true;
+            mExpiresAtNanos = mClock.nanoTime () + mValidityNanos;
+            ready = new ArrayList<> (mPending);
+            mPending.clear ();
+        }
+        for (Operation operation : ready) {
+            dispatch (operation);
+        }
+    }
+    
+    public void onAuthenticationFailed (Exception e) {
+        List<Operation> failed;
+        synchronized (this) {
+            mPrompting = false;
+            failed = new ArrayList<> (mPending);
+            mPending.clear ();
+        }
+        for (Operation operation : failed) {
+            operation.onError (e);
+        }
+    }
+    
+    /**
+     * Ends the window early, e.g. when the screen turns off or the key was invalidated.
+     */
+    public synchronized void close () {
+        mOpen = false;
+    }
+    
+    public synchronized boolean isOpen () {
+        return isOpenLocked ();
+    }
+    
+    /**
+     * Remaining time in the window, 0 once it has expired.
+     */
+    public synchronized long remainingMillis () {
+        return isOpenLocked () ? TimeUnit.NANOSECONDS.toMillis (mExpiresAtNanos - mClock.nanoTime ()) : 0;
+    }
+    
+    /**
+     * How many times the user has been asked to authenticate.
+     */
+    public synchronized int getPromptCount () {
+        return mPromptCount;
+    }
+    
+    private boolean isOpenLocked () {
+        if (mOpen && mClock.nanoTime () - mExpiresAtNanos >= 0) {
+            mOpen = false;
+        }
+        return mOpen;
+    }
+    
+    private void dispatch (final Operation operation) {
+        mExecutor.execute (new Runnable () {
+            @Override
+            public void run () {
+                try {
+                    operation.run ();
+                } catch (Exception e) {
+                    if (mExpiryDetector.isAuthenticationRequired (e)) {
+                        // The keystore's clock ran out before ours did; ask again.
+                        close ();
+                        submit (operation);
+                    } else {
+                        operation.onError (e);
+                    }
+                }
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.karman.fingerprintdialog.core;
+
+/**
+ * Decides between fingerprint and password authentication. Holds no views, the dialog renders
+ * whatever {@link #getType()} says.
+ */
+public class AuthStateMachine {
+    
+    private AuthenticationType mType = AuthenticationType.FINGERPRINT;
+    private boolean mNewFingerprintEnrolled;
+    
+    public AuthenticationType getType () {
+        return mType;
+    }
+    
+    public boolean isNewFingerprintEnrolled () {
+        return mNewFingerprintEnrolled;
+    }
+    
+    /**
+     * Called at the start of every show. The dialog is reused, so a password fallback from an
+     * earlier show must not carry over: unless a new enrollment still requires the password, the
+     * type goes back to what the user opted into.
+     */
+    public void onShow (boolean useFingerprintInFuture) {
+        if (! mNewFingerprintEnrolled) {
+            mType = useFingerprintInFuture ? AuthenticationType.FINGERPRINT : AuthenticationType.PASSWORD;
+        }
+    }
+    
+    /**
+     * Called once the key has been prepared. If the user switched to password during this show
+     * while the key was being prepared, that choice is kept until the next {@link #onShow}.
+     */
+    public void onKeysReady (boolean keyInvalidated, boolean useFingerprintInFuture) {
+        mNewFingerprintEnrolled = keyInvalidated;
+        if (keyInvalidated) {
+            mType = AuthenticationType.NEW_FINGERPRINT_ENROLLED;
+        } else if (! useFingerprintInFuture) {
+            mType = AuthenticationType.PASSWORD;
+        }
+    }
+    
+    public void switchToPassword () {
+        mType = mNewFingerprintEnrolled
+                ? AuthenticationType.NEW_FINGERPRINT_ENROLLED
+                : AuthenticationType.PASSWORD;
+    }
+    
+    public void switchToFingerprint () {
+        mType = AuthenticationType.FINGERPRINT;
+    }
+    
+    /**
+     * After a new enrollment the user may only go back to fingerprint through the password.
+     */
+    public boolean canSwitchToFingerprint () {
+        return ! mNewFingerprintEnrolled;
+    }
+    
+    /**
+     * Returns true when the invalidated key has to be recreated because the user opted back into
+     * fingerprint authentication.
+     */
+    public boolean onPasswordVerified (boolean useFingerprintInFuture) {
+        if (mType != AuthenticationType.NEW_FINGERPRINT_ENROLLED || ! useFingerprintInFuture) {
+            return false;
+        }
+        mNewFingerprintEnrolled = false;
+        mType = AuthenticationType.FINGERPRINT;
+        return true;
+    }
+}
\ No newline at end of file
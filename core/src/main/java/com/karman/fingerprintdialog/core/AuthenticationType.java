@@ -0,0 +1,7 @@
+package com.karman.fingerprintdialog.core;
+
+public enum AuthenticationType {
+    FINGERPRINT,
+    NEW_FINGERPRINT_ENROLLED,
+    PASSWORD
+}
\ No newline at end of file
@@ -0,0 +1,26 @@
+package com.karman.fingerprintdialog.core;
+
+/**
+ * A biometric sensor session. {@code C} is the platform's crypto object, e.g.
+ * {@code FingerprintManager.CryptoObject} on a device.
+ * <p>
+ * After {@link #cancel()} no further callbacks are delivered for the cancelled session.
+ */
+public interface Authenticator<C> {
+    
+    boolean isAvailable ();
+    
+    void authenticate (C crypto, Callback<C> callback);
+    
+    void cancel ();
+    
+    interface Callback<C> {
+        void onAuthenticationSucceeded (C crypto);
+        
+        void onAuthenticationFailed ();
+        
+        void onAuthenticationHelp (int helpCode, CharSequence helpString);
+        
+        void onAuthenticationError (int errorCode, CharSequence errString);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,125 @@
+package com.karman.fingerprintdialog.core;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming Base64 (RFC 4648) encoder with padding. With {@code wrapLines} the output is broken
+ * into 76 character lines, each terminated by {@code '\n'}, matching
+ * {@code android.util.Base64.DEFAULT}.
+ */
+public class Base64OutputStream extends FilterOutputStream {
+    
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes ();
+    private static final int LINE_LENGTH = 76;
+    private static final int BUFFER_SIZE = 4096;
+    
+    private final boolean mWrapLines;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mBuffered;
+    private int mPending;
+    private int mPendingCount;
+    private int mLineLength;
+    private long mCharsWritten;
+    private boolean mFinished;
+    
+    public Base64OutputStream (OutputStream out, boolean wrapLines) {
+        super (out);
+        mWrapLines = wrapLines;
+    }
+    
+    @Override
+    public void write (int b) throws IOException {
+        mPending = (mPending << 8) | (b & 0xff);
+        if (++mPendingCount == 3) {
+            encodeGroup (mPending, 4);
+            mPending = 0;
+            mPendingCount = 0;
+        }
+    }
+    
+    @Override
+    public void write (byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int i = off;
+        // Top up a partial group left over from the previous write.
+        while (mPendingCount != 0 && i < end) {
+            write (b[i++]);
+        }
+        for (; i + 3 <= end; i += 3) {
+            encodeGroup (((b[i] & 0xff) << 16) | ((b[i + 1] & 0xff) << 8) | (b[i + 2] & 0xff), 4);
+        }
+        while (i < end) {
+            write (b[i++]);
+        }
+    }
+    
+    /**
+     * Writes the final padded group and line break. Does not close the underlying stream.
+     */
+    public void finish () throws IOException {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        if (mPendingCount == 1) {
+            encodeGroup (mPending << 16, 2);
+            put ('=');
+            put ('=');
+        } else if (mPendingCount == 2) {
+            encodeGroup (mPending << 8, 3);
+            put ('=');
+        }
+        if (mWrapLines && mLineLength > 0) {
+            putRaw ('\n');
+        }
+        flushBuffer ();
+    }
+    
+    public long getCharsWritten () {
+        return mCharsWritten;
+    }
+    
+    @Override
+    public void flush () throws IOException {
+        flushBuffer ();
+        out.flush ();
+    }
+    
+    @Override
+    public void close () throws IOException {
+        finish ();
+        super.close ();
+    }
+    
+    private void encodeGroup (int group, int chars) throws IOException {
+        for (int shift = 18, i = 0; i < chars; shift -= 6, i++) {
+            put (ALPHABET[(group >> shift) & 0x3f]);
+        }
+    }
+    
+    private void put (int c) throws IOException {
+        putRaw (c);
+        if (mWrapLines && ++mLineLength == LINE_LENGTH) {
+            putRaw ('\n');
+            mLineLength = 0;
+        }
+    }
+    
+    private void putRaw (int c) throws IOException {
+        if (mBuffered == BUFFER_SIZE) {
+            flushBuffer ();
+        }
+        mBuffer[mBuffered++] = (byte) c;
+        mCharsWritten++;
+    }
+    
+    private void flushBuffer () throws IOException {
+        if (mBuffered > 0) {
+            out.write (mBuffer, 0, mBuffered);
+            mBuffered = 0;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,195 @@
+package com.karman.fingerprintdialog.core;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signs a batch of records with one fingerprint-authorized {@link Signature}.
+ * <ul>
+ * <li>{@link #signManifest}: every record is hashed and only the list of hashes is streamed into
+ * the signature, so the batch costs exactly one signing operation. This is the mode for keys that
+ * need a fingerprint per operation. Any single record can later be checked against the verified
+ * manifest.</li>
+ * <li>{@link #signEach}: one signature per record from the same {@link Signature}. Each
+ * {@code sign()} is a separate keystore operation, so this only works for keys with an auth
+ * validity window (see {@link AuthSession}).</li>
+ * </ul>
+ * Records are fed through {@code update()} and the digest and framing buffers are reused across
+ * records, so a batch allocates little beyond its output. Not thread-safe.
+ */
+public class BatchSigner {
+    
+    public static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+    public static final int DIGEST_LENGTH = 32;
+    
+    private final MessageDigest mDigest;
+    private final ByteBuffer mFrame = ByteBuffer.allocate (4);
+    private byte[] mDigests = new byte[DIGEST_LENGTH * 64];
+    
+    public BatchSigner () throws GeneralSecurityException {
+        mDigest = MessageDigest.getInstance (DIGEST_ALGORITHM);
+    }
+    
+    /**
+     * @param authorized signature in sign mode, as handed back by the fingerprint callback
+     */
+    public Manifest signManifest (Signature authorized, List<byte[]> records) throws GeneralSecurityException {
+        long start = System.nanoTime ();
+        int count = records.size ();
+        if (mDigests.length < count * DIGEST_LENGTH) {
+            mDigests = new byte[Math.max (count * DIGEST_LENGTH, mDigests.length * 2)];
+        }
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] record = records.get (i);
+            mDigest.update (record);
+            mDigest.digest (mDigests, i * DIGEST_LENGTH, DIGEST_LENGTH);
+            authorized.update (mDigests, i * DIGEST_LENGTH, DIGEST_LENGTH);
+            bytes += record.length;
+        }
+        // The count goes last so a manifest cannot be cut short and still verify.
+        updateFrame (authorized, count);
+        byte[] signature = authorized.sign ();
+        return new Manifest (Arrays.copyOf (mDigests, count * DIGEST_LENGTH), signature,
+                new Stats (count, bytes, 1, System.nanoTime () - start));
+    }
+    
+    /**
+     * @param authorized signature in sign mode on a key with an auth validity window
+     */
+    public Batch signEach (Signature authorized, List<byte[]> records) throws GeneralSecurityException {
+        long start = System.nanoTime ();
+        int count = records.size ();
+        List<byte[]> signatures = new ArrayList<> (count);
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] record = records.get (i);
+            authorized.update (record);
+            signatures.add (authorized.sign ());
+            bytes += record.length;
+        }
+        return new Batch (signatures, new Stats (count, bytes, count, System.nanoTime () - start));
+    }
+    
+    public static boolean verifyManifest (PublicKey publicKey, Manifest manifest) throws GeneralSecurityException {
+        Signature verifier = Signature.getInstance (SIGNATURE_ALGORITHM);
+        verifier.initVerify (publicKey);
+        verifier.update (manifest.mDigests);
+        verifier.update (ByteBuffer.allocate (4).putInt (manifest.size ()).array ());
+        return verifier.verify (manifest.mSignature);
+    }
+    
+    public static boolean verify (PublicKey publicKey, byte[] record, byte[] signature) throws GeneralSecurityException {
+        Signature verifier = Signature.getInstance (SIGNATURE_ALGORITHM);
+        verifier.initVerify (publicKey);
+        verifier.update (record);
+        return verifier.verify (signature);
+    }
+    
+    private void updateFrame (Signature signature, int value) throws GeneralSecurityException {
+        mFrame.clear ();
+        mFrame.putInt (value);
+        signature.update (mFrame.array (), 0, 4);
+    }
+    
+    /**
+     * The hashes of a batch of records and one signature over all of them.
+     */
+    public static final class Manifest {
+        final byte[] mDigests;
+        final byte[] mSignature;
+        private final Stats mStats;
+        
+        Manifest (byte[] digests, byte[] signature, Stats stats) {
+            mDigests = digests;
+            mSignature = signature;
+            mStats = stats;
+        }
+        
+        public int size () {
+            return mDigests.length / DIGEST_LENGTH;
+        }
+        
+        public byte[] getSignature () {
+            return mSignature.clone ();
+        }
+        
+        public Stats getStats () {
+            return mStats;
+        }
+        
+        /**
+         * Whether {@code record} is the one at {@code index}. Only meaningful once the manifest
+         * itself passed {@link #verifyManifest}.
+         */
+        public boolean contains (int index, byte[] record) throws GeneralSecurityException {
+            if (index < 0 || index >= size ()) {
+                return false;
+            }
+            byte[] digest = MessageDigest.getInstance (DIGEST_ALGORITHM).digest (record);
+            return MessageDigest.isEqual (digest,
+                    Arrays.copyOfRange (mDigests, index * DIGEST_LENGTH, (index + 1) * DIGEST_LENGTH));
+        }
+    }
+    
+    /**
+     * One signature per record, in record order.
+     */
+    public static final class Batch {
+        private final List<byte[]> mSignatures;
+        private final Stats mStats;
+        
+        Batch (List<byte[]> signatures, Stats stats) {
+            mSignatures = Collections.unmodifiableList (signatures);
+            mStats = stats;
+        }
+        
+        public List<byte[]> getSignatures () {
+            return mSignatures;
+        }
+        
+        public Stats getStats () {
+            return mStats;
+        }
+    }
+    
+    public static final class Stats {
+        public final int records;
+        public final long bytes;
+        public final int signOperations;
+        public final long elapsedNanos;
+        
+        Stats (int records, long bytes, int signOperations, long elapsedNanos) {
+            this.records = records;
+            this.bytes = bytes;
+            this.signOperations = signOperations;
+            this.elapsedNanos = elapsedNanos;
+        }
+        
+        /**
+         * Records signed per second, each covered either by its own signature or by the manifest's.
+         */
+        public double getSignaturesPerSecond () {
+            return elapsedNanos == 0 ? 0 : records * (double) TimeUnit.SECONDS.toNanos (1) / elapsedNanos;
+        }
+        
+        @Override
+        public String toString () {
+            return "records=" + records
+                    + " bytes=" + bytes
+                    + " signOps=" + signOperations
+                    + " ms=" + elapsedNanos / 1000000.0
+                    + " signaturesPerSecond=" + String.format (Locale.US, "%.1f", getSignaturesPerSecond ());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,147 @@
+package com.karman.fingerprintdialog.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the device capability checks (secure keyguard, fingerprint hardware, enrolled
+ * fingerprints), each of which is a binder call on Android. The probe runs on a background
+ * executor and readers get the last snapshot through a volatile read, so nothing on the dialog-open
+ * path waits on IPC.
+ * <p>
+ * The snapshot only changes when {@link #refresh()} is called, which callers do on the events that
+ * can change it: resume, a key invalidated by a new enrollment, or a sensor error.
+ */
+public class CapabilityCache {
+    
+    public static final class Snapshot {
+        private final boolean mKeyguardSecure;
+        private final boolean mHardwareDetected;
+        private final boolean mFingerprintsEnrolled;
+        
+        public Snapshot (boolean keyguardSecure, boolean hardwareDetected, boolean fingerprintsEnrolled) {
+            mKeyguardSecure = keyguardSecure;
+            mHardwareDetected = hardwareDetected;
+            mFingerprintsEnrolled = fingerprintsEnrolled;
+        }
+        
+        public boolean isKeyguardSecure () {
+            return mKeyguardSecure;
+        }
+        
+        public boolean isHardwareDetected () {
+            return mHardwareDetected;
+        }
+        
+        public boolean hasEnrolledFingerprints () {
+            return mFingerprintsEnrolled;
+        }
+        
+        public boolean isFingerprintAvailable () {
+            return mHardwareDetected && mFingerprintsEnrolled;
+        }
+        
+        @Override
+        public boolean equals (Object o) {
+            if (! (o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot other = (Snapshot) o;
+            return mKeyguardSecure == other.mKeyguardSecure && mHardwareDetected == other.mHardwareDetected
+                    && mFingerprintsEnrolled == other.mFingerprintsEnrolled;
+        }
+        
+        @Override
+        public int hashCode () {
+            return (mKeyguardSecure ? 4 : 0) | (mHardwareDetected ? 2 : 0) | (mFingerprintsEnrolled ? 1 : 0);
+        }
+        
+        @Override
+        public String toString () {
+            return "Snapshot{keyguardSecure=" + mKeyguardSecure + ", hardwareDetected=" + mHardwareDetected
+                    + ", fingerprintsEnrolled=" + mFingerprintsEnrolled + "}";
+        }
+    }
+    
+    public interface Probe {
+        /**
+         * Runs on the cache's executor. If it throws, nothing is published and the last snapshot
+         * stays; the next {@link #refresh()} probes again.
+         */
+        Snapshot probe ();
+    }
+    
+    public interface Listener {
+        /** Called on the cache's executor when a refresh produced a different snapshot. */
+        void onCapabilitiesChanged (Snapshot snapshot);
+    }
+    
+    private final Probe mProbe;
+    private final Executor mExecutor;
+    // Refresh requests since the running probe started; 0 when no probe is scheduled.
+    private final AtomicInteger mRequests = new AtomicInteger ();
+    private final AtomicInteger mProbeCount = new AtomicInteger ();
+    private volatile Snapshot mSnapshot;
+    private volatile Listener mListener;
+    
+    private final Runnable mProbeRunnable = new Runnable () {
+        @Override
+        public void run () {
+            int seen;
+            do {
+                seen = mRequests.get ();
+                Snapshot snapshot;
+                try {
+                    snapshot = mProbe.probe ();
+                } catch (RuntimeException e) {
+                    // E.g. a dead system service. Left non-zero, the counter would block every
+                    // later refresh from scheduling a probe.
+                    mRequests.set (0);
+                    return;
+                }
+                publish (snapshot);
+                mProbeCount.incrementAndGet ();
+                // A refresh that came in while probing may have missed this result; go again.
+            } while (! mRequests.compareAndSet (seen, 0));
+        }
+    };
+    
+    public CapabilityCache (Probe probe, Executor executor) {
+        mProbe = probe;
+        mExecutor = executor;
+    }
+    
+    public void setListener (Listener listener) {
+        mListener = listener;
+    }
+    
+    /**
+     * @return the last probed snapshot, or null if the first probe has not finished yet
+     */
+    public Snapshot get () {
+        return mSnapshot;
+    }
+    
+    /**
+     * Schedules a probe. Requests made while one is pending or running are coalesced into at most
+     * one more probe.
+     */
+    public void refresh () {
+        if (mRequests.getAndIncrement () == 0) {
+            mExecutor.execute (mProbeRunnable);
+        }
+    }
+    
+    public int getProbeCount () {
+        return mProbeCount.get ();
+    }
+    
+    private void publish (Snapshot snapshot) {
+        Snapshot previous = mSnapshot;
+        mSnapshot = snapshot;
+        Listener listener = mListener;
+        if (listener != null && ! snapshot.equals (previous)) {
+            listener.onCapabilitiesChanged (snapshot);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,121 @@
+package com.karman.fingerprintdialog.core;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+
+/**
+ * A small bounded pool of cipher instances, keyed by key alias and
+ * transformation, so the provider lookup and object construction in {@code Cipher.getInstance}
+ * is paid once rather than on every dialog show.
+ * <p>
+ * Ciphers come out in whatever state they were returned in; the caller must {@code init} every
+ * checked-out instance, which also gives it a fresh IV. {@link KeyLifecycleManager} does that.
+ */
+public class CipherPool {
+    
+    public static final int DEFAULT_MAX_PER_KEY = 2;
+    
+    public interface Factory {
+        Cipher newCipher (String transformation) throws GeneralSecurityException;
+    }
+    
+    private final Factory mFactory;
+    private final int mMaxPerKey;
+    // alias -> transformation -> idle ciphers
+    private final Map<String, Map<String, ArrayDeque<Cipher>>> mIdle = new HashMap<> ();
+    
+    private int mHits;
+    private int mMisses;
+    
+    public CipherPool (Factory factory) {
+        this (factory, DEFAULT_MAX_PER_KEY);
+    }
+    
+    public CipherPool (Factory factory, int maxPerKey) {
+        if (maxPerKey < 1) {
+            throw new IllegalArgumentException ("maxPerKey must be positive: " + maxPerKey);
+        }
+        mFactory = factory;
+        mMaxPerKey = maxPerKey;
+    }
+    
+    /**
+     * Checks out an idle cipher, or builds a new one if there is none. The caller owns it until it
+     * is handed back with {@link #release}.
+     */
+    public Cipher acquire (String transformation, String alias) throws GeneralSecurityException {
+        synchronized (this) {
+            ArrayDeque<Cipher> idle = idle (transformation, alias, false);
+            if (idle != null && ! idle.isEmpty ()) {
+                mHits++;
+                return idle.pop ();
+            }
+            mMisses++;
+        }
+        return mFactory.newCipher (transformation);
+    }
+    
+    /**
+     * Returns a cipher the caller is done with. Releasing an instance that is already idle is
+     * ignored, so a double release cannot hand one cipher to two owners later.
+     *
+     * @return false if the pool for that key was full or already held this cipher
+     */
+    public synchronized boolean release (String transformation, String alias, Cipher cipher) {
+        ArrayDeque<Cipher> idle = idle (transformation, alias, true);
+        if (idle.size () >= mMaxPerKey) {
+            return false;
+        }
+        for (Cipher pooled : idle) {
+            if (pooled == cipher) {
+                return false;
+            }
+        }
+        idle.push (cipher);
+        return true;
+    }
+    
+    /** Drops every idle cipher for {@code alias}, e.g. because its key was invalidated. */
+    public synchronized void evict (String alias) {
+        mIdle.remove (alias);
+    }
+    
+    public synchronized int size () {
+        int size = 0;
+        for (Map<String, ArrayDeque<Cipher>> byTransformation : mIdle.values ()) {
+            for (ArrayDeque<Cipher> idle : byTransformation.values ()) {
+                size += idle.size ();
+            }
+        }
+        return size;
+    }
+    
+    public synchronized int getHits () {
+        return mHits;
+    }
+    
+    public synchronized int getMisses () {
+        return mMisses;
+    }
+    
+    private ArrayDeque<Cipher> idle (String transformation, String alias, boolean create) {
+        Map<String, ArrayDeque<Cipher>> byTransformation = mIdle.get (alias);
+        if (byTransformation == null) {
+            if (! create) {
+                return null;
+            }
+            byTransformation = new HashMap<> ();
+            mIdle.put (alias, byTransformation);
+        }
+        ArrayDeque<Cipher> idle = byTransformation.get (transformation);
+        if (idle == null && create) {
+            idle = new ArrayDeque<> (mMaxPerKey);
+            byTransformation.put (transformation, idle);
+        }
+        return idle;
+    }
+}
\ No newline at end of file
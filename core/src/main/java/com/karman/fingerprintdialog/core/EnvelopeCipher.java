@@ -0,0 +1,202 @@
+package com.karman.fingerprintdialog.core;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Envelope encryption: the fingerprint-authorized keystore cipher only wraps and unwraps a random
+ * AES data key, and the bulk data is encrypted in-process with AES-GCM under that data key.
+ * <p>
+ * Every keystore cipher operation is a round trip into the TEE, while the software provider (Conscrypt
+ * on a device) runs AES-GCM on the CPU's AES instructions, so only the 32-byte key goes through the
+ * keystore.
+ */
+public class EnvelopeCipher {
+    
+    public static final String BULK_TRANSFORMATION = "AES/GCM/NoPadding";
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH_BITS = 128;
+    public static final int DATA_KEY_BITS = 256;
+    
+    private final SecureRandom mRandom;
+    
+    public EnvelopeCipher () {
+        this (new SecureRandom ());
+    }
+    
+    public EnvelopeCipher (SecureRandom random) {
+        mRandom = random;
+    }
+    
+    public SecretKey newDataKey () throws GeneralSecurityException {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance ("AES");
+        keyGenerator.init (DATA_KEY_BITS, mRandom);
+        return keyGenerator.generateKey ();
+    }
+    
+    /**
+     * @param authorized keystore cipher in {@link Cipher#ENCRYPT_MODE}, as handed back by the
+     *                   fingerprint callback
+     */
+    public WrappedKey wrapKey (Cipher authorized, SecretKey dataKey) throws GeneralSecurityException {
+        byte[] wrapped = authorized.doFinal (dataKey.getEncoded ());
+        return new WrappedKey (authorized.getIV (), wrapped);
+    }
+    
+    /**
+     * @param authorized keystore cipher in {@link Cipher#DECRYPT_MODE}, initialised with
+     *                   {@link WrappedKey#getIv()}
+     */
+    public SecretKey unwrapKey (Cipher authorized, WrappedKey wrappedKey) throws GeneralSecurityException {
+        byte[] raw = authorized.doFinal (wrappedKey.mWrapped);
+        try {
+            return new SecretKeySpec (raw, "AES");
+        } finally {
+            Arrays.fill (raw, (byte) 0);
+        }
+    }
+    
+    /**
+     * Returns a bulk cipher for {@link StreamingCipher}. In encrypt mode pass a null nonce and a
+     * fresh one is generated; read it back with {@link Cipher#getIV()}.
+     */
+    public Cipher newBulkCipher (int opmode, SecretKey dataKey, byte[] nonce) throws GeneralSecurityException {
+        if (nonce == null) {
+            nonce = new byte[NONCE_LENGTH];
+            mRandom.nextBytes (nonce);
+        }
+        Cipher cipher = Cipher.getInstance (BULK_TRANSFORMATION);
+        cipher.init (opmode, dataKey, new GCMParameterSpec (TAG_LENGTH_BITS, nonce));
+        return cipher;
+    }
+    
+    /**
+     * Encrypts with the data key. The result is the nonce followed by ciphertext and tag.
+     */
+    public byte[] encrypt (SecretKey dataKey, byte[] plaintext) throws GeneralSecurityException {
+        Cipher cipher = newBulkCipher (Cipher.ENCRYPT_MODE, dataKey, null);
+        byte[] sealed = new byte[NONCE_LENGTH + cipher.getOutputSize (plaintext.length)];
+        System.arraycopy (cipher.getIV (), 0, sealed, 0, NONCE_LENGTH);
+        int n = cipher.doFinal (plaintext, 0, plaintext.length, sealed, NONCE_LENGTH);
+        return n + NONCE_LENGTH == sealed.length ? sealed : Arrays.copyOf (sealed, n + NONCE_LENGTH);
+    }
+    
+    public byte[] decrypt (SecretKey dataKey, byte[] sealed) throws GeneralSecurityException {
+        if (sealed.length < NONCE_LENGTH) {
+            throw new GeneralSecurityException ("Truncated ciphertext");
+        }
+        Cipher cipher = newBulkCipher (Cipher.DECRYPT_MODE, dataKey, Arrays.copyOf (sealed, NONCE_LENGTH));
+        return cipher.doFinal (sealed, NONCE_LENGTH, sealed.length - NONCE_LENGTH);
+    }
+    
+    /**
+     * One-shot envelope: new data key, wrapped by {@code authorized}, payload under the data key.
+     */
+    public Envelope seal (Cipher authorized, byte[] plaintext) throws GeneralSecurityException {
+        SecretKey dataKey = newDataKey ();
+        return new Envelope (wrapKey (authorized, dataKey), encrypt (dataKey, plaintext));
+    }
+    
+    public byte[] open (Cipher authorized, Envelope envelope) throws GeneralSecurityException {
+        return decrypt (unwrapKey (authorized, envelope.getWrappedKey ()), envelope.mSealed);
+    }
+    
+    /**
+     * A data key encrypted under the keystore key, plus the IV needed to decrypt it.
+     */
+    public static final class WrappedKey {
+        final byte[] mIv;
+        final byte[] mWrapped;
+        
+        WrappedKey (byte[] iv, byte[] wrapped) {
+            mIv = iv == null ? new byte[0] : iv;
+            mWrapped = wrapped;
+        }
+        
+        public byte[] getIv () {
+            return mIv.clone ();
+        }
+        
+        /**
+         * {@code ivLength(1) iv wrappedLength(2) wrapped}
+         */
+        public byte[] toByteArray () {
+            ByteBuffer out = ByteBuffer.allocate (serializedSize ());
+            write (out);
+            return out.array ();
+        }
+        
+        int serializedSize () {
+            return 1 + mIv.length + 2 + mWrapped.length;
+        }
+        
+        void write (ByteBuffer out) {
+            out.put ((byte) mIv.length).put (mIv).putShort ((short) mWrapped.length).put (mWrapped);
+        }
+        
+        public static WrappedKey fromByteArray (byte[] data) throws GeneralSecurityException {
+            return read (ByteBuffer.wrap (data));
+        }
+        
+        static WrappedKey read (ByteBuffer in) throws GeneralSecurityException {
+            try {
+                byte[] iv = new byte[in.get () & 0xff];
+                in.get (iv);
+                byte[] wrapped = new byte[in.getShort () & 0xffff];
+                in.get (wrapped);
+                return new WrappedKey (iv, wrapped);
+            } catch (RuntimeException e) {
+                throw new GeneralSecurityException ("Malformed wrapped key", e);
+            }
+        }
+    }
+    
+    /**
+     * A wrapped data key and the payload sealed under it.
+     */
+    public static final class Envelope {
+        private static final byte VERSION = 1;
+        
+        private final WrappedKey mWrappedKey;
+        final byte[] mSealed;
+        
+        Envelope (WrappedKey wrappedKey, byte[] sealed) {
+            mWrappedKey = wrappedKey;
+            mSealed = sealed;
+        }
+        
+        public WrappedKey getWrappedKey () {
+            return mWrappedKey;
+        }
+        
+        /**
+         * {@code version(1) wrappedKey sealed}
+         */
+        public byte[] toByteArray () {
+            ByteBuffer out = ByteBuffer.allocate (1 + mWrappedKey.serializedSize () + mSealed.length);
+            out.put (VERSION);
+            mWrappedKey.write (out);
+            out.put (mSealed);
+            return out.array ();
+        }
+        
+        public static Envelope fromByteArray (byte[] data) throws GeneralSecurityException {
+            ByteBuffer in = ByteBuffer.wrap (data);
+            if (! in.hasRemaining () || in.get () != VERSION) {
+                throw new GeneralSecurityException ("Unknown envelope version");
+            }
+            WrappedKey wrappedKey = WrappedKey.read (in);
+            byte[] sealed = new byte[in.remaining ()];
+            in.get (sealed);
+            return new Envelope (wrappedKey, sealed);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.karman.fingerprintdialog.core;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * The key behind an alias was permanently invalidated and must be recreated before it can be used.
+ */
+public class KeyInvalidatedException extends GeneralSecurityException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final String mAlias;
+    
+    public KeyInvalidatedException (String alias, Throwable cause) {
+        super ("Key permanently invalidated: " + alias, cause);
+        mAlias = alias;
+    }
+    
+    public String getAlias () {
+        return mAlias;
+    }
+}
\ No newline at end of file
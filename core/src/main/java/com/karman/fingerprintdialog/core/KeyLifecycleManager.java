@@ -0,0 +1,209 @@
+package com.karman.fingerprintdialog.core;
+
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Owns the fingerprint-bound keys for the lifetime of the process. A key is generated only when the
+ * keystore has no entry for its alias or after it has been invalidated, and the loaded
+ * {@link SecretKey} handle is cached so a steady-state dialog open costs a single cipher init.
+ * Cipher instances handed back through {@link #releaseCipher} are pooled, so that init is done on
+ * an existing object rather than one built by another provider lookup.
+ * <p>
+ * Keygen and loads hold a per-alias lock only, so a key being generated in the background never
+ * holds up the cached path or another alias.
+ */
+public class KeyLifecycleManager {
+    
+    private final KeyProvider mProvider;
+    private final Map<String, SecretKey> mKeys = new HashMap<> ();
+    private final CipherPool mCipherPool;
+    private final Map<String, Object> mAliasLocks = new HashMap<> ();
+    
+    private int mKeygenCount;
+    private long mKeygenTotalNanos;
+    private long mLastKeygenNanos;
+    private int mLoadCount;
+    private int mCacheHits;
+    
+    public KeyLifecycleManager (KeyProvider provider) {
+        mProvider = provider;
+        mCipherPool = new CipherPool (new CipherPool.Factory () {
+            @Override
+            public Cipher newCipher (String transformation) throws GeneralSecurityException {
+                return mProvider.newCipher ();
+            }
+        });
+    }
+    
+    public KeyProvider getProvider () {
+        return mProvider;
+    }
+    
+    /**
+     * Returns the cached key for {@code alias}, loading it from the keystore or generating it if
+     * the keystore has none.
+     */
+    public SecretKey getKey (String alias) throws GeneralSecurityException {
+        SecretKey key = cachedKey (alias);
+        if (key != null) {
+            return key;
+        }
+        synchronized (aliasLock (alias)) {
+            // Another thread may have loaded it while this one waited for the lock.
+            key = cachedKey (alias);
+            if (key != null) {
+                return key;
+            }
+            if (! mProvider.containsKey (alias)) {
+                generate (alias);
+            }
+            return load (alias);
+        }
+    }
+    
+    /**
+     * Replaces an invalidated key, e.g. after a new fingerprint was enrolled and the user confirmed
+     * with the password.
+     */
+    public SecretKey recreateKey (String alias) throws GeneralSecurityException {
+        synchronized (aliasLock (alias)) {
+            evict (alias);
+            if (mProvider.containsKey (alias)) {
+                mProvider.deleteKey (alias);
+            }
+            generate (alias);
+            return load (alias);
+        }
+    }
+    
+    /**
+     * Returns a cipher initialised with the key for {@code alias}, taken from the pool when one is
+     * idle. Every call inits, so an encrypting cipher always gets a fresh IV.
+     *
+     * @throws KeyInvalidatedException if the key can no longer be used; the cached handle is
+     *                                 dropped and the key has to be recreated.
+     */
+    public Cipher initCipher (String alias, int opmode) throws GeneralSecurityException {
+        return initCipher (alias, opmode, null);
+    }
+    
+    /**
+     * Like {@link #initCipher(String, int)} with explicit parameters, e.g. the IV needed to decrypt.
+     */
+    public Cipher initCipher (String alias, int opmode, AlgorithmParameterSpec params)
+            throws GeneralSecurityException {
+        Cipher cipher = mCipherPool.acquire (mProvider.getTransformation (), alias);
+        try {
+            if (params == null) {
+                cipher.init (opmode, getKey (alias));
+            } else {
+                cipher.init (opmode, getKey (alias), params);
+            }
+        } catch (GeneralSecurityException e) {
+            if (mProvider.isKeyInvalidated (e)) {
+                evict (alias);
+                throw e instanceof KeyInvalidatedException ? e : new KeyInvalidatedException (alias, e);
+            }
+            // The failed instance is not pooled again: JCA picks the provider on the first init,
+            // and one that failed can be left bound to none, unusable for any later init.
+            throw e;
+        }
+        return cipher;
+    }
+    
+    /**
+     * Hands a cipher from {@link #initCipher} back for reuse once the caller is done with it.
+     */
+    public void releaseCipher (String alias, Cipher cipher) {
+        mCipherPool.release (mProvider.getTransformation (), alias, cipher);
+    }
+    
+    public CipherPool getCipherPool () {
+        return mCipherPool;
+    }
+    
+    /**
+     * Drops the cached handle and pooled ciphers, typically because initialising a cipher with the
+     * key failed.
+     */
+    public synchronized void evict (String alias) {
+        mKeys.remove (alias);
+        mCipherPool.evict (alias);
+    }
+    
+    public synchronized Stats getStats () {
+        return new Stats (mKeygenCount, mKeygenTotalNanos, mLastKeygenNanos, mLoadCount, mCacheHits);
+    }
+    
+    private synchronized SecretKey cachedKey (String alias) {
+        SecretKey key = mKeys.get (alias);
+        if (key != null) {
+            mCacheHits++;
+        }
+        return key;
+    }
+    
+    private synchronized Object aliasLock (String alias) {
+        Object lock = mAliasLocks.get (alias);
+        if (lock == null) {
+            lock = new Object ();
+            mAliasLocks.put (alias, lock);
+        }
+        return lock;
+    }
+    
+    private void generate (String alias) throws GeneralSecurityException {
+        long start = System.nanoTime ();
+        mProvider.generateKey (alias);
+        long elapsed = System.nanoTime () - start;
+        synchronized (this) {
+            mLastKeygenNanos = elapsed;
+            mKeygenTotalNanos += elapsed;
+            mKeygenCount++;
+        }
+    }
+    
+    private SecretKey load (String alias) throws GeneralSecurityException {
+        SecretKey key = mProvider.loadKey (alias);
+        synchronized (this) {
+            mLoadCount++;
+            mKeys.put (alias, key);
+        }
+        return key;
+    }
+    
+    public static final class Stats {
+        public final int keygenCount;
+        public final long keygenTotalNanos;
+        public final long lastKeygenNanos;
+        public final int loadCount;
+        public final int cacheHits;
+        
+        Stats (int keygenCount, long keygenTotalNanos, long lastKeygenNanos, int loadCount, int cacheHits) {
+            this.keygenCount = keygenCount;
+            this.keygenTotalNanos = keygenTotalNanos;
+            this.lastKeygenNanos = lastKeygenNanos;
+            this.loadCount = loadCount;
+            this.cacheHits = cacheHits;
+        }
+        
+        public long averageKeygenNanos () {
+            return keygenCount == 0 ? 0 : keygenTotalNanos / keygenCount;
+        }
+        
+        @Override
+        public String toString () {
+            return "keygen=" + keygenCount
+                    + " avgKeygenMs=" + averageKeygenNanos () / 1000000.0
+                    + " lastKeygenMs=" + lastKeygenNanos / 1000000.0
+                    + " loads=" + loadCount
+                    + " cacheHits=" + cacheHits;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+package com.karman.fingerprintdialog.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the keystore and cipher preparation on a background executor and hands the result back on
+ * a callback executor (normally the main thread). Only the result of the most recent
+ * {@link #prepare(Task)} is ever delivered; superseded or cancelled runs are dropped.
+ */
+public class KeyPreparer<T> {
+    
+    public interface Task<T> {
+        T prepare () throws Exception;
+    }
+    
+    public interface Listener<T> {
+        void onPrepared (T result);
+        
+        void onFailed (Exception e);
+    }
+    
+    public enum State {
+        IDLE,
+        PREPARING,
+        READY,
+        FAILED
+    }
+    
+    private final Executor mBackgroundExecutor;
+    private final Executor mCallbackExecutor;
+    private final AtomicInteger mGeneration = new AtomicInteger ();
+    
+    private volatile State mState = State.IDLE;
+    private volatile T mResult;
+    private volatile Exception mError;
+    // Only touched on the callback executor.
+    private Listener<T> mListener;
+    
+    public KeyPreparer (Executor backgroundExecutor, Executor callbackExecutor) {
+        mBackgroundExecutor = backgroundExecutor;
+        mCallbackExecutor = callbackExecutor;
+    }
+    
+    public void prepare (final Task<T> task) {
+        final int generation = mGeneration.incrementAndGet ();
+        mState = State.PREPARING;
+        mResult = null;
+        mError = null;
+        mBackgroundExecutor.execute (new Runnable () {
+            @Override
+            public void run () {
+                if (generation != mGeneration.get ()) {
+                    return;
+                }
+                T result = null;
+                Exception error = null;
+                try {
+                    result = task.prepare ();
+                } catch (Exception e) {
+                    error = e;
+                }
+                deliver (generation, result, error);
+            }
+        });
+    }
+    
+    /**
+     * Starts {@code task} only if nothing has been prepared or is being prepared, so a host that
+     * re-attaches, e.g. after a rotation, keeps the result it already has.
+     *
+     * @return whether a preparation was started
+     */
+    public boolean prepareIfIdle (Task<T> task) {
+        if (mState != State.IDLE) {
+            return false;
+        }
+        prepare (task);
+        return true;
+    }
+    
+    private void deliver (final int generation, final T result, final Exception error) {
+        mCallbackExecutor.execute (new Runnable () {
+            @Override
+            public void run () {
+                if (generation != mGeneration.get ()) {
+                    return;
+                }
+                mResult = result;
+                mError = error;
+                mState = error == null ? State.READY : State.FAILED;
+                notifyListener ();
+            }
+        });
+    }
+    
+    /**
+     * Drops any in-flight preparation. Keystore calls cannot be interrupted, so a running task
+     * finishes but its result is discarded.
+     */
+    public void cancel () {
+        mGeneration.incrementAndGet ();
+        mState = State.IDLE;
+        mResult = null;
+        mError = null;
+    }
+    
+    /**
+     * Must be called on the callback executor. A listener registered after the result is ready is
+     * notified immediately.
+     */
+    public void setListener (Listener<T> listener) {
+        mListener = listener;
+        notifyListener ();
+    }
+    
+    private void notifyListener () {
+        if (mListener == null) {
+            return;
+        }
+        if (mState == State.READY) {
+            mListener.onPrepared (mResult);
+        } else if (mState == State.FAILED) {
+            mListener.onFailed (mError);
+        }
+    }
+    
+    public State getState () {
+        return mState;
+    }
+    
+    public T getResult () {
+        return mResult;
+    }
+}
\ No newline at end of file
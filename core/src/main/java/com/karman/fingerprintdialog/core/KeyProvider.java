@@ -0,0 +1,37 @@
+package com.karman.fingerprintdialog.core;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Where fingerprint-bound keys come from. On a device this is AndroidKeyStore; on the JVM it is
+ * {@link SoftwareKeyProvider}.
+ */
+public interface KeyProvider {
+    
+    boolean containsKey (String alias) throws GeneralSecurityException;
+    
+    void generateKey (String alias) throws GeneralSecurityException;
+    
+    SecretKey loadKey (String alias) throws GeneralSecurityException;
+    
+    void deleteKey (String alias) throws GeneralSecurityException;
+    
+    /**
+     * The transformation {@link #newCipher()} builds ciphers for.
+     */
+    String getTransformation ();
+    
+    /**
+     * Returns an uninitialised cipher for the transformation the provider's keys are created for.
+     */
+    Cipher newCipher () throws GeneralSecurityException;
+    
+    /**
+     * Whether {@code e}, thrown while loading a key or initialising a cipher with it, means the key
+     * can never be used again (for example because a new fingerprint was enrolled).
+     */
+    boolean isKeyInvalidated (GeneralSecurityException e);
+}
\ No newline at end of file
@@ -0,0 +1,165 @@
+package com.karman.fingerprintdialog.core;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Cipher;
+
+/**
+ * The fingerprint-bound keys the app uses, one per account and {@link Purpose}, on top of a
+ * {@link KeyLifecycleManager}. {@link #pregenerate()} creates the missing keys on a background
+ * executor, so by the time a dialog needs one it only costs a cipher init. Keys found to be
+ * invalidated by a new enrollment are tracked and left alone until {@link #recreateKey} is called
+ * for them, which should only happen after the user confirmed with the password.
+ */
+public class KeyRegistry {
+    
+    public enum Purpose {
+        PAYMENT,
+        VAULT,
+        SIGN_IN
+    }
+    
+    public enum State {
+        PENDING,
+        GENERATING,
+        READY,
+        INVALIDATED,
+        FAILED
+    }
+    
+    private final KeyLifecycleManager mKeyManager;
+    private final Executor mBackgroundExecutor;
+    private final Map<String, State> mStates = new LinkedHashMap<> ();
+    
+    public KeyRegistry (KeyLifecycleManager keyManager, Executor backgroundExecutor) {
+        mKeyManager = keyManager;
+        mBackgroundExecutor = backgroundExecutor;
+    }
+    
+    public static String alias (String account, Purpose purpose) {
+        return purpose.name ().toLowerCase (Locale.US) + "_" + account;
+    }
+    
+    public KeyLifecycleManager getKeyManager () {
+        return mKeyManager;
+    }
+    
+    /**
+     * Adds the key for {@code account} and {@code purpose}; it is created by the next
+     * {@link #pregenerate()} or on first use, whichever comes first.
+     *
+     * @return the key's alias
+     */
+    public String register (String account, Purpose purpose) {
+        String alias = alias (account, purpose);
+        synchronized (this) {
+            if (! mStates.containsKey (alias)) {
+                mStates.put (alias, State.PENDING);
+            }
+        }
+        return alias;
+    }
+    
+    /**
+     * Queues a background load or keygen for every registered key that is not ready yet. Meant to
+     * be called when the app is idle; invalidated keys are skipped.
+     *
+     * @return the number of keys queued
+     */
+    public int pregenerate () {
+        List<String> aliases = new ArrayList<> ();
+        synchronized (this) {
+            for (Map.Entry<String, State> entry : mStates.entrySet ()) {
+                if (entry.getValue () == State.PENDING || entry.getValue () == State.FAILED) {
+                    entry.setValue (State.GENERATING);
+                    aliases.add (entry.getKey ());
+                }
+            }
+        }
+        for (final String alias : aliases) {
+            mBackgroundExecutor.execute (new Runnable () {
+                @Override
+                public void run () {
+                    prepare (alias);
+                }
+            });
+        }
+        return aliases.size ();
+    }
+    
+    public synchronized State getState (String alias) {
+        State state = mStates.get (alias);
+        return state == null ? State.PENDING : state;
+    }
+    
+    public boolean isReady (String alias) {
+        return getState (alias) == State.READY;
+    }
+    
+    /**
+     * Returns a cipher initialised with the key for {@code alias}. A ready key costs only the init;
+     * a key that is still being generated in the background is waited for rather than generated
+     * twice.
+     *
+     * @throws KeyInvalidatedException if the key was invalidated and has not been recreated yet
+     */
+    public Cipher initCipher (String alias, int opmode) throws GeneralSecurityException {
+        if (getState (alias) == State.INVALIDATED) {
+            throw new KeyInvalidatedException (alias, null);
+        }
+        try {
+            Cipher cipher = mKeyManager.initCipher (alias, opmode);
+            setState (alias, State.READY);
+            return cipher;
+        } catch (KeyInvalidatedException e) {
+            setState (alias, State.INVALIDATED);
+            throw e;
+        }
+    }
+    
+    /**
+     * Replaces an invalidated key on the calling thread.
+     */
+    public void recreateKey (String alias) throws GeneralSecurityException {
+        setState (alias, State.GENERATING);
+        try {
+            mKeyManager.recreateKey (alias);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            setState (alias, State.FAILED);
+            throw e;
+        }
+        setState (alias, State.READY);
+    }
+    
+    /**
+     * Records that the key for {@code alias} was invalidated, e.g. because the sensor reported it.
+     */
+    public void markInvalidated (String alias) {
+        mKeyManager.evict (alias);
+        setState (alias, State.INVALIDATED);
+    }
+    
+    /**
+     * Loads or generates the key, then does a trial init: AndroidKeyStore only reports an
+     * invalidated key at init time, and the cipher goes back to the pool for the first show.
+     */
+    private void prepare (String alias) {
+        try {
+            mKeyManager.releaseCipher (alias, initCipher (alias, Cipher.ENCRYPT_MODE));
+        } catch (KeyInvalidatedException e) {
+            // Already recorded by initCipher.
+        } catch (GeneralSecurityException | RuntimeException e) {
+            setState (alias, State.FAILED);
+        }
+    }
+    
+    private synchronized void setState (String alias, State state) {
+        mStates.put (alias, state);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.karman.fingerprintdialog.core;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.SecretKey;
+
+/**
+ * {@link KeyProvider} backed by a {@link KeyStore} that needs no passwords, such as AndroidKeyStore.
+ * The keystore is loaded once, on first use.
+ */
+public abstract class KeyStoreKeyProvider implements KeyProvider {
+    
+    private final KeyStore mKeyStore;
+    private boolean mLoaded;
+    
+    protected KeyStoreKeyProvider (KeyStore keyStore) {
+        mKeyStore = keyStore;
+    }
+    
+    protected synchronized KeyStore getKeyStore () throws GeneralSecurityException {
+        if (! mLoaded) {
+            try {
+                mKeyStore.load (null);
+            } catch (IOException e) {
+                throw new GeneralSecurityException ("Failed to load keystore", e);
+            }
+            mLoaded = true;
+        }
+        return mKeyStore;
+    }
+    
+    @Override
+    public boolean containsKey (String alias) throws GeneralSecurityException {
+        return getKeyStore ().containsAlias (alias);
+    }
+    
+    @Override
+    public SecretKey loadKey (String alias) throws GeneralSecurityException {
+        SecretKey key = (SecretKey) getKeyStore ().getKey (alias, null);
+        if (key == null) {
+            throw new GeneralSecurityException ("No key for alias " + alias);
+        }
+        return key;
+    }
+    
+    @Override
+    public void deleteKey (String alias) throws GeneralSecurityException {
+        getKeyStore ().deleteEntry (alias);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.karman.fingerprintdialog.core;
+
+/**
+ * How long the dialog holds its success and error states, and whether the result is delivered
+ * while the success state is still on screen.
+ */
+public class LatencyPolicy {
+    
+    /** The original behaviour: a one second success hold, delivered after it. */
+    public static final LatencyPolicy DEFAULT = new LatencyPolicy (1000, 1500, false);
+    
+    /** Deliver the result the moment the sensor matches; the success state stays up briefly. */
+    public static final LatencyPolicy INSTANT = new LatencyPolicy (300, 1500, true);
+    
+    private final long mSuccessHoldMillis;
+    private final long mErrorHoldMillis;
+    private final boolean mDeliverDuringHold;
+    
+    /**
+     * @param successHoldMillis how long the success state is shown; 0 finishes immediately
+     * @param errorHoldMillis how long an error message is shown before it resets
+     * @param deliverDuringHold deliver the result, and so start the caller's post-auth work, when
+     *                          the hold starts rather than when it ends
+     */
+    public LatencyPolicy (long successHoldMillis, long errorHoldMillis, boolean deliverDuringHold) {
+        if (successHoldMillis < 0 || errorHoldMillis < 0) {
+            throw new IllegalArgumentException ("Hold times must not be negative");
+        }
+        mSuccessHoldMillis = successHoldMillis;
+        mErrorHoldMillis = errorHoldMillis;
+        mDeliverDuringHold = deliverDuringHold;
+    }
+    
+    public long getSuccessHoldMillis () {
+        return mSuccessHoldMillis;
+    }
+    
+    public long getErrorHoldMillis () {
+        return mErrorHoldMillis;
+    }
+    
+    public boolean isDeliverDuringHold () {
+        return mDeliverDuringHold;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,219 @@
+package com.karman.fingerprintdialog.core;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage latency histograms for the authentication flow, from the purchase click to the
+ * post-auth {@code doFinal}.
+ * <p>
+ * Recording is lock-free and allocation-free: each stage owns a fixed range of log-linear buckets
+ * (8 per power of two of microseconds, so percentiles are within 12.5%) in one shared
+ * {@link AtomicLongArray}. Synchronous spans are also reported to a {@link Tracer} so they show up
+ * in systrace, and every sample is forwarded to a pluggable {@link MetricsSink}.
+ */
+public class LatencyRecorder {
+    
+    public enum Stage {
+        /** Keyguard and fingerprint hardware checks. */
+        CAPABILITY_PROBE,
+        /** Loading, or generating, the keystore key. */
+        KEY_LOAD,
+        /** Cipher.init with the loaded key. */
+        CIPHER_INIT,
+        LAYOUT_INFLATE,
+        START_LISTENING,
+        /** From the sensor being armed until a finger was recognized. */
+        SENSOR_WAIT,
+        /** UI work in onAuthenticationSucceeded. */
+        SUCCEEDED_CALLBACK,
+        /** Time the success state is held on screen before the result is delivered. */
+        SUCCESS_HOLD,
+        DO_FINAL,
+        /** Purchase click to the post-auth crypto being done. */
+        TIME_TO_UNLOCK;
+        
+        private final String mTraceName = "auth:" + name ().toLowerCase (Locale.US);
+        
+        public String getTraceName () {
+            return mTraceName;
+        }
+    }
+    
+    public interface Tracer {
+        void beginSection (String name);
+        
+        void endSection ();
+    }
+    
+    public interface MetricsSink {
+        /** Called on the recording thread for every sample; keep it cheap. */
+        void onLatency (Stage stage, long nanos);
+    }
+    
+    public static final Tracer NO_TRACER = new Tracer () {
+        @Override
+        public void beginSection (String name) {
+        }
+        
+        @Override
+        public void endSection () {
+        }
+    };
+    
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^36 microseconds is about 19 hours; anything longer lands in the last bucket.
+    static final int MAX_EXPONENT = 36;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    
+    private static final Stage[] STAGES = Stage.values ();
+    
+    private final AtomicLongArray mBuckets = new AtomicLongArray (STAGES.length * BUCKETS);
+    private final AtomicLongArray mCounts = new AtomicLongArray (STAGES.length);
+    private final AtomicLongArray mSums = new AtomicLongArray (STAGES.length);
+    private final AtomicLongArray mMaxima = new AtomicLongArray (STAGES.length);
+    private final Tracer mTracer;
+    private volatile MetricsSink mSink;
+    
+    public LatencyRecorder () {
+        this (NO_TRACER);
+    }
+    
+    public LatencyRecorder (Tracer tracer) {
+        mTracer = tracer;
+    }
+    
+    public void setSink (MetricsSink sink) {
+        mSink = sink;
+    }
+    
+    /**
+     * Starts a synchronous span; pair it with {@link #end} on the same thread.
+     *
+     * @return the start timestamp to pass to {@link #end}
+     */
+    public long begin (Stage stage) {
+        mTracer.beginSection (stage.getTraceName ());
+        return System.nanoTime ();
+    }
+    
+    /**
+     * @return the end timestamp, handy as the start of the next stage
+     */
+    public long end (Stage stage, long startNanos) {
+        long now = System.nanoTime ();
+        mTracer.endSection ();
+        record (stage, now - startNanos);
+        return now;
+    }
+    
+    /** Records a span measured elsewhere, such as one that crosses threads. */
+    public void record (Stage stage, long nanos) {
+        int s = stage.ordinal ();
+        mBuckets.incrementAndGet (s * BUCKETS + bucketOf (nanos));
+        mCounts.incrementAndGet (s);
+        mSums.addAndGet (s, nanos);
+        long max;
+        while (nanos > (max = mMaxima.get (s)) && ! mMaxima.compareAndSet (s, max, nanos)) {
+            // Lost a race with another writer; re-read and retry.
+        }
+        MetricsSink sink = mSink;
+        if (sink != null) {
+            sink.onLatency (stage, nanos);
+        }
+    }
+    
+    public long getCount (Stage stage) {
+        return mCounts.get (stage.ordinal ());
+    }
+    
+    public long getMaxNanos (Stage stage) {
+        return mMaxima.get (stage.ordinal ());
+    }
+    
+    public long getMeanNanos (Stage stage) {
+        long count = getCount (stage);
+        return count == 0 ? 0 : mSums.get (stage.ordinal ()) / count;
+    }
+    
+    /**
+     * @param percentile 0 to 100
+     * @return the upper bound of the bucket holding that percentile, or 0 with no samples
+     */
+    public long getPercentileNanos (Stage stage, double percentile) {
+        int base = stage.ordinal () * BUCKETS;
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += mBuckets.get (base + i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max (1, (long) Math.ceil (percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get (base + i);
+            if (seen >= rank) {
+                return Math.min (TimeUnit.MICROSECONDS.toNanos (upperBoundMicros (i)), getMaxNanos (stage));
+            }
+        }
+        return getMaxNanos (stage);
+    }
+    
+    public void reset () {
+        for (int i = 0; i < mBuckets.length (); i++) {
+            mBuckets.set (i, 0);
+        }
+        for (int s = 0; s < STAGES.length; s++) {
+            mCounts.set (s, 0);
+            mSums.set (s, 0);
+            mMaxima.set (s, 0);
+        }
+    }
+    
+    static int bucketOf (long nanos) {
+        long micros = Math.max (0, nanos / 1000);
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros (micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+    
+    static long upperBoundMicros (int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+    
+    @Override
+    public String toString () {
+        StringBuilder sb = new StringBuilder ("LatencyRecorder{");
+        for (Stage stage : STAGES) {
+            long count = getCount (stage);
+            if (count == 0) {
+                continue;
+            }
+            sb.append ('\n').append (stage).append (": n=").append (count)
+                    .append (" p50=").append (millis (getPercentileNanos (stage, 50)))
+                    .append (" p95=").append (millis (getPercentileNanos (stage, 95)))
+                    .append (" p99=").append (millis (getPercentileNanos (stage, 99)))
+                    .append (" max=").append (millis (getMaxNanos (stage)));
+        }
+        return sb.append ('}').toString ();
+    }
+    
+    private static String millis (long nanos) {
+        return String.format (Locale.US, "%.1fms", nanos / 1e6);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,193 @@
+package com.karman.fingerprintdialog.core;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2 password hashing for the password fallback. A properly costed hash takes 100+ ms,
+ * so {@link #hash} and {@link #verify} belong on a background thread.
+ * <p>
+ * PBKDF2WithHmacSHA1 is used because it is the strongest KDF every supported API level ships;
+ * the iteration count is picked per device by {@link #calibrate(long)}.
+ */
+public class PasswordHasher {
+    
+    public static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    public static final int SALT_LENGTH = 16;
+    public static final int HASH_BITS = 256;
+    public static final int MIN_ITERATIONS = 1000;
+    /** Floor for {@link #calibrate}, whatever the timing says. */
+    public static final int MIN_CALIBRATED_ITERATIONS = 10000;
+    public static final int MAX_ITERATIONS = 10000000;
+    
+    private static final int PROBE_ITERATIONS = 2000;
+    private static final long MIN_PROBE_NANOS = 20000000L;
+    private static final int PROBE_ROUNDS = 3;
+    private static final char[] HEX = "0123456789abcdef".toCharArray ();
+    
+    private final int mIterations;
+    private final SecureRandom mRandom = new SecureRandom ();
+    
+    public PasswordHasher (int iterations) {
+        if (iterations < MIN_ITERATIONS) {
+            throw new IllegalArgumentException ("iterations must be at least " + MIN_ITERATIONS + ": " + iterations);
+        }
+        mIterations = iterations;
+    }
+    
+    public int getIterations () {
+        return mIterations;
+    }
+    
+    public Hash hash (char[] password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        mRandom.nextBytes (salt);
+        return new Hash (mIterations, salt, derive (password, salt, mIterations));
+    }
+    
+    /**
+     * Re-derives with the stored salt and iteration count, so hashes made before a recalibration
+     * still verify.
+     */
+    public static boolean verify (char[] password, Hash stored) {
+        return constantTimeEquals (derive (password, stored.mSalt, stored.mIterations), stored.mHash);
+    }
+    
+    /**
+     * Picks the iteration count that makes one hash take about {@code targetMillis} on this CPU,
+     * by timing a probe and scaling linearly.
+     */
+    public static int calibrate (long targetMillis) {
+        char[] password = "calibration".toCharArray ();
+        byte[] salt = new byte[SALT_LENGTH];
+        // One untimed round pays for provider lookup and class loading.
+        derive (password, salt, MIN_ITERATIONS);
+        // Early probes are slowed down by the JIT warming up, so each step takes the fastest of a few.
+        int iterations = PROBE_ITERATIONS;
+        long elapsed = fastestDerive (password, salt, iterations);
+        while (elapsed < MIN_PROBE_NANOS && iterations < MAX_ITERATIONS / 2) {
+            iterations *= 2;
+            elapsed = fastestDerive (password, salt, iterations);
+        }
+        long scaled = iterations * (targetMillis * 1000000L) / Math.max (elapsed, 1);
+        return (int) Math.max (MIN_CALIBRATED_ITERATIONS, Math.min (MAX_ITERATIONS, scaled));
+    }
+    
+    private static long fastestDerive (char[] password, byte[] salt, int iterations) {
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_ROUNDS; i++) {
+            long start = System.nanoTime ();
+            derive (password, salt, iterations);
+            fastest = Math.min (fastest, System.nanoTime () - start);
+        }
+        return fastest;
+    }
+    
+    static byte[] derive (char[] password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec (password, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance (ALGORITHM).generateSecret (spec).getEncoded ();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException ("Failed to derive password hash", e);
+        } finally {
+            spec.clearPassword ();
+        }
+    }
+    
+    /**
+     * Compares every byte regardless of where the first mismatch is, so timing does not reveal how
+     * much of the hash matched.
+     */
+    static boolean constantTimeEquals (byte[] a, byte[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < a.length; i++) {
+            diff |= a[i] ^ b[i];
+        }
+        return diff == 0;
+    }
+    
+    /**
+     * Stored form of a password: iteration count, salt and derived hash, encoded as
+     * {@code iterations:saltHex:hashHex} for SharedPreferences.
+     */
+    public static final class Hash {
+        private final int mIterations;
+        private final byte[] mSalt;
+        private final byte[] mHash;
+        
+        Hash (int iterations, byte[] salt, byte[] hash) {
+            mIterations = iterations;
+            mSalt = salt;
+            mHash = hash;
+        }
+        
+        public int getIterations () {
+            return mIterations;
+        }
+        
+        public String encode () {
+            return mIterations + ":" + toHex (mSalt) + ":" + toHex (mHash);
+        }
+        
+        /**
+         * @throws IllegalArgumentException if {@code encoded} is not a hash {@link #encode()} could
+         *                                  have produced, e.g. a corrupted record
+         */
+        public static Hash decode (String encoded) {
+            String[] parts = encoded.split (":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException ("Malformed password hash");
+            }
+            int iterations = Integer.parseInt (parts[0]);
+            byte[] salt = fromHex (parts[1]);
+            byte[] hash = fromHex (parts[2]);
+            if (iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS || salt.length == 0
+                    || hash.length != HASH_BITS / 8) {
+                throw new IllegalArgumentException ("Malformed password hash");
+            }
+            return new Hash (iterations, salt, hash);
+        }
+        
+        @Override
+        public boolean equals (Object o) {
+            if (! (o instanceof Hash)) {
+                return false;
+            }
+            Hash other = (Hash) o;
+            return mIterations == other.mIterations && Arrays.equals (mSalt, other.mSalt)
+                    && Arrays.equals (mHash, other.mHash);
+        }
+        
+        @Override
+        public int hashCode () {
+            return 31 * Arrays.hashCode (mSalt) + Arrays.hashCode (mHash);
+        }
+    }
+    
+    private static String toHex (byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String (out);
+    }
+    
+    private static byte[] fromHex (String hex) {
+        if (hex.length () % 2 != 0) {
+            throw new IllegalArgumentException ("Malformed password hash");
+        }
+        byte[] out = new byte[hex.length () / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt (hex.substring (i * 2, i * 2 + 2), 16);
+        }
+        return out;
+    }
+}
\ No newline at end of file
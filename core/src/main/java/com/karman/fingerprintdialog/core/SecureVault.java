@@ -0,0 +1,571 @@
+package com.karman.fingerprintdialog.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An encrypted key-value store in a single append-only, memory-mapped file. Values are sealed with
+ * AES-GCM under a random data key, and the data key sits in the file header wrapped by the
+ * fingerprint-authorized keystore cipher, as in {@link EnvelopeCipher}.
+ * <p>
+ * Records are indexed by a keyed hash of their name, so opening the file builds the index from the
+ * record headers without decrypting anything, and a lookup after {@link #unlock} is one hash probe
+ * and one GCM decrypt of that value. Decrypted values stay in a size-bounded LRU until
+ * {@link #lock()}. Overwritten and removed records are dropped by {@link #compact()}, which copies
+ * the live records verbatim (no key needed) and is queued on the compaction executor once more of
+ * the file is garbage than live data.
+ * <p>
+ * Layout: {@code magic(4) version(1) wrappedKey}, then records
+ * {@code length(4) crc32(4) type(1) nameTag(16) [nonce(12) ciphertext+tag]}, the CRC covering
+ * everything after it. A zero length ends the log, and so does the first record that runs past the
+ * end of the file or fails its CRC (a torn write).
+ */
+public class SecureVault implements Closeable {
+    
+    public static final int DEFAULT_CACHE_BYTES = 64 * 1024;
+    public static final int COMPACT_MIN_GARBAGE_BYTES = 16 * 1024;
+    
+    private static final int MAGIC = 0x46505654;
+    private static final byte VERSION = 1;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final int NAME_TAG_LENGTH = 16;
+    // The fields after length(4) that every record has: crc32(4) type(1) nameTag(16).
+    private static final int MIN_RECORD_LENGTH = 4 + 1 + NAME_TAG_LENGTH;
+    private static final int MIN_PUT_LENGTH = MIN_RECORD_LENGTH + EnvelopeCipher.NONCE_LENGTH
+            + EnvelopeCipher.TAG_LENGTH_BITS / 8;
+    private static final int MIN_CAPACITY = 4096;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] INDEX_KEY_LABEL = "vault-index".getBytes (Charset.forName ("US-ASCII"));
+    private static final Charset UTF_8 = Charset.forName ("UTF-8");
+    
+    private final File mFile;
+    private final Executor mCompactionExecutor;
+    private final int mMaxCacheBytes;
+    private final EnvelopeCipher mEnvelope = new EnvelopeCipher ();
+    private final SecureRandom mRandom = new SecureRandom ();
+    private final Object mCompactionLock = new Object ();
+    
+    private RandomAccessFile mRaf;
+    private MappedByteBuffer mMap;
+    private EnvelopeCipher.WrappedKey mWrappedKey;
+    private int mDataStart;
+    private int mEnd;
+    private final Map<ByteBuffer, Integer> mIndex = new HashMap<> ();
+    private int mLiveBytes;
+    private int mGarbageBytes;
+    private boolean mCompactionQueued;
+    private boolean mClosed;
+    // Why the vault closed itself, if it did; see compactLocked.
+    private IOException mFailure;
+    
+    // Only set while unlocked.
+    private SecretKey mDataKey;
+    private Mac mIndexMac;
+    private Cipher mCipher;
+    
+    private final LinkedHashMap<String, byte[]> mCache = new LinkedHashMap<> (16, 0.75f, true);
+    private int mCacheBytes;
+    private int mCacheHits;
+    private int mCacheMisses;
+    
+    private SecureVault (File file, Executor compactionExecutor, int maxCacheBytes) {
+        mFile = file;
+        mCompactionExecutor = compactionExecutor;
+        mMaxCacheBytes = maxCacheBytes;
+    }
+    
+    /**
+     * Creates a new vault under a fresh data key and returns it unlocked.
+     *
+     * @param authorized keystore cipher in {@link Cipher#ENCRYPT_MODE}, as handed back by the
+     *                   fingerprint callback; it wraps the data key
+     */
+    public static SecureVault create (File file, Cipher authorized, Executor compactionExecutor)
+            throws IOException, GeneralSecurityException {
+        if (file.exists ()) {
+            throw new IOException ("Vault already exists: " + file);
+        }
+        EnvelopeCipher envelope = new EnvelopeCipher ();
+        SecretKey dataKey = envelope.newDataKey ();
+        EnvelopeCipher.WrappedKey wrappedKey = envelope.wrapKey (authorized, dataKey);
+        ByteBuffer header = ByteBuffer.allocate (4 + 1 + wrappedKey.serializedSize ());
+        header.putInt (MAGIC).put (VERSION);
+        wrappedKey.write (header);
+        header.flip ();
+        RandomAccessFile raf = new RandomAccessFile (file, "rw");
+        try {
+            write (raf.getChannel (), 0, header);
+            raf.getChannel ().force (true);
+        } finally {
+            raf.close ();
+        }
+        SecureVault vault = open (file, compactionExecutor);
+        synchronized (vault) {
+            vault.setDataKey (dataKey);
+        }
+        return vault;
+    }
+    
+    /**
+     * Opens an existing vault, locked. Only the record headers are read.
+     */
+    public static SecureVault open (File file, Executor compactionExecutor) throws IOException {
+        return open (file, compactionExecutor, DEFAULT_CACHE_BYTES);
+    }
+    
+    public static SecureVault open (File file, Executor compactionExecutor, int maxCacheBytes) throws IOException {
+        SecureVault vault = new SecureVault (file, compactionExecutor, maxCacheBytes);
+        synchronized (vault) {
+            vault.load ();
+        }
+        return vault;
+    }
+    
+    /**
+     * The wrapped data key; its IV is what the keystore cipher for {@link #unlock} is initialised
+     * with.
+     */
+    public synchronized EnvelopeCipher.WrappedKey getWrappedKey () {
+        return mWrappedKey;
+    }
+    
+    /**
+     * @param authorized keystore cipher in {@link Cipher#DECRYPT_MODE}, initialised with the IV of
+     *                   {@link #getWrappedKey()}
+     */
+    public synchronized void unlock (Cipher authorized) throws GeneralSecurityException {
+        checkOpen ();
+        setDataKey (mEnvelope.unwrapKey (authorized, mWrappedKey));
+    }
+    
+    /**
+     * Forgets the data key and wipes the decrypted values, e.g. when the auth session ends.
+     */
+    public synchronized void lock () {
+        for (byte[] value : mCache.values ()) {
+            Arrays.fill (value, (byte) 0);
+        }
+        mCache.clear ();
+        mCacheBytes = 0;
+        mDataKey = null;
+        mIndexMac = null;
+        mCipher = null;
+    }
+    
+    public synchronized boolean isUnlocked () {
+        return mDataKey != null;
+    }
+    
+    /**
+     * Returns a copy of the value stored under {@code name}, or null if there is none.
+     */
+    public synchronized byte[] get (String name) throws GeneralSecurityException {
+        checkUnlocked ();
+        byte[] value = mCache.get (name);
+        if (value != null) {
+            mCacheHits++;
+            return value.clone ();
+        }
+        mCacheMisses++;
+        byte[] tag = nameTag (name);
+        Integer offset = mIndex.get (ByteBuffer.wrap (tag));
+        if (offset == null) {
+            return null;
+        }
+        value = openRecord (offset, tag);
+        cache (name, value);
+        return value.clone ();
+    }
+    
+    public synchronized void put (String name, byte[] value) throws IOException, GeneralSecurityException {
+        checkUnlocked ();
+        byte[] tag = nameTag (name);
+        byte[] nonce = new byte[EnvelopeCipher.NONCE_LENGTH];
+        mRandom.nextBytes (nonce);
+        mCipher.init (Cipher.ENCRYPT_MODE, mDataKey, new GCMParameterSpec (EnvelopeCipher.TAG_LENGTH_BITS, nonce));
+        mCipher.updateAAD (tag);
+        byte[] sealed = mCipher.doFinal (value);
+        
+        int offset = append (TYPE_PUT, tag, nonce, sealed);
+        Integer previous = mIndex.put (ByteBuffer.wrap (tag), offset);
+        if (previous != null) {
+            drop (previous);
+        }
+        mLiveBytes += recordSize (offset);
+        cache (name, value.clone ());
+        maybeCompact ();
+    }
+    
+    /**
+     * @return false if there was no value under {@code name}
+     */
+    public synchronized boolean remove (String name) throws IOException, GeneralSecurityException {
+        checkUnlocked ();
+        uncache (name);
+        byte[] tag = nameTag (name);
+        ByteBuffer key = ByteBuffer.wrap (tag);
+        Integer previous = mIndex.get (key);
+        if (previous == null) {
+            return false;
+        }
+        int offset = append (TYPE_REMOVE, tag, null, null);
+        mIndex.remove (key);
+        drop (previous);
+        mGarbageBytes += recordSize (offset);
+        maybeCompact ();
+        return true;
+    }
+    
+    /** The number of live values. */
+    public synchronized int size () {
+        return mIndex.size ();
+    }
+    
+    /** Bytes of the log in use, header included. */
+    public synchronized int getFileBytes () {
+        return mEnd;
+    }
+    
+    public synchronized int getLiveBytes () {
+        return mLiveBytes;
+    }
+    
+    public synchronized int getGarbageBytes () {
+        return mGarbageBytes;
+    }
+    
+    public synchronized int getCacheHits () {
+        return mCacheHits;
+    }
+    
+    public synchronized int getCacheMisses () {
+        return mCacheMisses;
+    }
+    
+    /**
+     * Rewrites the file with only the live records. Reads and writes carry on while the live
+     * records are copied; records appended meanwhile are carried over before the new file replaces
+     * the old one.
+     */
+    public void compact () throws IOException {
+        synchronized (mCompactionLock) {
+            try {
+                compactLocked ();
+            } finally {
+                synchronized (this) {
+                    mCompactionQueued = false;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public synchronized void close () throws IOException {
+        if (mClosed) {
+            return;
+        }
+        lock ();
+        mClosed = true;
+        mRaf.close ();
+    }
+    
+    private void compactLocked () throws IOException {
+        ByteBuffer source;
+        int dataStart;
+        int snapshotEnd;
+        List<Integer> offsets;
+        synchronized (this) {
+            if (mClosed || mGarbageBytes == 0) {
+                return;
+            }
+            source = mMap.duplicate ();
+            dataStart = mDataStart;
+            snapshotEnd = mEnd;
+            offsets = new ArrayList<> (mIndex.values ());
+        }
+        Collections.sort (offsets);
+        
+        File compacted = new File (mFile.getPath () + ".compact");
+        RandomAccessFile out = new RandomAccessFile (compacted, "rw");
+        boolean replaced = false;
+        try {
+            FileChannel channel = out.getChannel ();
+            channel.truncate (0);
+            long position = write (channel, 0, slice (source, 0, dataStart));
+            for (int offset : offsets) {
+                position += write (channel, position, slice (source, offset, 4 + source.getInt (offset)));
+            }
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
+                // Records appended while the copy ran; load() replays them like any other record.
+                write (channel, position, slice (mMap.duplicate (), snapshotEnd, mEnd - snapshotEnd));
+                channel.force (true);
+                out.close ();
+                if (! compacted.renameTo (mFile)) {
+                    throw new IOException ("Failed to replace " + mFile);
+                }
+                replaced = true;
+                mRaf.close ();
+                try {
+                    load ();
+                } catch (IOException e) {
+                    // mMap still maps the unlinked old file; writes there would be lost. The data
+                    // is safe in the compacted file, so fail every later call until it is reopened.
+                    lock ();
+                    mClosed = true;
+                    mFailure = e;
+                    throw e;
+                }
+            }
+        } finally {
+            if (! replaced) {
+                out.close ();
+                compacted.delete ();
+            }
+        }
+    }
+    
+    private void maybeCompact () {
+        if (mCompactionQueued || mGarbageBytes < COMPACT_MIN_GARBAGE_BYTES || mGarbageBytes <= mLiveBytes) {
+            return;
+        }
+        mCompactionQueued = true;
+        mCompactionExecutor.execute (new Runnable () {
+            @Override
+            public void run () {
+                try {
+                    compact ();
+                } catch (IOException e) {
+                    // The garbage is still counted, so the next write queues another attempt.
+                }
+            }
+        });
+    }
+    
+    private void load () throws IOException {
+        mRaf = new RandomAccessFile (mFile, "rw");
+        try {
+            long length = mRaf.length ();
+            if (length > Integer.MAX_VALUE / 2) {
+                throw new IOException ("Vault too large: " + mFile);
+            }
+            map (Math.max ((int) length, MIN_CAPACITY));
+            ByteBuffer in = mMap.duplicate ();
+            try {
+                if (in.getInt () != MAGIC || in.get () != VERSION) {
+                    throw new IOException ("Not a vault: " + mFile);
+                }
+                mWrappedKey = EnvelopeCipher.WrappedKey.read (in);
+            } catch (BufferUnderflowException | GeneralSecurityException e) {
+                throw new IOException ("Corrupt vault header: " + mFile, e);
+            }
+            mDataStart = in.position ();
+            scan ();
+        } catch (IOException e) {
+            mRaf.close ();
+            throw e;
+        }
+    }
+    
+    private void scan () {
+        mIndex.clear ();
+        mLiveBytes = 0;
+        mGarbageBytes = 0;
+        int capacity = mMap.capacity ();
+        int position = mDataStart;
+        CRC32 crc = new CRC32 ();
+        byte[] scratch = new byte[256];
+        while (position <= capacity - 4 - MIN_RECORD_LENGTH) {
+            int length = mMap.getInt (position);
+            byte type = mMap.get (position + 8);
+            if (length < MIN_RECORD_LENGTH || length > capacity - position - 4
+                    || (type != TYPE_PUT && type != TYPE_REMOVE)
+                    || (type == TYPE_PUT && length < MIN_PUT_LENGTH)) {
+                break;
+            }
+            if (scratch.length < length - 4) {
+                scratch = new byte[Math.max (length - 4, scratch.length * 2)];
+            }
+            slice (mMap, position + 8, length - 4).get (scratch, 0, length - 4);
+            crc.reset ();
+            crc.update (scratch, 0, length - 4);
+            if ((int) crc.getValue () != mMap.getInt (position + 4)) {
+                break;
+            }
+            byte[] tag = Arrays.copyOfRange (scratch, 1, 1 + NAME_TAG_LENGTH);
+            ByteBuffer key = ByteBuffer.wrap (tag);
+            Integer previous = type == TYPE_PUT ? mIndex.put (key, position) : mIndex.remove (key);
+            if (previous != null) {
+                drop (previous);
+            }
+            if (type == TYPE_PUT) {
+                mLiveBytes += 4 + length;
+            } else {
+                mGarbageBytes += 4 + length;
+            }
+            position += 4 + length;
+        }
+        mEnd = position;
+    }
+    
+    private int append (byte type, byte[] tag, byte[] nonce, byte[] sealed) throws IOException {
+        int length = MIN_RECORD_LENGTH + (nonce == null ? 0 : nonce.length + sealed.length);
+        int offset = mEnd;
+        int end = offset + 4 + length;
+        ensureCapacity (end + 4);
+        CRC32 crc = new CRC32 ();
+        crc.update (type);
+        crc.update (tag);
+        if (nonce != null) {
+            crc.update (nonce);
+            crc.update (sealed);
+        }
+        // Terminator and body before the length, so a torn write never looks like a whole record.
+        mMap.putInt (end, 0);
+        ByteBuffer out = slice (mMap, offset + 4, length);
+        out.putInt ((int) crc.getValue ()).put (type).put (tag);
+        if (nonce != null) {
+            out.put (nonce).put (sealed);
+        }
+        mMap.putInt (offset, length);
+        mMap.force ();
+        mEnd = end;
+        return offset;
+    }
+    
+    private void ensureCapacity (int required) throws IOException {
+        int capacity = mMap.capacity ();
+        if (required <= capacity) {
+            return;
+        }
+        map (Math.max (required, capacity * 2));
+    }
+    
+    private void map (int capacity) throws IOException {
+        mMap = mRaf.getChannel ().map (FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+    
+    private byte[] openRecord (int offset, byte[] tag) throws GeneralSecurityException {
+        int length = mMap.getInt (offset);
+        byte[] nonce = new byte[EnvelopeCipher.NONCE_LENGTH];
+        ByteBuffer in = slice (mMap, offset + 4 + MIN_RECORD_LENGTH, length - MIN_RECORD_LENGTH);
+        in.get (nonce);
+        mCipher.init (Cipher.DECRYPT_MODE, mDataKey, new GCMParameterSpec (EnvelopeCipher.TAG_LENGTH_BITS, nonce));
+        mCipher.updateAAD (tag);
+        ByteBuffer out = ByteBuffer.allocate (mCipher.getOutputSize (in.remaining ()));
+        mCipher.doFinal (in, out);
+        return out.position () == out.capacity () ? out.array () : Arrays.copyOf (out.array (), out.position ());
+    }
+    
+    private void setDataKey (SecretKey dataKey) throws GeneralSecurityException {
+        Mac derive = Mac.getInstance (MAC_ALGORITHM);
+        derive.init (new SecretKeySpec (dataKey.getEncoded (), MAC_ALGORITHM));
+        byte[] indexKey = derive.doFinal (INDEX_KEY_LABEL);
+        Mac indexMac = Mac.getInstance (MAC_ALGORITHM);
+        try {
+            indexMac.init (new SecretKeySpec (indexKey, MAC_ALGORITHM));
+        } finally {
+            Arrays.fill (indexKey, (byte) 0);
+        }
+        mCipher = Cipher.getInstance (EnvelopeCipher.BULK_TRANSFORMATION);
+        mIndexMac = indexMac;
+        mDataKey = dataKey;
+    }
+    
+    private byte[] nameTag (String name) {
+        return Arrays.copyOf (mIndexMac.doFinal (name.getBytes (UTF_8)), NAME_TAG_LENGTH);
+    }
+    
+    private void cache (String name, byte[] value) {
+        uncache (name);
+        if (value.length > mMaxCacheBytes) {
+            return;
+        }
+        mCache.put (name, value);
+        mCacheBytes += value.length;
+        Iterator<byte[]> eldest = mCache.values ().iterator ();
+        while (mCacheBytes > mMaxCacheBytes) {
+            byte[] evicted = eldest.next ();
+            eldest.remove ();
+            mCacheBytes -= evicted.length;
+            Arrays.fill (evicted, (byte) 0);
+        }
+    }
+    
+    private void uncache (String name) {
+        byte[] value = mCache.remove (name);
+        if (value != null) {
+            mCacheBytes -= value.length;
+            Arrays.fill (value, (byte) 0);
+        }
+    }
+    
+    private void drop (int offset) {
+        int size = recordSize (offset);
+        mLiveBytes -= size;
+        mGarbageBytes += size;
+    }
+    
+    private int recordSize (int offset) {
+        return 4 + mMap.getInt (offset);
+    }
+    
+    private void checkOpen () {
+        if (mFailure != null) {
+            throw new IllegalStateException ("Vault failed to reload after compaction; reopen it", mFailure);
+        }
+        if (mClosed) {
+            throw new IllegalStateException ("Vault is closed");
+        }
+    }
+    
+    private void checkUnlocked () {
+        checkOpen ();
+        if (mDataKey == null) {
+            throw new IllegalStateException ("Vault is locked");
+        }
+    }
+    
+    private static ByteBuffer slice (ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate ();
+        slice.limit (offset + length);
+        slice.position (offset);
+        return slice;
+    }
+    
+    private static int write (FileChannel channel, long position, ByteBuffer source) throws IOException {
+        int length = source.remaining ();
+        while (source.hasRemaining ()) {
+            position += channel.write (source, position);
+        }
+        return length;
+    }
+}
\ No newline at end of file
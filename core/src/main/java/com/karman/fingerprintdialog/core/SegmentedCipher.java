@@ -0,0 +1,348 @@
+package com.karman.fingerprintdialog.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts large payloads on every core. The payload is cut into fixed-size segments that are
+ * sealed independently with AES-GCM under a per-file data key, so segments can be encrypted and
+ * decrypted in parallel on a {@link ForkJoinPool} and each one written or read with a positional
+ * {@link FileChannel} call. The fingerprint-authorized keystore cipher only wraps the data key, as
+ * in {@link EnvelopeCipher}.
+ * <p>
+ * Each segment's nonce is a random per-file prefix followed by the segment index, and its AAD binds
+ * the index, the segment size and the total length, so segments cannot be reordered, swapped
+ * between files or dropped from the end. Any single segment can be decrypted on its own with
+ * {@link #decryptSegment}.
+ * <p>
+ * Layout: {@code magic(4) version(1) segmentSize(4) plaintextLength(8) noncePrefix(8) wrappedKey},
+ * then the segments back to back, each {@code ciphertext+tag}; only the last may be short.
+ */
+public class SegmentedCipher {
+    
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    // Every leaf task allocates a buffer this large, so a header may not ask for more.
+    public static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    static final int TAG_LENGTH = EnvelopeCipher.TAG_LENGTH_BITS / 8;
+    
+    private static final int MAGIC = 0x46505347;
+    private static final byte VERSION = 1;
+    private static final int NONCE_PREFIX_LENGTH = EnvelopeCipher.NONCE_LENGTH - 4;
+    private static final int FIXED_HEADER_LENGTH = 4 + 1 + 4 + 8 + NONCE_PREFIX_LENGTH;
+    // Segments per leaf task: enough work to amortise the leaf's Cipher and buffer setup while
+    // still leaving every worker something to steal.
+    private static final int SEGMENTS_PER_TASK = 4;
+    
+    private final ForkJoinPool mPool;
+    private final int mSegmentSize;
+    private final EnvelopeCipher mEnvelope = new EnvelopeCipher ();
+    private final SecureRandom mRandom = new SecureRandom ();
+    
+    public SegmentedCipher (ForkJoinPool pool) {
+        this (pool, DEFAULT_SEGMENT_SIZE);
+    }
+    
+    public SegmentedCipher (ForkJoinPool pool, int segmentSize) {
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException ("segmentSize must be in 1.." + MAX_SEGMENT_SIZE);
+        }
+        mPool = pool;
+        mSegmentSize = segmentSize;
+    }
+    
+    /**
+     * Encrypts {@code plaintext} (its remaining bytes; the position is left alone) under a fresh
+     * data key and writes the result to {@code out} from offset 0.
+     *
+     * @param authorized keystore cipher in {@link Cipher#ENCRYPT_MODE}, as handed back by the
+     *                   fingerprint callback; it wraps the data key
+     */
+    public Header encrypt (Cipher authorized, ByteBuffer plaintext, FileChannel out)
+            throws IOException, GeneralSecurityException {
+        SecretKey dataKey = mEnvelope.newDataKey ();
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        mRandom.nextBytes (noncePrefix);
+        Header header = new Header (mSegmentSize, plaintext.remaining (), noncePrefix,
+                mEnvelope.wrapKey (authorized, dataKey));
+        ByteBuffer headerBytes = ByteBuffer.allocate (header.mLength);
+        header.write (headerBytes);
+        headerBytes.flip ();
+        writeFully (out, headerBytes, 0);
+        run (new Job (true, dataKey, header, out, plaintext.duplicate ()));
+        return header;
+    }
+    
+    /**
+     * Reads and checks the header, so a corrupt one fails here rather than in the parallel run: the
+     * segment size must be one this class writes, and the file must be long enough for every
+     * segment the plaintext length implies.
+     */
+    public static Header readHeader (FileChannel in) throws IOException, GeneralSecurityException {
+        ByteBuffer fixed = ByteBuffer.allocate (FIXED_HEADER_LENGTH + 1);
+        readFully (in, fixed, 0);
+        if (fixed.getInt () != MAGIC || fixed.get () != VERSION) {
+            throw new GeneralSecurityException ("Not a segmented file");
+        }
+        int segmentSize = fixed.getInt ();
+        long plaintextLength = fixed.getLong ();
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        fixed.get (noncePrefix);
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE || plaintextLength < 0
+                || plaintextLength > (long) Integer.MAX_VALUE * segmentSize) {
+            throw new GeneralSecurityException ("Malformed segmented file header");
+        }
+        int ivLength = fixed.get () & 0xff;
+        ByteBuffer rest = ByteBuffer.allocate (ivLength + 2);
+        readFully (in, rest, FIXED_HEADER_LENGTH + 1);
+        int wrappedLength = rest.getShort (ivLength) & 0xffff;
+        ByteBuffer key = ByteBuffer.allocate (1 + ivLength + 2 + wrappedLength);
+        readFully (in, key, FIXED_HEADER_LENGTH);
+        Header header = new Header (segmentSize, plaintextLength, noncePrefix, EnvelopeCipher.WrappedKey.read (key));
+        if (in.size () < header.getFileLength ()) {
+            throw new EOFException ("Segmented file is truncated");
+        }
+        return header;
+    }
+    
+    /**
+     * @param authorized keystore cipher in {@link Cipher#DECRYPT_MODE}, initialised with the IV of
+     *                   {@link Header#getWrappedKey()}
+     */
+    public SecretKey unwrapKey (Cipher authorized, Header header) throws GeneralSecurityException {
+        return mEnvelope.unwrapKey (authorized, header.mWrappedKey);
+    }
+    
+    /**
+     * Decrypts every segment in parallel into {@code out}, starting at its position, which is left
+     * alone. {@code out} needs {@link Header#getPlaintextLength()} bytes remaining.
+     */
+    public void decrypt (SecretKey dataKey, Header header, FileChannel in, ByteBuffer out)
+            throws IOException, GeneralSecurityException {
+        if (out.remaining () < header.mPlaintextLength) {
+            throw new IllegalArgumentException ("Output needs " + header.mPlaintextLength + " bytes");
+        }
+        run (new Job (false, dataKey, header, in, out.duplicate ()));
+    }
+    
+    /**
+     * Reads and decrypts one segment on the calling thread, for random access without touching the
+     * rest of the file.
+     */
+    public ByteBuffer decryptSegment (SecretKey dataKey, Header header, FileChannel in, int index)
+            throws IOException, GeneralSecurityException {
+        if (index < 0 || index >= header.getSegmentCount ()) {
+            throw new IndexOutOfBoundsException ("Segment " + index + " of " + header.getSegmentCount ());
+        }
+        ByteBuffer out = ByteBuffer.allocate (header.segmentLength (index));
+        Job job = new Job (false, dataKey, header, in, out);
+        job.decryptInto (index, Cipher.getInstance (EnvelopeCipher.BULK_TRANSFORMATION),
+                ByteBuffer.allocate (header.mSegmentSize + TAG_LENGTH), out.duplicate ());
+        return out;
+    }
+    
+    private void run (Job job) throws IOException, GeneralSecurityException {
+        mPool.invoke (new SegmentTask (job, 0, job.mHeader.getSegmentCount ()));
+        Exception failure = job.mFailure.get ();
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw (GeneralSecurityException) failure;
+        }
+    }
+    
+    static void writeFully (FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining ()) {
+            position += channel.write (buffer, position);
+        }
+    }
+    
+    /**
+     * Fills {@code buffer} from {@code position} on, then flips it for reading.
+     */
+    static void readFully (FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining ()) {
+            int n = channel.read (buffer, position);
+            if (n < 0) {
+                throw new EOFException ("Segmented file is truncated");
+            }
+            position += n;
+        }
+        buffer.flip ();
+    }
+    
+    /**
+     * The file's parameters and its wrapped data key.
+     */
+    public static final class Header {
+        final int mSegmentSize;
+        final long mPlaintextLength;
+        final byte[] mNoncePrefix;
+        final EnvelopeCipher.WrappedKey mWrappedKey;
+        final int mLength;
+        
+        Header (int segmentSize, long plaintextLength, byte[] noncePrefix, EnvelopeCipher.WrappedKey wrappedKey) {
+            mSegmentSize = segmentSize;
+            mPlaintextLength = plaintextLength;
+            mNoncePrefix = noncePrefix;
+            mWrappedKey = wrappedKey;
+            mLength = FIXED_HEADER_LENGTH + wrappedKey.serializedSize ();
+        }
+        
+        public EnvelopeCipher.WrappedKey getWrappedKey () {
+            return mWrappedKey;
+        }
+        
+        public long getPlaintextLength () {
+            return mPlaintextLength;
+        }
+        
+        public int getSegmentSize () {
+            return mSegmentSize;
+        }
+        
+        /** At least one: an empty payload is still one (empty, authenticated) segment. */
+        public int getSegmentCount () {
+            return (int) Math.max (1, (mPlaintextLength + mSegmentSize - 1) / mSegmentSize);
+        }
+        
+        /** The size of the whole file. */
+        public long getFileLength () {
+            return segmentOffset (0) + mPlaintextLength + (long) getSegmentCount () * TAG_LENGTH;
+        }
+        
+        int segmentLength (int index) {
+            return (int) Math.min (mSegmentSize, mPlaintextLength - (long) index * mSegmentSize);
+        }
+        
+        long segmentOffset (int index) {
+            return mLength + (long) index * (mSegmentSize + TAG_LENGTH);
+        }
+        
+        void write (ByteBuffer out) {
+            out.putInt (MAGIC).put (VERSION).putInt (mSegmentSize).putLong (mPlaintextLength).put (mNoncePrefix);
+            mWrappedKey.write (out);
+        }
+    }
+    
+    /**
+     * One encrypt or decrypt run, shared by all of its tasks. The first failure is kept and the
+     * remaining tasks skip their work.
+     */
+    private static final class Job {
+        final boolean mEncrypt;
+        final SecretKey mDataKey;
+        final Header mHeader;
+        final FileChannel mChannel;
+        // The plaintext to encrypt, or where decrypted plaintext goes; segment 0 starts at its
+        // position.
+        final ByteBuffer mPlaintext;
+        final int mBase;
+        final AtomicReference<Exception> mFailure = new AtomicReference<> ();
+        
+        Job (boolean encrypt, SecretKey dataKey, Header header, FileChannel channel, ByteBuffer plaintext) {
+            mEncrypt = encrypt;
+            mDataKey = dataKey;
+            mHeader = header;
+            mChannel = channel;
+            mPlaintext = plaintext;
+            mBase = plaintext.position ();
+        }
+        
+        void run (int from, int to) {
+            try {
+                Cipher cipher = Cipher.getInstance (EnvelopeCipher.BULK_TRANSFORMATION);
+                ByteBuffer sealed = ByteBuffer.allocate (mHeader.mSegmentSize + TAG_LENGTH);
+                ByteBuffer plaintext = mPlaintext.duplicate ();
+                for (int i = from; i < to && mFailure.get () == null; i++) {
+                    select (plaintext, i);
+                    if (mEncrypt) {
+                        encrypt (i, cipher, sealed, plaintext);
+                    } else {
+                        decryptInto (i, cipher, sealed, plaintext);
+                    }
+                }
+            } catch (IOException | GeneralSecurityException e) {
+                mFailure.compareAndSet (null, e);
+            }
+        }
+        
+        /**
+         * @param plaintext positioned and limited to segment {@code index}
+         */
+        void encrypt (int index, Cipher cipher, ByteBuffer sealed, ByteBuffer plaintext)
+                throws IOException, GeneralSecurityException {
+            init (cipher, Cipher.ENCRYPT_MODE, index);
+            sealed.clear ();
+            cipher.doFinal (plaintext, sealed);
+            sealed.flip ();
+            writeFully (mChannel, sealed, mHeader.segmentOffset (index));
+        }
+        
+        /**
+         * @param plaintext where segment {@code index} goes, with exactly its length remaining
+         */
+        void decryptInto (int index, Cipher cipher, ByteBuffer sealed, ByteBuffer plaintext)
+                throws IOException, GeneralSecurityException {
+            sealed.clear ();
+            sealed.limit (mHeader.segmentLength (index) + TAG_LENGTH);
+            readFully (mChannel, sealed, mHeader.segmentOffset (index));
+            init (cipher, Cipher.DECRYPT_MODE, index);
+            cipher.doFinal (sealed, plaintext);
+        }
+        
+        private void select (ByteBuffer plaintext, int index) {
+            int start = mBase + index * mHeader.mSegmentSize;
+            plaintext.limit (plaintext.capacity ());
+            plaintext.position (start);
+            plaintext.limit (start + mHeader.segmentLength (index));
+        }
+        
+        private void init (Cipher cipher, int opmode, int index) throws GeneralSecurityException {
+            byte[] nonce = new byte[EnvelopeCipher.NONCE_LENGTH];
+            System.arraycopy (mHeader.mNoncePrefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+            ByteBuffer.wrap (nonce, NONCE_PREFIX_LENGTH, 4).putInt (index);
+            cipher.init (opmode, mDataKey, new GCMParameterSpec (EnvelopeCipher.TAG_LENGTH_BITS, nonce));
+            ByteBuffer aad = ByteBuffer.allocate (16);
+            aad.putInt (index).putInt (mHeader.mSegmentSize).putLong (mHeader.mPlaintextLength);
+            cipher.updateAAD (aad.array ());
+        }
+    }
+    
+    private static final class SegmentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final Job mJob;
+        private final int mFrom;
+        private final int mTo;
+        
+        SegmentTask (Job job, int from, int to) {
+            mJob = job;
+            mFrom = from;
+            mTo = to;
+        }
+        
+        @Override
+        protected void compute () {
+            if (mJob.mFailure.get () != null) {
+                return;
+            }
+            if (mTo - mFrom <= SEGMENTS_PER_TASK) {
+                mJob.run (mFrom, mTo);
+                return;
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll (new SegmentTask (mJob, mFrom, middle), new SegmentTask (mJob, middle, mTo));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,192 @@
+package com.karman.fingerprintdialog.core;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * One {@link Authenticator} session that outlives the UI it reports to. When the host is torn down
+ * for a configuration change it {@link #park()}s the session instead of cancelling it: the sensor
+ * stays armed, callbacks that arrive meanwhile are queued, and the next {@link #listen} with the
+ * same crypto object rebinds the new UI and replays them rather than starting a new session. While
+ * a UI is bound, events are passed straight through without allocating. A session can also be
+ * {@link #arm}ed before its first UI exists. Not thread-safe; use it from the thread the
+ * authenticator reports on.
+ */
+public class SensorSession<C> implements Authenticator.Callback<C> {
+    
+    /** Receives a match that arrived before any UI was bound. */
+    public interface EarlyMatchListener<C> {
+        void onEarlyMatch (C crypto);
+    }
+    
+    private final Authenticator<C> mAuthenticator;
+    private final Queue<Event<C>> mParkedEvents = new ArrayDeque<> ();
+    private Authenticator.Callback<C> mCallback;
+    private EarlyMatchListener<C> mEarlyMatchListener;
+    private C mCrypto;
+    private boolean mListening;
+    private int mStartCount;
+    
+    public SensorSession (Authenticator<C> authenticator) {
+        mAuthenticator = authenticator;
+    }
+    
+    /**
+     * Makes {@code callback} the receiver of sensor events, starting a session for {@code crypto}
+     * unless one is already running for it.
+     *
+     * @return true if a new session was started, false if a running one was rebound
+     */
+    public boolean listen (C crypto, Authenticator.Callback<C> callback) {
+        mCallback = callback;
+        mEarlyMatchListener = null;
+        if (crypto == mCrypto && (mListening || ! mParkedEvents.isEmpty ())) {
+            replayParkedEvents ();
+            return false;
+        }
+        start (crypto);
+        return true;
+    }
+    
+    /**
+     * Starts the sensor for {@code crypto} before there is a UI to bind, e.g. from the tap that
+     * opens the prompt. Events are held for the first {@link #listen} as if parked, except a match,
+     * which goes to {@code listener} straight away so the host can skip its UI. Binding a UI or
+     * cancelling disarms {@code listener}. Does nothing while a UI is bound.
+     *
+     * @return true if a new session was started
+     */
+    public boolean arm (C crypto, EarlyMatchListener<C> listener) {
+        if (mCallback != null) {
+            return false;
+        }
+        mEarlyMatchListener = listener;
+        if (crypto == mCrypto && mListening) {
+            return false;
+        }
+        start (crypto);
+        return true;
+    }
+    
+    private void start (C crypto) {
+        mParkedEvents.clear ();
+        mCrypto = crypto;
+        mListening = true;
+        mStartCount++;
+        mAuthenticator.authenticate (crypto, this);
+    }
+    
+    /**
+     * Detaches the UI but keeps the sensor armed; events are held until the next {@link #listen}.
+     */
+    public void park () {
+        mCallback = null;
+    }
+    
+    public void cancel () {
+        mCallback = null;
+        mEarlyMatchListener = null;
+        mParkedEvents.clear ();
+        mCrypto = null;
+        if (mListening) {
+            mListening = false;
+            mAuthenticator.cancel ();
+        }
+    }
+    
+    public boolean isListening () {
+        return mListening;
+    }
+    
+    /** Sensor sessions started so far; a rebind does not count. */
+    public int getStartCount () {
+        return mStartCount;
+    }
+    
+    @Override
+    public void onAuthenticationSucceeded (C crypto) {
+        mListening = false;
+        if (mCallback != null) {
+            mCallback.onAuthenticationSucceeded (crypto);
+        } else if (mEarlyMatchListener != null) {
+            EarlyMatchListener<C> listener = mEarlyMatchListener;
+            mEarlyMatchListener = null;
+            // The match settles it; the UI has nothing left to replay.
+            mParkedEvents.clear ();
+            listener.onEarlyMatch (crypto);
+        } else {
+            mParkedEvents.add (new Event<> (Event.SUCCEEDED, 0, null, crypto));
+        }
+    }
+    
+    @Override
+    public void onAuthenticationFailed () {
+        if (mCallback != null) {
+            mCallback.onAuthenticationFailed ();
+        } else {
+            mParkedEvents.add (new Event<C> (Event.FAILED, 0, null, null));
+        }
+    }
+    
+    @Override
+    public void onAuthenticationHelp (int helpCode, CharSequence helpString) {
+        if (mCallback != null) {
+            mCallback.onAuthenticationHelp (helpCode, helpString);
+        } else {
+            mParkedEvents.add (new Event<C> (Event.HELP, helpCode, helpString, null));
+        }
+    }
+    
+    @Override
+    public void onAuthenticationError (int errorCode, CharSequence errString) {
+        mListening = false;
+        if (mCallback != null) {
+            mCallback.onAuthenticationError (errorCode, errString);
+        } else {
+            mParkedEvents.add (new Event<C> (Event.ERROR, errorCode, errString, null));
+        }
+    }
+    
+    private void replayParkedEvents () {
+        Event<C> event;
+        while (mCallback != null && (event = mParkedEvents.poll ()) != null) {
+            event.deliver (mCallback);
+        }
+    }
+    
+    private static final class Event<C> {
+        static final int SUCCEEDED = 0;
+        static final int FAILED = 1;
+        static final int HELP = 2;
+        static final int ERROR = 3;
+        
+        final int type;
+        final int code;
+        final CharSequence message;
+        final C crypto;
+        
+        Event (int type, int code, CharSequence message, C crypto) {
+            this.type = type;
+            this.code = code;
+            this.message = message;
+            this.crypto = crypto;
+        }
+        
+        void deliver (Authenticator.Callback<C> callback) {
+            switch (type) {
+                case SUCCEEDED:
+                    callback.onAuthenticationSucceeded (crypto);
+                    break;
+                case FAILED:
+                    callback.onAuthenticationFailed ();
+                    break;
+                case HELP:
+                    callback.onAuthenticationHelp (code, message);
+                    break;
+                default:
+                    callback.onAuthenticationError (code, message);
+                    break;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package com.karman.fingerprintdialog.core;
+
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * In-memory {@link KeyProvider} using the default JCA provider. Stands in for AndroidKeyStore in
+ * tests and benchmarks; PKCS5 padding is the JCA name for the PKCS7 padding used on the device.
+ */
+public class SoftwareKeyProvider implements KeyProvider {
+    
+    public static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    
+    private final Map<String, SecretKey> mKeys = new HashMap<> ();
+    private final Set<String> mInvalidated = new HashSet<> ();
+    private final int mKeySize;
+    
+    public SoftwareKeyProvider () {
+        this (256);
+    }
+    
+    public SoftwareKeyProvider (int keySize) {
+        mKeySize = keySize;
+    }
+    
+    @Override
+    public synchronized boolean containsKey (String alias) {
+        return mKeys.containsKey (alias);
+    }
+    
+    @Override
+    public void generateKey (String alias) throws GeneralSecurityException {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance ("AES");
+        keyGenerator.init (mKeySize);
+        SecretKey key = keyGenerator.generateKey ();
+        synchronized (this) {
+            mKeys.put (alias, key);
+            mInvalidated.remove (alias);
+        }
+    }
+    
+    @Override
+    public synchronized SecretKey loadKey (String alias) throws GeneralSecurityException {
+        if (mInvalidated.contains (alias)) {
+            throw new KeyInvalidatedException (alias, null);
+        }
+        SecretKey key = mKeys.get (alias);
+        if (key == null) {
+            throw new GeneralSecurityException ("No key for alias " + alias);
+        }
+        return key;
+    }
+    
+    @Override
+    public synchronized void deleteKey (String alias) {
+        mKeys.remove (alias);
+        mInvalidated.remove (alias);
+    }
+    
+    @Override
+    public String getTransformation () {
+        return TRANSFORMATION;
+    }
+    
+    @Override
+    public Cipher newCipher () throws GeneralSecurityException {
+        return Cipher.getInstance (TRANSFORMATION);
+    }
+    
+    @Override
+    public boolean isKeyInvalidated (GeneralSecurityException e) {
+        return e instanceof KeyInvalidatedException;
+    }
+    
+    /**
+     * Simulates a new fingerprint enrollment: the key stays in the store but can no longer be used.
+     */
+    public synchronized void invalidateKey (String alias) {
+        if (mKeys.containsKey (alias)) {
+            mInvalidated.add (alias);
+        }
+    }
+}
\ No newline at end of file
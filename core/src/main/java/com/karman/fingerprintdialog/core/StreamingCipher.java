@@ -0,0 +1,137 @@
+package com.karman.fingerprintdialog.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+/**
+ * Pipes a stream or channel through an initialised (fingerprint-authorized) cipher in fixed-size
+ * chunks. The chunk buffers are allocated once per instance and reused, so peak heap does not grow
+ * with the payload.
+ * <p>
+ * AEAD decryption (AES-GCM) is the exception: providers hold back all plaintext until the tag has
+ * been verified in {@code doFinal}, so the final output buffer grows to the payload size.
+ * <p>
+ * Not thread-safe; use one instance per thread.
+ */
+public class StreamingCipher {
+    
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    
+    private final int mChunkSize;
+    private final byte[] mInput;
+    private byte[] mOutput;
+    private ByteBuffer mInputBuffer;
+    private ByteBuffer mOutputBuffer;
+    
+    public StreamingCipher () {
+        this (DEFAULT_CHUNK_SIZE);
+    }
+    
+    public StreamingCipher (int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException ("chunkSize must be positive");
+        }
+        mChunkSize = chunkSize;
+        mInput = new byte[chunkSize];
+        mOutput = new byte[0];
+    }
+    
+    /**
+     * Runs everything from {@code in} through {@code cipher} into {@code out}, finishing with
+     * {@code doFinal}. Neither stream is closed.
+     *
+     * @return the number of bytes written to {@code out}
+     */
+    public long transform (Cipher cipher, InputStream in, OutputStream out)
+            throws IOException, GeneralSecurityException {
+        byte[] output = outputBuffer (cipher.getOutputSize (mChunkSize));
+        long written = 0;
+        int read;
+        while ((read = in.read (mInput, 0, mChunkSize)) != -1) {
+            int n = cipher.update (mInput, 0, read, output, 0);
+            out.write (output, 0, n);
+            written += n;
+        }
+        output = outputBuffer (cipher.getOutputSize (0));
+        int n = cipher.doFinal (output, 0);
+        out.write (output, 0, n);
+        return written + n;
+    }
+    
+    /**
+     * Like {@link #transform(Cipher, InputStream, OutputStream)} and Base64-encodes the output on
+     * the fly, wrapping lines the way {@code android.util.Base64.DEFAULT} does.
+     *
+     * @return the number of Base64 characters written to {@code out}
+     */
+    public long transformToBase64 (Cipher cipher, InputStream in, OutputStream out)
+            throws IOException, GeneralSecurityException {
+        Base64OutputStream base64 = new Base64OutputStream (out, true);
+        transform (cipher, in, base64);
+        base64.finish ();
+        return base64.getCharsWritten ();
+    }
+    
+    /**
+     * Channel variant for {@link java.nio.channels.FileChannel}s, using a pair of direct buffers
+     * allocated on first use.
+     *
+     * @return the number of bytes written to {@code out}
+     */
+    public long transform (Cipher cipher, ReadableByteChannel in, WritableByteChannel out)
+            throws IOException, GeneralSecurityException {
+        ByteBuffer input = directInputBuffer ();
+        ByteBuffer output = directOutputBuffer (cipher.getOutputSize (mChunkSize));
+        long written = 0;
+        input.clear ();
+        while (in.read (input) != -1) {
+            input.flip ();
+            output.clear ();
+            cipher.update (input, output);
+            written += drain (output, out);
+            input.compact ();
+        }
+        input.flip ();
+        output = directOutputBuffer (cipher.getOutputSize (input.remaining ()));
+        output.clear ();
+        cipher.doFinal (input, output);
+        return written + drain (output, out);
+    }
+    
+    private static long drain (ByteBuffer output, WritableByteChannel out) throws IOException {
+        output.flip ();
+        int n = output.remaining ();
+        while (output.hasRemaining ()) {
+            out.write (output);
+        }
+        return n;
+    }
+    
+    private byte[] outputBuffer (int size) {
+        if (mOutput.length < size) {
+            mOutput = new byte[size];
+        }
+        return mOutput;
+    }
+    
+    private ByteBuffer directInputBuffer () {
+        if (mInputBuffer == null) {
+            mInputBuffer = ByteBuffer.allocateDirect (mChunkSize);
+        }
+        return mInputBuffer;
+    }
+    
+    private ByteBuffer directOutputBuffer (int size) {
+        if (mOutputBuffer == null || mOutputBuffer.capacity () < size) {
+            mOutputBuffer = ByteBuffer.allocateDirect (size);
+        }
+        return mOutputBuffer;
+    }
+}
\ No newline at end of file
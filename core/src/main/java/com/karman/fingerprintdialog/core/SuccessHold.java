@@ -0,0 +1,75 @@
+package com.karman.fingerprintdialog.core;
+
+/**
+ * Sequences what happens after a successful match according to a {@link LatencyPolicy}: delivering
+ * the result to the caller, and finishing (dismissing the dialog) once the success state has been
+ * shown for long enough.
+ */
+public class SuccessHold {
+    
+    public interface Scheduler {
+        void postDelayed (Runnable runnable, long delayMillis);
+        
+        void cancel (Runnable runnable);
+    }
+    
+    public interface Target {
+        /** Hand the result to the caller; runs exactly once per {@link #start()}. */
+        void deliverResult ();
+        
+        void finish ();
+    }
+    
+    private final Scheduler mScheduler;
+    private final Target mTarget;
+    private volatile LatencyPolicy mPolicy;
+    
+    private final Runnable mFinishRunnable = new Runnable () {
+        @Override
+        public void run () {
+            mTarget.finish ();
+        }
+    };
+    
+    private final Runnable mDeliverAndFinishRunnable = new Runnable () {
+        @Override
+        public void run () {
+            mTarget.deliverResult ();
+            mTarget.finish ();
+        }
+    };
+    
+    public SuccessHold (Scheduler scheduler, Target target, LatencyPolicy policy) {
+        mScheduler = scheduler;
+        mTarget = target;
+        mPolicy = policy;
+    }
+    
+    public void setPolicy (LatencyPolicy policy) {
+        mPolicy = policy;
+    }
+    
+    public LatencyPolicy getPolicy () {
+        return mPolicy;
+    }
+    
+    /** Call on the scheduler's thread when the sensor reports a match. */
+    public void start () {
+        LatencyPolicy policy = mPolicy;
+        long hold = policy.getSuccessHoldMillis ();
+        if (hold == 0) {
+            mDeliverAndFinishRunnable.run ();
+        } else if (policy.isDeliverDuringHold ()) {
+            mTarget.deliverResult ();
+            mScheduler.postDelayed (mFinishRunnable, hold);
+        } else {
+            mScheduler.postDelayed (mDeliverAndFinishRunnable, hold);
+        }
+    }
+    
+    /** Drops a pending finish, e.g. when the dialog goes away during the hold. */
+    public void cancel () {
+        mScheduler.cancel (mFinishRunnable);
+        mScheduler.cancel (mDeliverAndFinishRunnable);
+    }
+}
\ No newline at end of file
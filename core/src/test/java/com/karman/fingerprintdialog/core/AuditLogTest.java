@@ -0,0 +1,216 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AuditLogTest {
+    
+    private static final int HEADER = AuditLog.HEADER_LENGTH;
+    private static final int RECORD = AuditLog.RECORD_LENGTH;
+    
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder ();
+    
+    private QueueExecutor mFlusher;
+    private File mFile;
+    private AuditLog mLog;
+    
+    @Before
+    public void setUp () throws Exception {
+        mFlusher = new QueueExecutor ();
+        mFile = new File (mFolder.getRoot (), "audit.log");
+        mLog = AuditLog.open (mFile, mFlusher, 8);
+    }
+    
+    @After
+    public void tearDown () throws Exception {
+        mLog.close ();
+    }
+    
+    @Test
+    public void record_doesNoIoAndQueuesOneFlushPerBatch () throws Exception {
+        mLog.record (1000, AuditLog.Event.FAILED, AuthResult.Method.FINGERPRINT, 0);
+        mLog.record (2000, AuditLog.Event.FAILED, AuthResult.Method.FINGERPRINT, 0);
+        mLog.record (3000, AuditLog.Event.SUCCEEDED, AuthResult.Method.FINGERPRINT, 0);
+        
+        assertEquals (HEADER, mFile.length ());
+        assertEquals (1, mFlusher.size ());
+        
+        mFlusher.runAll ();
+        assertEquals (HEADER + 3 * RECORD, mFile.length ());
+        
+        mLog.record (4000, AuditLog.Event.CANCELLED, null, 0);
+        assertEquals (1, mFlusher.size ());
+    }
+    
+    @Test
+    public void reader_streamsRecordsInOrder () throws Exception {
+        mLog.record (1000, AuditLog.Event.ERROR, AuthResult.Method.FINGERPRINT, 7);
+        mLog.record (2000, AuditLog.Event.FAILED, AuthResult.Method.PASSWORD, 0);
+        mLog.record (3000, AuditLog.Event.CANCELLED, null, 0);
+        mFlusher.runAll ();
+        
+        AuditLog.Reader reader = AuditLog.Reader.open (mFile);
+        try {
+            assertTrue (reader.next ());
+            assertEquals (1000, reader.getTimeMillis ());
+            assertEquals (AuditLog.Event.ERROR, reader.getEvent ());
+            assertEquals (AuthResult.Method.FINGERPRINT, reader.getMethod ());
+            assertEquals (7, reader.getDetail ());
+            assertTrue (reader.next ());
+            assertEquals (AuditLog.Event.FAILED, reader.getEvent ());
+            assertEquals (AuthResult.Method.PASSWORD, reader.getMethod ());
+            assertTrue (reader.next ());
+            assertEquals (3000, reader.getTimeMillis ());
+            assertNull (reader.getMethod ());
+            assertFalse (reader.next ());
+            assertFalse (reader.hasTornTail ());
+        } finally {
+            reader.close ();
+        }
+    }
+    
+    @Test
+    public void truncatedTail_isCutOffOnOpenAndAppendingResumes () throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mLog.record (i, AuditLog.Event.FAILED, AuthResult.Method.FINGERPRINT, i);
+        }
+        mLog.close ();
+        // A crash halfway through writing the third record.
+        setLength (HEADER + 2 * RECORD + RECORD / 2);
+        
+        assertEquals (2, count (true));
+        
+        mLog = AuditLog.open (mFile, mFlusher, 8);
+        assertEquals (HEADER + 2 * RECORD, mFile.length ());
+        mLog.record (9, AuditLog.Event.SUCCEEDED, AuthResult.Method.FINGERPRINT, 0);
+        mFlusher.runAll ();
+        
+        assertEquals (3, count (false));
+        AuditLog.Reader reader = AuditLog.Reader.open (mFile);
+        try {
+            reader.next ();
+            reader.next ();
+            reader.next ();
+            assertEquals (AuditLog.Event.SUCCEEDED, reader.getEvent ());
+            assertEquals (9, reader.getTimeMillis ());
+        } finally {
+            reader.close ();
+        }
+    }
+    
+    @Test
+    public void tornHeader_startsAnEmptyLog () throws Exception {
+        mLog.close ();
+        // A crash while the header of a new log was being written.
+        setLength (HEADER - 2);
+        
+        mLog = AuditLog.open (mFile, mFlusher, 8);
+        assertEquals (HEADER, mFile.length ());
+        mLog.record (1, AuditLog.Event.SUCCEEDED, AuthResult.Method.FINGERPRINT, 0);
+        mFlusher.runAll ();
+        
+        assertEquals (1, count (false));
+    }
+    
+    @Test
+    public void corruptRecord_endsTheLog () throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mLog.record (i, AuditLog.Event.FAILED, AuthResult.Method.FINGERPRINT, i);
+        }
+        mLog.close ();
+        RandomAccessFile raf = new RandomAccessFile (mFile, "rw");
+        try {
+            raf.seek (HEADER + RECORD + 6);
+            raf.write (0x55);
+        } finally {
+            raf.close ();
+        }
+        
+        assertEquals (1, count (true));
+        mLog = AuditLog.open (mFile, mFlusher, 8);
+        assertEquals (HEADER + RECORD, mFile.length ());
+    }
+    
+    @Test
+    public void fullRing_dropsAndCountsUntilFlushed () throws Exception {
+        for (int i = 0; i < 10; i++) {
+            mLog.record (i, AuditLog.Event.FAILED, AuthResult.Method.FINGERPRINT, 0);
+        }
+        assertEquals (2, mLog.getDroppedCount ());
+        
+        mFlusher.runAll ();
+        mLog.record (10, AuditLog.Event.SUCCEEDED, AuthResult.Method.FINGERPRINT, 0);
+        mFlusher.runAll ();
+        
+        assertEquals (9, count (false));
+        assertEquals (2, mLog.getDroppedCount ());
+    }
+    
+    @Test
+    public void close_flushesWhatIsQueued () throws Exception {
+        mLog.record (1, AuditLog.Event.CANCELLED, null, 0);
+        mLog.close ();
+        mLog.record (2, AuditLog.Event.CANCELLED, null, 0);
+        // The flush queued by the first event finds nothing left to write.
+        mFlusher.runAll ();
+        
+        assertEquals (1, count (false));
+        assertEquals (0, mLog.getWriteErrorCount ());
+    }
+    
+    @Test
+    public void foreignFile_isRejected () throws Exception {
+        mLog.close ();
+        File other = mFolder.newFile ("other.bin");
+        RandomAccessFile raf = new RandomAccessFile (other, "rw");
+        try {
+            raf.writeInt (42);
+            raf.writeByte (1);
+        } finally {
+            raf.close ();
+        }
+        try {
+            AuditLog.open (other, mFlusher);
+            fail ("Expected IOException");
+        } catch (IOException expected) {
+        }
+        mLog = AuditLog.open (mFile, mFlusher);
+    }
+    
+    private int count (boolean expectTornTail) throws IOException {
+        AuditLog.Reader reader = AuditLog.Reader.open (mFile);
+        try {
+            int count = 0;
+            while (reader.next ()) {
+                count++;
+            }
+            assertEquals (expectTornTail, reader.hasTornTail ());
+            return count;
+        } finally {
+            reader.close ();
+        }
+    }
+    
+    private void setLength (long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile (mFile, "rw");
+        try {
+            raf.setLength (length);
+        } finally {
+            raf.close ();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,221 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AuthCoordinatorTest {
+    
+    private static final int THREADS = 16;
+    private static final int REQUESTS_PER_THREAD = 2000;
+    
+    /**
+     * Fake sensor: completes every session on another thread after a short random delay, or
+     * synchronously inside start.
+     */
+    private static class FakeAuthenticator implements AuthCoordinator.Session<Integer> {
+        final ExecutorService mSensor = Executors.newFixedThreadPool (4);
+        final AtomicInteger mSessions = new AtomicInteger ();
+        final Random mRandom = new Random (7);
+        
+        @Override
+        public void start (final AuthCoordinator.Callback<Integer> completion) {
+            final int session = mSessions.incrementAndGet ();
+            int mode;
+            synchronized (mRandom) {
+                mode = mRandom.nextInt (10);
+            }
+            if (mode == 0) {
+                completion.onSuccess (session);
+                return;
+            }
+            final boolean fail = mode == 1;
+            mSensor.execute (new Runnable () {
+                @Override
+                public void run () {
+                    if (fail) {
+                        completion.onFailure (new Exception ("sensor error " + session));
+                    } else {
+                        completion.onSuccess (session);
+                    }
+                }
+            });
+        }
+    }
+    
+    @Test
+    public void concurrentRequests_shareOneSession () {
+        AuthCoordinator<String> coordinator = new AuthCoordinator<> ();
+        final List<AuthCoordinator.Callback<String>> started = new ArrayList<> ();
+        AuthCoordinator.Session<String> session = new AuthCoordinator.Session<String> () {
+            @Override
+            public void start (AuthCoordinator.Callback<String> completion) {
+                started.add (completion);
+            }
+        };
+        final List<String> results = new ArrayList<> ();
+        AuthCoordinator.Callback<String> waiter = new AuthCoordinator.Callback<String> () {
+            @Override
+            public void onSuccess (String result) {
+                results.add (result);
+            }
+            
+            @Override
+            public void onFailure (Exception e) {
+                results.add ("failed");
+            }
+        };
+        
+        assertTrue (coordinator.request (waiter, session));
+        assertFalse (coordinator.request (waiter, session));
+        assertFalse (coordinator.request (waiter, session));
+        assertEquals (1, started.size ());
+        assertTrue (coordinator.isInFlight ());
+        
+        started.get (0).onSuccess ("crypto");
+        assertEquals (3, results.size ());
+        assertSame ("crypto", results.get (2));
+        assertFalse (coordinator.isInFlight ());
+        
+        // A late duplicate completion must not reach anyone twice.
+        started.get (0).onFailure (new Exception ());
+        assertEquals (3, results.size ());
+        
+        assertTrue (coordinator.request (waiter, session));
+        assertEquals (2, started.size ());
+    }
+    
+    @Test
+    public void sharing_givesTheResultToTheFirstWaiterOnly () {
+        AuthCoordinator<String> coordinator = new AuthCoordinator<> (new AuthCoordinator.Sharing<String> () {
+            @Override
+            public String share (String result) {
+                return "shared";
+            }
+        });
+        final List<AuthCoordinator.Callback<String>> started = new ArrayList<> ();
+        AuthCoordinator.Session<String> session = new AuthCoordinator.Session<String> () {
+            @Override
+            public void start (AuthCoordinator.Callback<String> completion) {
+                started.add (completion);
+            }
+        };
+        final List<String> results = new ArrayList<> ();
+        AuthCoordinator.Callback<String> waiter = new AuthCoordinator.Callback<String> () {
+            @Override
+            public void onSuccess (String result) {
+                results.add (result);
+            }
+            
+            @Override
+            public void onFailure (Exception e) {
+                results.add ("failed");
+            }
+        };
+        coordinator.request (waiter, session);
+        coordinator.request (waiter, session);
+        coordinator.request (waiter, session);
+        
+        started.get (0).onSuccess ("crypto");
+        
+        assertEquals ("[crypto, shared, shared]", results.toString ());
+    }
+    
+    @Test
+    public void deliverOn_runsCallbackOnExecutor () {
+        AuthCoordinator<String> coordinator = new AuthCoordinator<> ();
+        final List<AuthCoordinator.Callback<String>> started = new ArrayList<> ();
+        final List<String> results = new ArrayList<> ();
+        QueueExecutor executor = new QueueExecutor ();
+        coordinator.request (AuthCoordinator.deliverOn (executor, new AuthCoordinator.Callback<String> () {
+            @Override
+            public void onSuccess (String result) {
+                results.add (result);
+            }
+            
+            @Override
+            public void onFailure (Exception e) {
+                results.add ("failed");
+            }
+        }), new AuthCoordinator.Session<String> () {
+            @Override
+            public void start (AuthCoordinator.Callback<String> completion) {
+                started.add (completion);
+            }
+        });
+        
+        started.get (0).onSuccess ("crypto");
+        assertTrue (results.isEmpty ());
+        assertEquals (1, executor.runAll ());
+        assertEquals ("crypto", results.get (0));
+    }
+    
+    @Test
+    public void stress_everyWaiterHearsBackExactlyOnce () throws Exception {
+        final AuthCoordinator<Integer> coordinator = new AuthCoordinator<> ();
+        final FakeAuthenticator authenticator = new FakeAuthenticator ();
+        final int total = THREADS * REQUESTS_PER_THREAD;
+        final AtomicIntegerArray deliveries = new AtomicIntegerArray (total);
+        final AtomicInteger failures = new AtomicInteger ();
+        final CountDownLatch done = new CountDownLatch (total);
+        final CyclicBarrier barrier = new CyclicBarrier (THREADS);
+        ExecutorService callers = Executors.newFixedThreadPool (THREADS);
+        
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            callers.execute (new Runnable () {
+                @Override
+                public void run () {
+                    try {
+                        barrier.await ();
+                    } catch (Exception e) {
+                        throw new RuntimeException (e);
+                    }
+                    for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                        final int id = thread * REQUESTS_PER_THREAD + i;
+                        coordinator.request (new AuthCoordinator.Callback<Integer> () {
+                            @Override
+                            public void onSuccess (Integer result) {
+                                deliveries.incrementAndGet (id);
+                                done.countDown ();
+                            }
+                            
+                            @Override
+                            public void onFailure (Exception e) {
+                                failures.incrementAndGet ();
+                                deliveries.incrementAndGet (id);
+                                done.countDown ();
+                            }
+                        }, authenticator);
+                    }
+                }
+            });
+        }
+        
+        assertTrue ("waiters left hanging: " + done.getCount (), done.await (30, TimeUnit.SECONDS));
+        callers.shutdown ();
+        authenticator.mSensor.shutdown ();
+        assertTrue (authenticator.mSensor.awaitTermination (5, TimeUnit.SECONDS));
+        
+        for (int i = 0; i < total; i++) {
+            assertEquals ("request " + i, 1, deliveries.get (i));
+        }
+        assertEquals (authenticator.mSessions.get (), coordinator.getSessionsStarted ());
+        assertTrue ("sessions " + coordinator.getSessionsStarted (), coordinator.getSessionsStarted () < total);
+        assertFalse (coordinator.isInFlight ());
+    }
+}
\ No newline at end of file
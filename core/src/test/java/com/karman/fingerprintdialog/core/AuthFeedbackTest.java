@@ -0,0 +1,179 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AuthFeedbackTest {
+    
+    private static final String HELP = "Move your finger slightly";
+    private static final String ERROR = "Too many attempts";
+    
+    /** Keeps at most one pending entry per runnable in fixed arrays, so scheduling never allocates. */
+    private static class SlotScheduler implements SuccessHold.Scheduler {
+        final Runnable[] mRunnables = new Runnable[8];
+        final long[] mDue = new long[8];
+        long mNow;
+        
+        @Override
+        public void postDelayed (Runnable runnable, long delayMillis) {
+            for (int i = 0; i < mRunnables.length; i++) {
+                if (mRunnables[i] == null) {
+                    mRunnables[i] = runnable;
+                    mDue[i] = mNow + delayMillis;
+                    return;
+                }
+            }
+            throw new IllegalStateException ("Too many pending runnables");
+        }
+        
+        @Override
+        public void cancel (Runnable runnable) {
+            for (int i = 0; i < mRunnables.length; i++) {
+                if (mRunnables[i] == runnable) {
+                    mRunnables[i] = null;
+                }
+            }
+        }
+        
+        int pending () {
+            int count = 0;
+            for (Runnable runnable : mRunnables) {
+                if (runnable != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        
+        void advance (long millis) {
+            mNow += millis;
+            for (int i = 0; i < mRunnables.length; i++) {
+                Runnable runnable = mRunnables[i];
+                if (runnable != null && mDue[i] <= mNow) {
+                    mRunnables[i] = null;
+                    runnable.run ();
+                }
+            }
+        }
+    }
+    
+    private static class RecordingView implements AuthFeedback.FeedbackView {
+        String mState = "";
+        
+        @Override
+        public void showHint () {
+            mState = "hint";
+        }
+        
+        @Override
+        public void showError (CharSequence message) {
+            mState = "error";
+        }
+        
+        @Override
+        public void showNotRecognized () {
+            mState = "not recognized";
+        }
+        
+        @Override
+        public void showSuccess () {
+            mState = "success";
+        }
+    }
+    
+    private final SlotScheduler mScheduler = new SlotScheduler ();
+    private final RecordingView mView = new RecordingView ();
+    private int mDelivered;
+    private int mFinished;
+    private int mFallbacks;
+    private final SuccessHold mSuccessHold = new SuccessHold (mScheduler, new SuccessHold.Target () {
+        @Override
+        public void deliverResult () {
+            mDelivered++;
+        }
+        
+        @Override
+        public void finish () {
+            mFinished++;
+        }
+    }, LatencyPolicy.DEFAULT);
+    private final AuthFeedback<Object> mFeedback = new AuthFeedback<> (mView, mScheduler, mSuccessHold, new Runnable () {
+        @Override
+        public void run () {
+            mFallbacks++;
+        }
+    });
+    
+    @Test
+    public void failure_showsMessageThenResetsAfterErrorHold () {
+        mFeedback.onAuthenticationFailed ();
+        assertEquals ("not recognized", mView.mState);
+        mScheduler.advance (1000);
+        mFeedback.onAuthenticationHelp (0, HELP);
+        // The second message restarts the hold rather than stacking another reset.
+        assertEquals (1, mScheduler.pending ());
+        mScheduler.advance (1000);
+        assertEquals ("error", mView.mState);
+        mScheduler.advance (500);
+        assertEquals ("hint", mView.mState);
+    }
+    
+    @Test
+    public void error_fallsBackAfterErrorHold () {
+        mFeedback.onAuthenticationError (7, ERROR);
+        mScheduler.advance (1499);
+        assertEquals (0, mFallbacks);
+        mScheduler.advance (1);
+        assertEquals (1, mFallbacks);
+    }
+    
+    @Test
+    public void success_cancelsPendingResetAndHolds () {
+        mFeedback.onAuthenticationFailed ();
+        mFeedback.onAuthenticationSucceeded (null);
+        assertEquals ("success", mView.mState);
+        mScheduler.advance (1000);
+        assertEquals ("success", mView.mState);
+        assertEquals (1, mDelivered);
+        assertEquals (1, mFinished);
+    }
+    
+    @Test
+    public void cancel_dropsEverythingPending () {
+        mFeedback.onAuthenticationError (7, ERROR);
+        mFeedback.onAuthenticationSucceeded (null);
+        mFeedback.cancel ();
+        assertEquals (0, mScheduler.pending ());
+    }
+    
+    @Test
+    public void steadyStateCallbacks_doNotAllocate () {
+        Assume.assumeTrue (ManagementFactory.getThreadMXBean () instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+        // Warm up so class loading and JIT are out of the way.
+        swipeRepeatedly (10000);
+        
+        long before = threads.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+        swipeRepeatedly (100000);
+        long allocated = threads.getThreadAllocatedBytes (Thread.currentThread ().getId ()) - before;
+        assertTrue ("allocated " + allocated + " bytes", allocated < 1024);
+    }
+    
+    private void swipeRepeatedly (int swipes) {
+        for (int i = 0; i < swipes; i++) {
+            mFeedback.onAuthenticationFailed ();
+            mFeedback.onAuthenticationHelp (1, HELP);
+            mScheduler.advance (2000);
+            mFeedback.onAuthenticationError (7, ERROR);
+            mScheduler.advance (2000);
+            mFeedback.reset ();
+            mFeedback.onAuthenticationSucceeded (null);
+            mScheduler.advance (2000);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuthSessionTest {
+    
+    private static final int VALIDITY_SECONDS = 30;
+    
+    private long mNow;
+    private int mPrompts;
+    private QueueExecutor mExecutor;
+    private AuthSession mSession;
+    private List<String> mLog;
+    
+    @Before
+    public void setUp () {
+        mExecutor = new QueueExecutor ();
+        mLog = new ArrayList<> ();
+        mSession = new AuthSession (VALIDITY_SECONDS, new AuthSession.Clock () {
+            @Override
+            public long nanoTime () {
+                return mNow;
+            }
+        }, new AuthSession.Prompt () {
+            @Override
+            public void requestAuthentication () {
+                mPrompts++;
+            }
+        }, new AuthSession.ExpiryDetector () {
+            @Override
+            public boolean isAuthenticationRequired (Exception e) {
+                return e instanceof IllegalStateException;
+            }
+        }, mExecutor);
+    }
+    
+    private AuthSession.Operation op (final String name) {
+        return new AuthSession.Operation () {
+            @Override
+            public void run () {
+                mLog.add (name);
+            }
+            
+            @Override
+            public void onError (Exception e) {
+                mLog.add (name + ":error");
+            }
+        };
+    }
+    
+    private void advanceSeconds (int seconds) {
+        mNow += TimeUnit.SECONDS.toNanos (seconds);
+    }
+    
+    @Test
+    public void burstOfOperations_costsOnePrompt () {
+        for (int i = 0; i < 10; i++) {
+            mSession.submit (op ("op" + i));
+        }
+        assertEquals (1, mPrompts);
+        assertEquals (0, mExecutor.size ());
+        
+        mSession.onAuthenticated ();
+        assertEquals (10, mExecutor.runAll ());
+        assertEquals (10, mLog.size ());
+        assertEquals ("op0", mLog.get (0));
+        assertEquals ("op9", mLog.get (9));
+    }
+    
+    @Test
+    public void openWindow_runsWithoutPrompt () {
+        mSession.submit (op ("first"));
+        mSession.onAuthenticated ();
+        advanceSeconds (VALIDITY_SECONDS - 1);
+        mSession.submit (op ("second"));
+        
+        assertTrue (mSession.isOpen ());
+        assertEquals (1000, mSession.remainingMillis ());
+        assertEquals (1, mPrompts);
+        assertEquals (2, mExecutor.runAll ());
+    }
+    
+    @Test
+    public void expiredWindow_promptsAgainOnce () {
+        mSession.submit (op ("first"));
+        mSession.onAuthenticated ();
+        mExecutor.runAll ();
+        advanceSeconds (VALIDITY_SECONDS);
+        
+        assertFalse (mSession.isOpen ());
+        mSession.submit (op ("second"));
+        mSession.submit (op ("third"));
+        assertEquals (2, mPrompts);
+        assertEquals (2, mSession.getPromptCount ());
+        
+        mSession.onAuthenticated ();
+        assertEquals (2, mExecutor.runAll ());
+    }
+    
+    @Test
+    public void keystoreReportsExpiry_operationIsRequeued () {
+        final int[] attempts = {0};
+        mSession.submit (new AuthSession.Operation () {
+            @Override
+            public void run () {
+                if (attempts[0]++ == 0) {
+                    throw new IllegalStateException ("user not authenticated");
+                }
+                mLog.add ("done");
+            }
+            
+            @Override
+            public void onError (Exception e) {
+                mLog.add ("error");
+            }
+        });
+        mSession.onAuthenticated ();
+        mExecutor.runAll ();
+        
+        assertFalse (mSession.isOpen ());
+        assertEquals (2, mPrompts);
+        assertTrue (mLog.isEmpty ());
+        
+        mSession.onAuthenticated ();
+        mExecutor.runAll ();
+        assertEquals ("done", mLog.get (0));
+    }
+    
+    @Test
+    public void failedAuthentication_failsQueuedOperations () {
+        mSession.submit (op ("a"));
+        mSession.submit (op ("b"));
+        mSession.onAuthenticationFailed (new Exception ("cancelled"));
+        
+        assertEquals ("a:error", mLog.get (0));
+        assertEquals ("b:error", mLog.get (1));
+        
+        mSession.submit (op ("c"));
+        assertEquals (2, mPrompts);
+    }
+    
+    @Test
+    public void close_endsWindowEarly () {
+        mSession.submit (op ("a"));
+        mSession.onAuthenticated ();
+        mSession.close ();
+        
+        assertFalse (mSession.isOpen ());
+        assertEquals (0, mSession.remainingMillis ());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuthStateMachineTest {
+    
+    private AuthStateMachine mState;
+    
+    @Before
+    public void setUp () {
+        mState = new AuthStateMachine ();
+    }
+    
+    @Test
+    public void validKey_staysOnFingerprint () {
+        mState.onKeysReady (false, true);
+        assertEquals (AuthenticationType.FINGERPRINT, mState.getType ());
+        assertTrue (mState.canSwitchToFingerprint ());
+    }
+    
+    @Test
+    public void optedOut_usesPassword () {
+        mState.onKeysReady (false, false);
+        assertEquals (AuthenticationType.PASSWORD, mState.getType ());
+    }
+    
+    @Test
+    public void userChoiceWhilePreparing_isKeptForThatShowOnly () {
+        mState.onShow (true);
+        mState.switchToPassword ();
+        mState.onKeysReady (false, true);
+        assertEquals (AuthenticationType.PASSWORD, mState.getType ());
+        
+        mState.onShow (true);
+        assertEquals (AuthenticationType.FINGERPRINT, mState.getType ());
+    }
+    
+    @Test
+    public void nextShow_keepsThePasswordOptOut () {
+        mState.onKeysReady (false, true);
+        mState.onShow (false);
+        assertEquals (AuthenticationType.PASSWORD, mState.getType ());
+    }
+    
+    @Test
+    public void nextShow_keepsRequiringThePasswordAfterANewEnrollment () {
+        mState.onKeysReady (true, true);
+        mState.onShow (true);
+        assertEquals (AuthenticationType.NEW_FINGERPRINT_ENROLLED, mState.getType ());
+    }
+    
+    @Test
+    public void newEnrollment_requiresPasswordThenRecreatesKey () {
+        mState.onKeysReady (true, true);
+        assertEquals (AuthenticationType.NEW_FINGERPRINT_ENROLLED, mState.getType ());
+        assertFalse (mState.canSwitchToFingerprint ());
+        
+        mState.switchToPassword ();
+        assertEquals (AuthenticationType.NEW_FINGERPRINT_ENROLLED, mState.getType ());
+        
+        assertTrue (mState.onPasswordVerified (true));
+        assertEquals (AuthenticationType.FINGERPRINT, mState.getType ());
+        assertFalse (mState.isNewFingerprintEnrolled ());
+    }
+    
+    @Test
+    public void newEnrollment_declined_keepsPasswordOnly () {
+        mState.onKeysReady (true, true);
+        assertFalse (mState.onPasswordVerified (false));
+        assertEquals (AuthenticationType.NEW_FINGERPRINT_ENROLLED, mState.getType ());
+    }
+    
+    @Test
+    public void plainPassword_neverRecreatesKey () {
+        mState.switchToPassword ();
+        assertFalse (mState.onPasswordVerified (true));
+        assertEquals (AuthenticationType.PASSWORD, mState.getType ());
+    }
+}
\ No newline at end of file
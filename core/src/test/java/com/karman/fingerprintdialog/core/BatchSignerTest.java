@@ -0,0 +1,114 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchSignerTest {
+    
+    private static final Charset UTF_8 = Charset.forName ("UTF-8");
+    
+    private KeyPair mKeyPair;
+    private BatchSigner mSigner;
+    
+    @Before
+    public void setUp () throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance ("EC");
+        generator.initialize (256);
+        mKeyPair = generator.generateKeyPair ();
+        mSigner = new BatchSigner ();
+    }
+    
+    @Test
+    public void manifest_isOneSignatureThatVerifiesWithThePublicKey () throws Exception {
+        List<byte[]> records = records (100);
+        
+        BatchSigner.Manifest manifest = mSigner.signManifest (authorized (), records);
+        
+        assertEquals (100, manifest.size ());
+        assertEquals (1, manifest.getStats ().signOperations);
+        assertEquals (100, manifest.getStats ().records);
+        assertTrue (manifest.getStats ().getSignaturesPerSecond () > 0);
+        assertTrue (BatchSigner.verifyManifest (mKeyPair.getPublic (), manifest));
+        for (int i = 0; i < records.size (); i++) {
+            assertTrue (manifest.contains (i, records.get (i)));
+        }
+    }
+    
+    @Test
+    public void manifest_rejectsRecordsThatWereNotSigned () throws Exception {
+        List<byte[]> records = records (10);
+        BatchSigner.Manifest manifest = mSigner.signManifest (authorized (), records);
+        
+        assertFalse (manifest.contains (3, records.get (4)));
+        assertFalse (manifest.contains (3, "tx-3 amount=999".getBytes (UTF_8)));
+        assertFalse (manifest.contains (10, records.get (0)));
+    }
+    
+    @Test
+    public void manifest_doesNotVerifyUnderAnotherKey () throws Exception {
+        BatchSigner.Manifest manifest = mSigner.signManifest (authorized (), records (10));
+        KeyPairGenerator generator = KeyPairGenerator.getInstance ("EC");
+        generator.initialize (256);
+        
+        assertFalse (BatchSigner.verifyManifest (generator.generateKeyPair ().getPublic (), manifest));
+    }
+    
+    @Test
+    public void signerIsReusableAcrossBatches () throws Exception {
+        BatchSigner.Manifest large = mSigner.signManifest (authorized (), records (500));
+        List<byte[]> small = records (3);
+        BatchSigner.Manifest second = mSigner.signManifest (authorized (), small);
+        
+        assertTrue (BatchSigner.verifyManifest (mKeyPair.getPublic (), large));
+        assertTrue (BatchSigner.verifyManifest (mKeyPair.getPublic (), second));
+        assertEquals (3, second.size ());
+        assertTrue (second.contains (2, small.get (2)));
+    }
+    
+    @Test
+    public void signEach_producesOneVerifiableSignaturePerRecord () throws Exception {
+        List<byte[]> records = records (20);
+        
+        BatchSigner.Batch batch = mSigner.signEach (authorized (), records);
+        
+        assertEquals (20, batch.getSignatures ().size ());
+        assertEquals (20, batch.getStats ().signOperations);
+        for (int i = 0; i < records.size (); i++) {
+            assertTrue (BatchSigner.verify (mKeyPair.getPublic (), records.get (i), batch.getSignatures ().get (i)));
+        }
+        assertFalse (BatchSigner.verify (mKeyPair.getPublic (), records.get (0), batch.getSignatures ().get (1)));
+    }
+    
+    @Test
+    public void emptyBatch_stillSigns () throws Exception {
+        BatchSigner.Manifest manifest = mSigner.signManifest (authorized (), new ArrayList<byte[]> ());
+        
+        assertEquals (0, manifest.size ());
+        assertTrue (BatchSigner.verifyManifest (mKeyPair.getPublic (), manifest));
+    }
+    
+    private Signature authorized () throws Exception {
+        Signature signature = Signature.getInstance (BatchSigner.SIGNATURE_ALGORITHM);
+        signature.initSign (mKeyPair.getPrivate ());
+        return signature;
+    }
+    
+    private static List<byte[]> records (int count) {
+        List<byte[]> records = new ArrayList<> (count);
+        for (int i = 0; i < count; i++) {
+            records.add (("tx-" + i + " amount=" + (i * 7 % 1000)).getBytes (UTF_8));
+        }
+        return records;
+    }
+}
\ No newline at end of file
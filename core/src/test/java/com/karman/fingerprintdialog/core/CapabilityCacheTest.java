@@ -0,0 +1,132 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CapabilityCacheTest {
+    
+    private final QueueExecutor mExecutor = new QueueExecutor ();
+    private CapabilityCache.Snapshot mDevice = new CapabilityCache.Snapshot (true, true, true);
+    private int mProbes;
+    private final CapabilityCache mCache = new CapabilityCache (new CapabilityCache.Probe () {
+        @Override
+        public CapabilityCache.Snapshot probe () {
+            mProbes++;
+            return mDevice;
+        }
+    }, mExecutor);
+    
+    @Test
+    public void get_neverProbesOnTheCallingThread () {
+        assertNull (mCache.get ());
+        mCache.refresh ();
+        assertNull (mCache.get ());
+        assertEquals (0, mProbes);
+        
+        mExecutor.runAll ();
+        assertTrue (mCache.get ().isFingerprintAvailable ());
+        for (int i = 0; i < 100; i++) {
+            mCache.get ();
+        }
+        assertEquals (1, mProbes);
+    }
+    
+    @Test
+    public void refresh_coalescesPendingRequests () {
+        mCache.refresh ();
+        mCache.refresh ();
+        mCache.refresh ();
+        assertEquals (1, mExecutor.size ());
+        mExecutor.runAll ();
+        // Requests that arrived before the probe started are all covered by it.
+        assertEquals (1, mProbes);
+        
+        mCache.refresh ();
+        mExecutor.runAll ();
+        assertEquals (mProbes, mCache.getProbeCount ());
+    }
+    
+    @Test
+    public void failedProbe_publishesNothingAndNextRefreshProbesAgain () {
+        final boolean[] fail = {true};
+        CapabilityCache cache = new CapabilityCache (new CapabilityCache.Probe () {
+            @Override
+            public CapabilityCache.Snapshot probe () {
+                mProbes++;
+                if (fail[0]) {
+                    throw new IllegalStateException ("service died");
+                }
+                return mDevice;
+            }
+        }, mExecutor);
+        cache.refresh ();
+        mExecutor.runAll ();
+        assertNull (cache.get ());
+        
+        fail[0] = false;
+        cache.refresh ();
+        assertEquals (1, mExecutor.size ());
+        mExecutor.runAll ();
+        assertEquals (2, mProbes);
+        assertTrue (cache.get ().isFingerprintAvailable ());
+    }
+    
+    @Test
+    public void refreshDuringProbe_probesAgain () {
+        final CapabilityCache[] cache = new CapabilityCache[1];
+        final List<CapabilityCache.Snapshot> results = new ArrayList<> ();
+        cache[0] = new CapabilityCache (new CapabilityCache.Probe () {
+            @Override
+            public CapabilityCache.Snapshot probe () {
+                mProbes++;
+                if (mProbes == 1) {
+                    // The user removes their last fingerprint while the first probe is in flight.
+                    cache[0].refresh ();
+                    return new CapabilityCache.Snapshot (true, true, true);
+                }
+                return new CapabilityCache.Snapshot (true, true, false);
+            }
+        }, mExecutor);
+        cache[0].setListener (new CapabilityCache.Listener () {
+            @Override
+            public void onCapabilitiesChanged (CapabilityCache.Snapshot snapshot) {
+                results.add (snapshot);
+            }
+        });
+        
+        cache[0].refresh ();
+        mExecutor.runAll ();
+        assertEquals (2, mProbes);
+        assertFalse (cache[0].get ().isFingerprintAvailable ());
+        assertEquals (2, results.size ());
+    }
+    
+    @Test
+    public void listener_onlyHearsActualChanges () {
+        final List<CapabilityCache.Snapshot> changes = new ArrayList<> ();
+        mCache.setListener (new CapabilityCache.Listener () {
+            @Override
+            public void onCapabilitiesChanged (CapabilityCache.Snapshot snapshot) {
+                changes.add (snapshot);
+            }
+        });
+        mCache.refresh ();
+        mExecutor.runAll ();
+        mCache.refresh ();
+        mExecutor.runAll ();
+        assertEquals (1, changes.size ());
+        
+        mDevice = new CapabilityCache.Snapshot (false, true, true);
+        mCache.refresh ();
+        mExecutor.runAll ();
+        assertEquals (2, changes.size ());
+        assertFalse (changes.get (1).isKeyguardSecure ());
+    }
+}
\ No newline at end of file
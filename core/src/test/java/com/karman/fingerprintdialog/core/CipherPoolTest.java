@@ -0,0 +1,202 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CipherPoolTest {
+    
+    private static final String ALIAS = "default_key_name";
+    private static final String TRANSFORMATION = SoftwareKeyProvider.TRANSFORMATION;
+    
+    private final AtomicInteger mCreated = new AtomicInteger ();
+    private CipherPool mPool;
+    
+    @Before
+    public void setUp () {
+        mPool = new CipherPool (new CipherPool.Factory () {
+            @Override
+            public Cipher newCipher (String transformation) throws GeneralSecurityException {
+                mCreated.incrementAndGet ();
+                return Cipher.getInstance (transformation);
+            }
+        });
+    }
+    
+    @Test
+    public void released_cipherIsReused () throws Exception {
+        Cipher first = mPool.acquire (TRANSFORMATION, ALIAS);
+        assertTrue (mPool.release (TRANSFORMATION, ALIAS, first));
+        
+        assertSame (first, mPool.acquire (TRANSFORMATION, ALIAS));
+        assertEquals (1, mCreated.get ());
+        assertEquals (1, mPool.getHits ());
+        assertEquals (1, mPool.getMisses ());
+    }
+    
+    @Test
+    public void doubleRelease_isIgnored () throws Exception {
+        Cipher cipher = mPool.acquire (TRANSFORMATION, ALIAS);
+        assertTrue (mPool.release (TRANSFORMATION, ALIAS, cipher));
+        assertFalse (mPool.release (TRANSFORMATION, ALIAS, cipher));
+        
+        assertEquals (1, mPool.size ());
+        assertSame (cipher, mPool.acquire (TRANSFORMATION, ALIAS));
+        assertNotSame (cipher, mPool.acquire (TRANSFORMATION, ALIAS));
+    }
+    
+    @Test
+    public void ciphersAreKeyedByAlias () throws Exception {
+        Cipher first = mPool.acquire (TRANSFORMATION, ALIAS);
+        mPool.release (TRANSFORMATION, ALIAS, first);
+        
+        assertNotSame (first, mPool.acquire (TRANSFORMATION, "other_key_name"));
+        assertEquals (2, mCreated.get ());
+    }
+    
+    @Test
+    public void release_dropsCiphersBeyondTheBound () throws Exception {
+        Cipher[] ciphers = new Cipher[CipherPool.DEFAULT_MAX_PER_KEY + 1];
+        for (int i = 0; i < ciphers.length; i++) {
+            ciphers[i] = mPool.acquire (TRANSFORMATION, ALIAS);
+        }
+        for (int i = 0; i < CipherPool.DEFAULT_MAX_PER_KEY; i++) {
+            assertTrue (mPool.release (TRANSFORMATION, ALIAS, ciphers[i]));
+        }
+        assertFalse (mPool.release (TRANSFORMATION, ALIAS, ciphers[CipherPool.DEFAULT_MAX_PER_KEY]));
+        assertEquals (CipherPool.DEFAULT_MAX_PER_KEY, mPool.size ());
+    }
+    
+    @Test
+    public void evict_dropsIdleCiphersForAlias () throws Exception {
+        mPool.release (TRANSFORMATION, ALIAS, mPool.acquire (TRANSFORMATION, ALIAS));
+        mPool.release (TRANSFORMATION, "other_key_name", mPool.acquire (TRANSFORMATION, "other_key_name"));
+        
+        mPool.evict (ALIAS);
+        
+        assertEquals (1, mPool.size ());
+        mPool.acquire (TRANSFORMATION, ALIAS);
+        assertEquals (3, mCreated.get ());
+    }
+    
+    @Test
+    public void keyManager_reinitsPooledCipherWithFreshIv () throws Exception {
+        KeyLifecycleManager manager = new KeyLifecycleManager (new SoftwareKeyProvider ());
+        Cipher first = manager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+        byte[] firstIv = first.getIV ();
+        first.doFinal (new byte[16]);
+        manager.releaseCipher (ALIAS, first);
+        
+        Cipher second = manager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+        
+        assertSame (first, second);
+        assertFalse (Arrays.equals (firstIv, second.getIV ()));
+    }
+    
+    @Test
+    public void keyManager_failedInitDoesNotPoisonThePool () throws Exception {
+        KeyLifecycleManager manager = new KeyLifecycleManager (new SoftwareKeyProvider ());
+        manager.releaseCipher (ALIAS, manager.initCipher (ALIAS, Cipher.ENCRYPT_MODE));
+        try {
+            // CBC decryption without an IV.
+            manager.initCipher (ALIAS, Cipher.DECRYPT_MODE);
+            fail ("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException expected) {
+        }
+        
+        assertEquals (0, manager.getCipherPool ().size ());
+        Cipher cipher = manager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+        assertEquals (16, cipher.doFinal (new byte[8]).length);
+    }
+    
+    @Test
+    public void keyManager_recreateKeyEvictsPooledCiphers () throws Exception {
+        SoftwareKeyProvider provider = new SoftwareKeyProvider ();
+        KeyLifecycleManager manager = new KeyLifecycleManager (provider);
+        manager.releaseCipher (ALIAS, manager.initCipher (ALIAS, Cipher.ENCRYPT_MODE));
+        assertEquals (1, manager.getCipherPool ().size ());
+        
+        provider.invalidateKey (ALIAS);
+        manager.recreateKey (ALIAS);
+        
+        assertEquals (0, manager.getCipherPool ().size ());
+    }
+    
+    @Test
+    public void concurrentCheckouts_areExclusiveAndEncryptCorrectly () throws Exception {
+        final KeyLifecycleManager manager = new KeyLifecycleManager (new SoftwareKeyProvider ());
+        manager.getKey (ALIAS);
+        final Set<Cipher> checkedOut = Collections.newSetFromMap (new IdentityHashMap<Cipher, Boolean> ());
+        final AtomicInteger overlaps = new AtomicInteger ();
+        final int threads = 8;
+        final int rounds = 500;
+        final CountDownLatch start = new CountDownLatch (1);
+        ExecutorService executor = Executors.newFixedThreadPool (threads);
+        try {
+            Future<?>[] futures = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                final byte[] plaintext = ("thread-" + t).getBytes ("US-ASCII");
+                futures[t] = executor.submit (new Callable<Void> () {
+                    @Override
+                    public Void call () throws Exception {
+                        start.await ();
+                        for (int i = 0; i < rounds; i++) {
+                            Cipher cipher = manager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+                            synchronized (checkedOut) {
+                                if (! checkedOut.add (cipher)) {
+                                    overlaps.incrementAndGet ();
+                                }
+                            }
+                            byte[] iv = cipher.getIV ();
+                            byte[] encrypted = cipher.doFinal (plaintext);
+                            synchronized (checkedOut) {
+                                checkedOut.remove (cipher);
+                            }
+                            manager.releaseCipher (ALIAS, cipher);
+                            
+                            Cipher decrypt = manager.initCipher (ALIAS, Cipher.DECRYPT_MODE, new IvParameterSpec (iv));
+                            assertArrayEquals (plaintext, decrypt.doFinal (encrypted));
+                            manager.releaseCipher (ALIAS, decrypt);
+                        }
+                        return null;
+                    }
+                });
+            }
+            start.countDown ();
+            for (Future<?> future : futures) {
+                future.get (60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow ();
+        }
+        
+        assertEquals (0, overlaps.get ());
+        CipherPool pool = manager.getCipherPool ();
+        assertTrue (pool.size () <= CipherPool.DEFAULT_MAX_PER_KEY);
+        assertEquals (threads * rounds * 2, pool.getHits () + pool.getMisses ());
+        assertTrue (pool.getHits () > 0);
+    }
+}
\ No newline at end of file
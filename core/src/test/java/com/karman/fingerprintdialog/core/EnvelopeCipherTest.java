@@ -0,0 +1,108 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class EnvelopeCipherTest {
+    
+    private static final String ALIAS = "default_key_name";
+    
+    private KeyLifecycleManager mKeyManager;
+    private EnvelopeCipher mEnvelope;
+    
+    @Before
+    public void setUp () {
+        mKeyManager = new KeyLifecycleManager (new SoftwareKeyProvider ());
+        mEnvelope = new EnvelopeCipher ();
+    }
+    
+    private static byte[] random (int size) {
+        byte[] data = new byte[size];
+        new Random (size).nextBytes (data);
+        return data;
+    }
+    
+    private Cipher unwrapCipher (EnvelopeCipher.WrappedKey wrappedKey) throws GeneralSecurityException {
+        return mKeyManager.initCipher (ALIAS, Cipher.DECRYPT_MODE, new IvParameterSpec (wrappedKey.getIv ()));
+    }
+    
+    @Test
+    public void sealAndOpen_roundTripThroughSerializedForm () throws Exception {
+        byte[] plain = random (100000);
+        Cipher authorized = mKeyManager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+        byte[] serialized = mEnvelope.seal (authorized, plain).toByteArray ();
+        
+        EnvelopeCipher.Envelope parsed = EnvelopeCipher.Envelope.fromByteArray (serialized);
+        assertArrayEquals (plain, mEnvelope.open (unwrapCipher (parsed.getWrappedKey ()), parsed));
+    }
+    
+    @Test
+    public void wrappedKey_roundTrips () throws Exception {
+        SecretKey dataKey = mEnvelope.newDataKey ();
+        EnvelopeCipher.WrappedKey wrapped = mEnvelope.wrapKey (mKeyManager.initCipher (ALIAS, Cipher.ENCRYPT_MODE), dataKey);
+        EnvelopeCipher.WrappedKey parsed = EnvelopeCipher.WrappedKey.fromByteArray (wrapped.toByteArray ());
+        
+        assertArrayEquals (dataKey.getEncoded (), mEnvelope.unwrapKey (unwrapCipher (parsed), parsed).getEncoded ());
+    }
+    
+    @Test
+    public void tamperedPayload_isRejected () throws Exception {
+        SecretKey dataKey = mEnvelope.newDataKey ();
+        byte[] sealed = mEnvelope.encrypt (dataKey, random (64));
+        sealed[sealed.length - 1] ^= 1;
+        try {
+            mEnvelope.decrypt (dataKey, sealed);
+            fail ("Expected AEADBadTagException");
+        } catch (AEADBadTagException expected) {
+        }
+    }
+    
+    @Test
+    public void nonces_areNotReused () throws Exception {
+        SecretKey dataKey = mEnvelope.newDataKey ();
+        byte[] plain = random (32);
+        byte[] first = mEnvelope.encrypt (dataKey, plain);
+        byte[] second = mEnvelope.encrypt (dataKey, plain);
+        
+        assertEquals (EnvelopeCipher.NONCE_LENGTH + plain.length + EnvelopeCipher.TAG_LENGTH_BITS / 8, first.length);
+        assertFalse (Arrays.equals (first, second));
+        assertArrayEquals (plain, mEnvelope.decrypt (dataKey, second));
+    }
+    
+    @Test
+    public void bulkCipher_streamsThroughStreamingCipher () throws Exception {
+        SecretKey dataKey = mEnvelope.newDataKey ();
+        byte[] plain = random (300000);
+        StreamingCipher streaming = new StreamingCipher (4096);
+        
+        Cipher encrypt = mEnvelope.newBulkCipher (Cipher.ENCRYPT_MODE, dataKey, null);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream ();
+        streaming.transform (encrypt, new ByteArrayInputStream (plain), encrypted);
+        
+        Cipher decrypt = mEnvelope.newBulkCipher (Cipher.DECRYPT_MODE, dataKey, encrypt.getIV ());
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream ();
+        streaming.transform (decrypt, new ByteArrayInputStream (encrypted.toByteArray ()), decrypted);
+        assertArrayEquals (plain, decrypted.toByteArray ());
+    }
+    
+    @Test(expected = GeneralSecurityException.class)
+    public void unknownVersion_isRejected () throws Exception {
+        EnvelopeCipher.Envelope.fromByteArray (new byte[] {9, 0, 0, 0});
+    }
+}
\ No newline at end of file
@@ -0,0 +1,147 @@
+package com.karman.fingerprintdialog.core;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreSpi;
+import java.security.Provider;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * In-memory stand-in for AndroidKeyStore: secret keys only, no passwords, and counters so tests
+ * can assert how often the "hardware" was hit.
+ */
+public class FakeKeyStore extends KeyStoreSpi {
+    
+    public final AtomicInteger generateCount = new AtomicInteger ();
+    public final AtomicInteger loadCount = new AtomicInteger ();
+    public final AtomicInteger getKeyCount = new AtomicInteger ();
+    
+    private final Map<String, SecretKey> mKeys = Collections.synchronizedMap (new HashMap<String, SecretKey> ());
+    
+    public static KeyStore newKeyStore (FakeKeyStore spi) {
+        KeyStore keyStore = new KeyStore (spi, new FakeProvider (), "FakeKeyStore") {
+        };
+        try {
+            keyStore.load (null);
+        } catch (Exception e) {
+            throw new RuntimeException (e);
+        }
+        return keyStore;
+    }
+    
+    public SecretKey generateKey (String alias) {
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance ("AES");
+            keyGenerator.init (128);
+            SecretKey key = keyGenerator.generateKey ();
+            mKeys.put (alias, key);
+            generateCount.incrementAndGet ();
+            return key;
+        } catch (Exception e) {
+            throw new RuntimeException (e);
+        }
+    }
+    
+    @Override
+    public Key engineGetKey (String alias, char[] password) {
+        getKeyCount.incrementAndGet ();
+        return mKeys.get (alias);
+    }
+    
+    @Override
+    public Certificate[] engineGetCertificateChain (String alias) {
+        return null;
+    }
+    
+    @Override
+    public Certificate engineGetCertificate (String alias) {
+        return null;
+    }
+    
+    @Override
+    public Date engineGetCreationDate (String alias) {
+        return mKeys.containsKey (alias) ? new Date () : null;
+    }
+    
+    @Override
+    public void engineSetKeyEntry (String alias, Key key, char[] password, Certificate[] chain) {
+        mKeys.put (alias, (SecretKey) key);
+    }
+    
+    @Override
+    public void engineSetKeyEntry (String alias, byte[] key, Certificate[] chain) {
+        // Protected key blobs are not modelled; like AndroidKeyStore, raw imports are ignored.
+    }
+    
+    @Override
+    public void engineSetCertificateEntry (String alias, Certificate cert) {
+        // Secret keys only; certificates are not stored.
+    }
+    
+    @Override
+    public void engineDeleteEntry (String alias) {
+        mKeys.remove (alias);
+    }
+    
+    @Override
+    public Enumeration<String> engineAliases () {
+        synchronized (mKeys) {
+            return Collections.enumeration (new HashMap<> (mKeys).keySet ());
+        }
+    }
+    
+    @Override
+    public boolean engineContainsAlias (String alias) {
+        return mKeys.containsKey (alias);
+    }
+    
+    @Override
+    public int engineSize () {
+        return mKeys.size ();
+    }
+    
+    @Override
+    public boolean engineIsKeyEntry (String alias) {
+        return mKeys.containsKey (alias);
+    }
+    
+    @Override
+    public boolean engineIsCertificateEntry (String alias) {
+        return false;
+    }
+    
+    @Override
+    public String engineGetCertificateAlias (Certificate cert) {
+        return null;
+    }
+    
+    @Override
+    public void engineStore (OutputStream stream, char[] password) {
+    }
+    
+    @Override
+    public void engineLoad (InputStream stream, char[] password) {
+        loadCount.incrementAndGet ();
+    }
+    
+    private static class FakeProvider extends Provider {
+        private static final long serialVersionUID = 1L;
+        
+        // Provider(String, String, String) is Java 9+; core still targets Java 8.
+        @SuppressWarnings("deprecation")
+        FakeProvider () {
+            super ("FakeKeyStore", 1.0, "test");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,128 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyLifecycleManagerTest {
+    
+    private static final String ALIAS = "default_key_name";
+    
+    private FakeKeyStore mSpi;
+    private KeyLifecycleManager mManager;
+    
+    @Before
+    public void setUp () {
+        mSpi = new FakeKeyStore ();
+        mManager = new KeyLifecycleManager (new KeyStoreKeyProvider (FakeKeyStore.newKeyStore (mSpi)) {
+            @Override
+            public void generateKey (String alias) {
+                mSpi.generateKey (alias);
+            }
+            
+            @Override
+            public String getTransformation () {
+                return SoftwareKeyProvider.TRANSFORMATION;
+            }
+            
+            @Override
+            public Cipher newCipher () throws GeneralSecurityException {
+                return Cipher.getInstance (SoftwareKeyProvider.TRANSFORMATION);
+            }
+            
+            @Override
+            public boolean isKeyInvalidated (GeneralSecurityException e) {
+                return false;
+            }
+        });
+    }
+    
+    @Test
+    public void firstUse_generatesOnce_thenServesFromCache () throws Exception {
+        SecretKey first = mManager.getKey (ALIAS);
+        for (int i = 0; i < 10; i++) {
+            assertSame (first, mManager.getKey (ALIAS));
+        }
+        
+        KeyLifecycleManager.Stats stats = mManager.getStats ();
+        assertEquals (1, stats.keygenCount);
+        assertEquals (1, stats.loadCount);
+        assertEquals (10, stats.cacheHits);
+        assertTrue (stats.keygenTotalNanos > 0);
+        assertEquals (1, mSpi.getKeyCount.get ());
+    }
+    
+    @Test
+    public void existingAlias_isLoadedWithoutKeygen () throws Exception {
+        SecretKey existing = mSpi.generateKey (ALIAS);
+        mSpi.generateCount.set (0);
+        
+        assertSame (existing, mManager.getKey (ALIAS));
+        assertEquals (0, mManager.getStats ().keygenCount);
+        assertEquals (0, mSpi.generateCount.get ());
+    }
+    
+    @Test
+    public void evict_reloadsSameKeyWithoutKeygen () throws Exception {
+        SecretKey first = mManager.getKey (ALIAS);
+        mManager.evict (ALIAS);
+        
+        assertSame (first, mManager.getKey (ALIAS));
+        assertEquals (1, mManager.getStats ().keygenCount);
+        assertEquals (2, mManager.getStats ().loadCount);
+    }
+    
+    @Test
+    public void recreate_replacesInvalidatedKey () throws Exception {
+        SecretKey first = mManager.getKey (ALIAS);
+        SecretKey second = mManager.recreateKey (ALIAS);
+        
+        assertNotSame (first, second);
+        assertSame (second, mManager.getKey (ALIAS));
+        assertEquals (2, mManager.getStats ().keygenCount);
+    }
+    
+    @Test
+    public void keystoreIsLoadedOnlyOnce () throws Exception {
+        mManager.getKey (ALIAS);
+        mManager.getKey ("other");
+        mManager.recreateKey (ALIAS);
+        
+        // One load from FakeKeyStore.newKeyStore, one from the manager.
+        assertEquals (2, mSpi.loadCount.get ());
+    }
+    
+    @Test
+    public void initCipher_reportsInvalidationUntilRecreated () throws Exception {
+        SoftwareKeyProvider provider = new SoftwareKeyProvider ();
+        KeyLifecycleManager manager = new KeyLifecycleManager (provider);
+        assertTrue (manager.initCipher (ALIAS, Cipher.ENCRYPT_MODE).getIV ().length > 0);
+        
+        provider.invalidateKey (ALIAS);
+        for (int i = 0; i < 2; i++) {
+            // Cached handle must not hide the invalidation, and it must not trigger a silent keygen.
+            manager.evict (ALIAS);
+            try {
+                manager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+                fail ("Expected KeyInvalidatedException");
+            } catch (KeyInvalidatedException e) {
+                assertEquals (ALIAS, e.getAlias ());
+            }
+        }
+        assertEquals (1, manager.getStats ().keygenCount);
+        
+        manager.recreateKey (ALIAS);
+        manager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+        assertEquals (2, manager.getStats ().keygenCount);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,205 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KeyPreparerTest {
+    
+    private static final String ALIAS = "default_key_name";
+    
+    private FakeKeyStore mSpi;
+    private KeyStore mKeyStore;
+    private QueueExecutor mBackground;
+    private QueueExecutor mMain;
+    private KeyPreparer<Cipher> mPreparer;
+    private RecordingListener mListener;
+    
+    @Before
+    public void setUp () throws Exception {
+        mSpi = new FakeKeyStore ();
+        mKeyStore = FakeKeyStore.newKeyStore (mSpi);
+        mBackground = new QueueExecutor ();
+        mMain = new QueueExecutor ();
+        mPreparer = new KeyPreparer<> (mBackground, mMain);
+        mListener = new RecordingListener ();
+    }
+    
+    private KeyPreparer.Task<Cipher> cipherTask () {
+        return new KeyPreparer.Task<Cipher> () {
+            @Override
+            public Cipher prepare () throws Exception {
+                mSpi.generateKey (ALIAS);
+                mKeyStore.load (null);
+                SecretKey key = (SecretKey) mKeyStore.getKey (ALIAS, null);
+                Cipher cipher = Cipher.getInstance ("AES/CBC/PKCS5Padding");
+                cipher.init (Cipher.ENCRYPT_MODE, key);
+                return cipher;
+            }
+        };
+    }
+    
+    @Test
+    public void prepare_doesNotTouchKeystoreOnCallingThread () throws Exception {
+        mPreparer.setListener (mListener);
+        mPreparer.prepare (cipherTask ());
+        
+        assertEquals (0, mSpi.generateCount.get ());
+        assertEquals (KeyPreparer.State.PREPARING, mPreparer.getState ());
+        assertNull (mPreparer.getResult ());
+        
+        mBackground.runAll ();
+        assertEquals (1, mSpi.generateCount.get ());
+        // Result is only published once the callback executor runs.
+        assertTrue (mListener.results.isEmpty ());
+        assertEquals (KeyPreparer.State.PREPARING, mPreparer.getState ());
+        
+        mMain.runAll ();
+        assertEquals (KeyPreparer.State.READY, mPreparer.getState ());
+        assertEquals (1, mListener.results.size ());
+        assertSame (mPreparer.getResult (), mListener.results.get (0));
+    }
+    
+    @Test
+    public void listenerRegisteredAfterReady_isNotifiedImmediately () throws Exception {
+        mPreparer.prepare (cipherTask ());
+        mBackground.runAll ();
+        mMain.runAll ();
+        
+        mPreparer.setListener (mListener);
+        assertEquals (1, mListener.results.size ());
+        assertNotNull (mListener.results.get (0).getIV ());
+    }
+    
+    @Test
+    public void prepareIfIdle_keepsThePreparedResultAcrossReattach () throws Exception {
+        assertTrue (mPreparer.prepareIfIdle (cipherTask ()));
+        mBackground.runAll ();
+        mMain.runAll ();
+        Cipher prepared = mPreparer.getResult ();
+        
+        // A rotation: the retained host detaches and attaches again.
+        mPreparer.setListener (null);
+        assertFalse (mPreparer.prepareIfIdle (cipherTask ()));
+        mPreparer.setListener (mListener);
+        
+        assertEquals (0, mBackground.size ());
+        assertEquals (1, mSpi.generateCount.get ());
+        assertSame (prepared, mListener.results.get (0));
+    }
+    
+    @Test
+    public void laterPrepare_supersedesEarlierResult () throws Exception {
+        mPreparer.setListener (mListener);
+        mPreparer.prepare (cipherTask ());
+        mBackground.runAll ();
+        mPreparer.prepare (cipherTask ());
+        mBackground.runAll ();
+        mMain.runAll ();
+        
+        assertEquals (2, mSpi.generateCount.get ());
+        assertEquals (1, mListener.results.size ());
+        assertSame (mPreparer.getResult (), mListener.results.get (0));
+    }
+    
+    @Test
+    public void cancelBeforeStart_skipsKeystoreWork () throws Exception {
+        mPreparer.setListener (mListener);
+        mPreparer.prepare (cipherTask ());
+        mPreparer.cancel ();
+        mBackground.runAll ();
+        mMain.runAll ();
+        
+        assertEquals (0, mSpi.generateCount.get ());
+        assertEquals (KeyPreparer.State.IDLE, mPreparer.getState ());
+        assertTrue (mListener.results.isEmpty ());
+    }
+    
+    @Test
+    public void cancelWhileRunning_dropsResult () throws Exception {
+        ExecutorService background = Executors.newSingleThreadExecutor ();
+        final CountDownLatch started = new CountDownLatch (1);
+        final CountDownLatch release = new CountDownLatch (1);
+        final KeyPreparer.Task<Cipher> inner = cipherTask ();
+        KeyPreparer<Cipher> preparer = new KeyPreparer<> (background, mMain);
+        preparer.setListener (mListener);
+        preparer.prepare (new KeyPreparer.Task<Cipher> () {
+            @Override
+            public Cipher prepare () throws Exception {
+                started.countDown ();
+                release.await ();
+                return inner.prepare ();
+            }
+        });
+        assertTrue (started.await (5, TimeUnit.SECONDS));
+        preparer.cancel ();
+        release.countDown ();
+        background.shutdown ();
+        assertTrue (background.awaitTermination (5, TimeUnit.SECONDS));
+        mMain.runAll ();
+        
+        assertEquals (1, mSpi.generateCount.get ());
+        assertEquals (KeyPreparer.State.IDLE, preparer.getState ());
+        assertNull (preparer.getResult ());
+        assertTrue (mListener.results.isEmpty ());
+    }
+    
+    @Test
+    public void failure_isReportedOnCallbackExecutor () throws Exception {
+        mPreparer.setListener (mListener);
+        mPreparer.prepare (new KeyPreparer.Task<Cipher> () {
+            @Override
+            public Cipher prepare () throws Exception {
+                // Nothing generated yet, so the fake keystore returns no key.
+                SecretKey key = (SecretKey) mKeyStore.getKey (ALIAS, null);
+                Cipher cipher = Cipher.getInstance ("AES/CBC/PKCS5Padding");
+                cipher.init (Cipher.ENCRYPT_MODE, key);
+                return cipher;
+            }
+        });
+        mBackground.runAll ();
+        assertTrue (mListener.errors.isEmpty ());
+        mMain.runAll ();
+        
+        assertEquals (KeyPreparer.State.FAILED, mPreparer.getState ());
+        assertEquals (1, mListener.errors.size ());
+        
+        mPreparer.prepare (cipherTask ());
+        mBackground.runAll ();
+        mMain.runAll ();
+        assertEquals (KeyPreparer.State.READY, mPreparer.getState ());
+        assertNotNull (mPreparer.getResult ());
+    }
+    
+    private static class RecordingListener implements KeyPreparer.Listener<Cipher> {
+        final List<Cipher> results = new ArrayList<> ();
+        final List<Exception> errors = new ArrayList<> ();
+        
+        @Override
+        public void onPrepared (Cipher result) {
+            results.add (result);
+        }
+        
+        @Override
+        public void onFailed (Exception e) {
+            errors.add (e);
+        }
+    }
+}
\ No newline at end of file
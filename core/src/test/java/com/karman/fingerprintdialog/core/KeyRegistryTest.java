@@ -0,0 +1,159 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyRegistryTest {
+    
+    private static final String ACCOUNT = "alice";
+    
+    private SoftwareKeyProvider mProvider;
+    private KeyLifecycleManager mKeyManager;
+    private QueueExecutor mBackground;
+    private KeyRegistry mRegistry;
+    
+    @Before
+    public void setUp () {
+        mProvider = new SoftwareKeyProvider (128);
+        mKeyManager = new KeyLifecycleManager (mProvider);
+        mBackground = new QueueExecutor ();
+        mRegistry = new KeyRegistry (mKeyManager, mBackground);
+    }
+    
+    @Test
+    public void aliases_areDistinctPerAccountAndPurpose () {
+        assertEquals ("payment_alice", mRegistry.register (ACCOUNT, KeyRegistry.Purpose.PAYMENT));
+        assertEquals ("vault_alice", mRegistry.register (ACCOUNT, KeyRegistry.Purpose.VAULT));
+        assertEquals ("payment_bob", mRegistry.register ("bob", KeyRegistry.Purpose.PAYMENT));
+    }
+    
+    @Test
+    public void pregenerate_createsEveryRegisteredKeyInTheBackground () throws Exception {
+        String payment = mRegistry.register (ACCOUNT, KeyRegistry.Purpose.PAYMENT);
+        String vault = mRegistry.register (ACCOUNT, KeyRegistry.Purpose.VAULT);
+        mRegistry.register (ACCOUNT, KeyRegistry.Purpose.SIGN_IN);
+        
+        assertEquals (3, mRegistry.pregenerate ());
+        assertEquals (KeyRegistry.State.GENERATING, mRegistry.getState (payment));
+        assertFalse (mProvider.containsKey (payment));
+        // Already queued, so nothing new.
+        assertEquals (0, mRegistry.pregenerate ());
+        
+        assertEquals (3, mBackground.runAll ());
+        
+        assertTrue (mRegistry.isReady (payment));
+        assertTrue (mRegistry.isReady (vault));
+        assertEquals (3, mKeyManager.getStats ().keygenCount);
+        assertEquals (0, mRegistry.pregenerate ());
+    }
+    
+    @Test
+    public void initCipher_onReadyKey_needsNoKeygen () throws Exception {
+        String payment = mRegistry.register (ACCOUNT, KeyRegistry.Purpose.PAYMENT);
+        mRegistry.pregenerate ();
+        mBackground.runAll ();
+        int misses = mKeyManager.getCipherPool ().getMisses ();
+        
+        assertNotNull (mRegistry.initCipher (payment, Cipher.ENCRYPT_MODE));
+        
+        assertEquals (1, mKeyManager.getStats ().keygenCount);
+        // The trial init during pre-generation left a cipher in the pool.
+        assertEquals (misses, mKeyManager.getCipherPool ().getMisses ());
+    }
+    
+    @Test
+    public void pregenerate_detectsInvalidatedKeys_andSkipsThemUntilRecreated () throws Exception {
+        String payment = mRegistry.register (ACCOUNT, KeyRegistry.Purpose.PAYMENT);
+        mProvider.generateKey (payment);
+        mProvider.invalidateKey (payment);
+        
+        mRegistry.pregenerate ();
+        mBackground.runAll ();
+        
+        assertEquals (KeyRegistry.State.INVALIDATED, mRegistry.getState (payment));
+        assertEquals (0, mRegistry.pregenerate ());
+        try {
+            mRegistry.initCipher (payment, Cipher.ENCRYPT_MODE);
+            fail ("Expected KeyInvalidatedException");
+        } catch (KeyInvalidatedException expected) {
+        }
+        
+        mRegistry.recreateKey (payment);
+        
+        assertTrue (mRegistry.isReady (payment));
+        assertNotNull (mRegistry.initCipher (payment, Cipher.ENCRYPT_MODE));
+    }
+    
+    @Test
+    public void markInvalidated_blocksTheKeyUntilRecreated () throws Exception {
+        String payment = mRegistry.register (ACCOUNT, KeyRegistry.Purpose.PAYMENT);
+        mRegistry.initCipher (payment, Cipher.ENCRYPT_MODE);
+        assertTrue (mRegistry.isReady (payment));
+        
+        mRegistry.markInvalidated (payment);
+        
+        assertFalse (mRegistry.isReady (payment));
+        try {
+            mRegistry.initCipher (payment, Cipher.ENCRYPT_MODE);
+            fail ("Expected KeyInvalidatedException");
+        } catch (KeyInvalidatedException expected) {
+        }
+    }
+    
+    @Test
+    public void backgroundKeygen_doesNotBlockReadyKeys () throws Exception {
+        final CountDownLatch keygenStarted = new CountDownLatch (1);
+        final CountDownLatch releaseKeygen = new CountDownLatch (1);
+        final String slowAlias = KeyRegistry.alias (ACCOUNT, KeyRegistry.Purpose.VAULT);
+        SoftwareKeyProvider provider = new SoftwareKeyProvider (128) {
+            @Override
+            public void generateKey (String alias) throws GeneralSecurityException {
+                if (alias.equals (slowAlias)) {
+                    keygenStarted.countDown ();
+                    try {
+                        releaseKeygen.await ();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread ().interrupt ();
+                    }
+                }
+                super.generateKey (alias);
+            }
+        };
+        ExecutorService background = Executors.newSingleThreadExecutor ();
+        try {
+            KeyRegistry registry = new KeyRegistry (new KeyLifecycleManager (provider), background);
+            String payment = registry.register (ACCOUNT, KeyRegistry.Purpose.PAYMENT);
+            registry.initCipher (payment, Cipher.ENCRYPT_MODE);
+            registry.register (ACCOUNT, KeyRegistry.Purpose.VAULT);
+            
+            registry.pregenerate ();
+            assertTrue (keygenStarted.await (5, TimeUnit.SECONDS));
+            
+            // The vault keygen is still running; the payment key must not wait for it.
+            assertNotNull (registry.initCipher (payment, Cipher.ENCRYPT_MODE));
+            assertEquals (KeyRegistry.State.GENERATING, registry.getState (slowAlias));
+            
+            releaseKeygen.countDown ();
+            background.shutdown ();
+            assertTrue (background.awaitTermination (5, TimeUnit.SECONDS));
+            assertTrue (registry.isReady (slowAlias));
+        } finally {
+            releaseKeygen.countDown ();
+            background.shutdownNow ();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,128 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyRecorderTest {
+    
+    private static final LatencyRecorder.Stage STAGE = LatencyRecorder.Stage.TIME_TO_UNLOCK;
+    
+    @Test
+    public void buckets_coverEveryValueWithBoundedError () {
+        int previous = -1;
+        for (long micros = 0; micros < 5000000; micros += 1 + micros / 50) {
+            int bucket = LatencyRecorder.bucketOf (micros * 1000);
+            assertTrue (bucket >= previous);
+            assertTrue (bucket < LatencyRecorder.BUCKETS);
+            long upper = LatencyRecorder.upperBoundMicros (bucket);
+            assertTrue (micros + " -> " + upper, upper >= micros && upper <= micros + micros / 8 + 1);
+            previous = bucket;
+        }
+        assertEquals (LatencyRecorder.BUCKETS - 1, LatencyRecorder.bucketOf (Long.MAX_VALUE));
+        assertEquals (0, LatencyRecorder.bucketOf (-5));
+    }
+    
+    @Test
+    public void percentiles_matchUniformDistribution () {
+        LatencyRecorder recorder = new LatencyRecorder ();
+        for (int ms = 1; ms <= 1000; ms++) {
+            recorder.record (STAGE, TimeUnit.MILLISECONDS.toNanos (ms));
+        }
+        assertEquals (1000, recorder.getCount (STAGE));
+        assertWithin (500, recorder.getPercentileNanos (STAGE, 50));
+        assertWithin (950, recorder.getPercentileNanos (STAGE, 95));
+        assertWithin (990, recorder.getPercentileNanos (STAGE, 99));
+        assertEquals (TimeUnit.MILLISECONDS.toNanos (1000), recorder.getMaxNanos (STAGE));
+        assertEquals (TimeUnit.MICROSECONDS.toNanos (500500), recorder.getMeanNanos (STAGE));
+        assertEquals (0, recorder.getCount (LatencyRecorder.Stage.DO_FINAL));
+        
+        recorder.reset ();
+        assertEquals (0, recorder.getCount (STAGE));
+        assertEquals (0, recorder.getPercentileNanos (STAGE, 50));
+    }
+    
+    @Test
+    public void spans_areTracedAndForwardedToSink () {
+        final List<String> events = new ArrayList<> ();
+        LatencyRecorder recorder = new LatencyRecorder (new LatencyRecorder.Tracer () {
+            @Override
+            public void beginSection (String name) {
+                events.add ("begin " + name);
+            }
+            
+            @Override
+            public void endSection () {
+                events.add ("end");
+            }
+        });
+        recorder.setSink (new LatencyRecorder.MetricsSink () {
+            @Override
+            public void onLatency (LatencyRecorder.Stage stage, long nanos) {
+                events.add ("sink " + stage);
+            }
+        });
+        
+        long start = recorder.begin (LatencyRecorder.Stage.CIPHER_INIT);
+        recorder.end (LatencyRecorder.Stage.CIPHER_INIT, start);
+        recorder.record (LatencyRecorder.Stage.SENSOR_WAIT, 5);
+        
+        assertEquals ("[begin auth:cipher_init, end, sink CIPHER_INIT, sink SENSOR_WAIT]", events.toString ());
+    }
+    
+    @Test
+    public void concurrentRecording_losesNoSamples () throws Exception {
+        final LatencyRecorder recorder = new LatencyRecorder ();
+        final int threads = 8;
+        final int perThread = 50000;
+        final CountDownLatch done = new CountDownLatch (threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread (new Runnable () {
+                @Override
+                public void run () {
+                    for (int i = 0; i < perThread; i++) {
+                        recorder.record (STAGE, i * 1000L);
+                    }
+                    done.countDown ();
+                }
+            }).start ();
+        }
+        assertTrue (done.await (30, TimeUnit.SECONDS));
+        assertEquals (threads * perThread, recorder.getCount (STAGE));
+        assertEquals ((perThread - 1) * 1000L, recorder.getMaxNanos (STAGE));
+    }
+    
+    @Test
+    public void record_doesNotAllocate () {
+        Assume.assumeTrue (ManagementFactory.getThreadMXBean () instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+        LatencyRecorder recorder = new LatencyRecorder ();
+        recordMany (recorder);
+        
+        long before = threads.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+        recordMany (recorder);
+        long allocated = threads.getThreadAllocatedBytes (Thread.currentThread ().getId ()) - before;
+        assertTrue ("allocated " + allocated + " bytes", allocated < 1024);
+    }
+    
+    private static void recordMany (LatencyRecorder recorder) {
+        for (int i = 0; i < 100000; i++) {
+            long start = recorder.begin (STAGE);
+            recorder.end (STAGE, start - i);
+        }
+    }
+    
+    private static void assertWithin (long expectedMillis, long actualNanos) {
+        long expected = TimeUnit.MILLISECONDS.toNanos (expectedMillis);
+        assertTrue (expectedMillis + "ms vs " + actualNanos + "ns",
+                actualNanos >= expected && actualNanos <= expected + expected / 8);
+    }
+}
\ No newline at end of file
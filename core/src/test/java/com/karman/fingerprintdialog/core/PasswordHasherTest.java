@@ -0,0 +1,74 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PasswordHasherTest {
+    
+    private final PasswordHasher mHasher = new PasswordHasher (PasswordHasher.MIN_ITERATIONS);
+    
+    @Test
+    public void verify_acceptsOnlyTheHashedPassword () {
+        PasswordHasher.Hash hash = mHasher.hash ("123456".toCharArray ());
+        assertTrue (PasswordHasher.verify ("123456".toCharArray (), hash));
+        assertFalse (PasswordHasher.verify ("123457".toCharArray (), hash));
+        assertFalse (PasswordHasher.verify ("".toCharArray (), hash));
+    }
+    
+    @Test
+    public void hash_isSalted () {
+        assertNotEquals (mHasher.hash ("123456".toCharArray ()).encode (), mHasher.hash ("123456".toCharArray ()).encode ());
+    }
+    
+    @Test
+    public void encode_roundTripsAndKeepsIterations () {
+        PasswordHasher.Hash hash = new PasswordHasher (1500).hash ("secret".toCharArray ());
+        PasswordHasher.Hash decoded = PasswordHasher.Hash.decode (hash.encode ());
+        assertEquals (hash, decoded);
+        assertEquals (1500, decoded.getIterations ());
+        assertTrue (PasswordHasher.verify ("secret".toCharArray (), decoded));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsMalformed () {
+        PasswordHasher.Hash.decode ("1000:abc");
+    }
+    
+    @Test
+    public void decode_rejectsCorruptFields () {
+        String good = new PasswordHasher (1000).hash ("secret".toCharArray ()).encode ();
+        String[] parts = good.split (":");
+        String[] corrupt = {
+                "0:" + parts[1] + ":" + parts[2],
+                "x:" + parts[1] + ":" + parts[2],
+                parts[0] + "::" + parts[2],
+                parts[0] + ":" + parts[1] + ":" + parts[2].substring (2),
+                parts[0] + ":zz:" + parts[2],
+        };
+        for (String encoded : corrupt) {
+            try {
+                PasswordHasher.Hash.decode (encoded);
+                fail ("Accepted " + encoded);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+    
+    @Test
+    public void constantTimeEquals () {
+        assertTrue (PasswordHasher.constantTimeEquals (new byte[] {1, 2, 3}, new byte[] {1, 2, 3}));
+        assertFalse (PasswordHasher.constantTimeEquals (new byte[] {1, 2, 3}, new byte[] {1, 2, 4}));
+        assertFalse (PasswordHasher.constantTimeEquals (new byte[] {1, 2, 3}, new byte[] {1, 2}));
+    }
+    
+    @Test
+    public void calibrate_neverGoesBelowFloor () {
+        assertEquals (PasswordHasher.MIN_CALIBRATED_ITERATIONS, PasswordHasher.calibrate (0));
+        assertTrue (PasswordHasher.calibrate (250) > PasswordHasher.MIN_CALIBRATED_ITERATIONS);
+    }
+}
\ No newline at end of file
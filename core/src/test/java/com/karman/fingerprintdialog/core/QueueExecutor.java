@@ -0,0 +1,45 @@
+package com.karman.fingerprintdialog.core;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that only runs work when the test says so, to make thread hand-offs deterministic.
+ */
+public class QueueExecutor implements Executor {
+    
+    private final Queue<Runnable> mQueue = new ArrayDeque<> ();
+    
+    @Override
+    public synchronized void execute (Runnable command) {
+        mQueue.add (command);
+    }
+    
+    public int runAll () {
+        int count = 0;
+        Runnable next;
+        while ((next = poll ()) != null) {
+            next.run ();
+            count++;
+        }
+        return count;
+    }
+    
+    public boolean runNext () {
+        Runnable next = poll ();
+        if (next == null) {
+            return false;
+        }
+        next.run ();
+        return true;
+    }
+    
+    public synchronized int size () {
+        return mQueue.size ();
+    }
+    
+    private synchronized Runnable poll () {
+        return mQueue.poll ();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,333 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SecureVaultTest {
+    
+    private static final Charset UTF_8 = Charset.forName ("UTF-8");
+    
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder ();
+    
+    private SecretKey mKeystoreKey;
+    private QueueExecutor mCompaction;
+    private File mFile;
+    private SecureVault mVault;
+    
+    @Before
+    public void setUp () throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance ("AES");
+        keyGenerator.init (128);
+        mKeystoreKey = keyGenerator.generateKey ();
+        mCompaction = new QueueExecutor ();
+        mFile = new File (mFolder.getRoot (), "vault.bin");
+        mVault = SecureVault.create (mFile, authorized (Cipher.ENCRYPT_MODE, null), mCompaction);
+    }
+    
+    @After
+    public void tearDown () throws Exception {
+        mVault.close ();
+    }
+    
+    @Test
+    public void values_surviveReopenAndUnlock () throws Exception {
+        mVault.put ("card", bytes ("4111-1111"));
+        mVault.put ("pin", bytes ("0000"));
+        assertArrayEquals (bytes ("4111-1111"), mVault.get ("card"));
+        
+        reopen ();
+        
+        assertFalse (mVault.isUnlocked ());
+        assertEquals (2, mVault.size ());
+        unlock ();
+        assertArrayEquals (bytes ("4111-1111"), mVault.get ("card"));
+        assertArrayEquals (bytes ("0000"), mVault.get ("pin"));
+        assertNull (mVault.get ("missing"));
+    }
+    
+    @Test
+    public void lockedVault_refusesReads () throws Exception {
+        mVault.put ("card", bytes ("4111-1111"));
+        mVault.lock ();
+        
+        try {
+            mVault.get ("card");
+            fail ("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        unlock ();
+        assertArrayEquals (bytes ("4111-1111"), mVault.get ("card"));
+    }
+    
+    @Test
+    public void overwriteAndRemove_areReplayedOnOpen () throws Exception {
+        mVault.put ("card", bytes ("old"));
+        mVault.put ("card", bytes ("new"));
+        mVault.put ("pin", bytes ("0000"));
+        assertTrue (mVault.remove ("pin"));
+        assertFalse (mVault.remove ("pin"));
+        
+        reopen ();
+        unlock ();
+        
+        assertEquals (1, mVault.size ());
+        assertArrayEquals (bytes ("new"), mVault.get ("card"));
+        assertNull (mVault.get ("pin"));
+        assertTrue (mVault.getGarbageBytes () > 0);
+    }
+    
+    @Test
+    public void lookups_areServedFromTheCacheUntilLocked () throws Exception {
+        mVault.put ("card", bytes ("4111-1111"));
+        reopen ();
+        unlock ();
+        
+        mVault.get ("card");
+        mVault.get ("card");
+        byte[] copy = mVault.get ("card");
+        copy[0] = 0;
+        
+        assertEquals (1, mVault.getCacheMisses ());
+        assertEquals (2, mVault.getCacheHits ());
+        assertArrayEquals (bytes ("4111-1111"), mVault.get ("card"));
+        
+        mVault.lock ();
+        unlock ();
+        mVault.get ("card");
+        assertEquals (2, mVault.getCacheMisses ());
+    }
+    
+    @Test
+    public void cache_isBoundedBySize () throws Exception {
+        for (String name : new String[] {"a", "b", "c"}) {
+            mVault.put (name, new byte[40]);
+        }
+        mVault.close ();
+        mVault = SecureVault.open (mFile, mCompaction, 100);
+        unlock ();
+        
+        mVault.get ("a");
+        mVault.get ("b");
+        mVault.get ("c");
+        // a was the eldest of three 40-byte values in a 100-byte cache.
+        mVault.get ("c");
+        mVault.get ("a");
+        
+        assertEquals (4, mVault.getCacheMisses ());
+        assertEquals (1, mVault.getCacheHits ());
+    }
+    
+    @Test
+    public void tamperedRecord_failsAuthentication () throws Exception {
+        int start = mVault.getFileBytes ();
+        mVault.put ("card", bytes ("4111-1111"));
+        int end = mVault.getFileBytes ();
+        mVault.close ();
+        // A deliberate edit, with the CRC fixed up so the record is not dropped as torn.
+        flipByte (end - 1);
+        fixCrc (start, end);
+        
+        mVault = SecureVault.open (mFile, mCompaction);
+        unlock ();
+        try {
+            mVault.get ("card");
+            fail ("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+    
+    @Test
+    public void corruptRecord_isDroppedLikeATornWrite () throws Exception {
+        mVault.put ("card", bytes ("4111-1111"));
+        int intact = mVault.getFileBytes ();
+        mVault.put ("pin", bytes ("0000"));
+        int end = mVault.getFileBytes ();
+        mVault.close ();
+        flipByte (end - 1);
+        
+        mVault = SecureVault.open (mFile, mCompaction);
+        unlock ();
+        
+        assertEquals (intact, mVault.getFileBytes ());
+        assertEquals (1, mVault.size ());
+        assertNull (mVault.get ("pin"));
+    }
+    
+    @Test
+    public void wrongKey_cannotUnlock () throws Exception {
+        mVault.close ();
+        mVault = SecureVault.open (mFile, mCompaction);
+        KeyGenerator keyGenerator = KeyGenerator.getInstance ("AES");
+        keyGenerator.init (128);
+        mKeystoreKey = keyGenerator.generateKey ();
+        
+        try {
+            unlock ();
+            fail ("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException expected) {
+        }
+        assertFalse (mVault.isUnlocked ());
+    }
+    
+    @Test
+    public void truncatedTail_dropsOnlyTheTornRecord () throws Exception {
+        mVault.put ("card", bytes ("4111-1111"));
+        int intact = mVault.getFileBytes ();
+        mVault.put ("pin", bytes ("0000"));
+        mVault.close ();
+        RandomAccessFile raf = new RandomAccessFile (mFile, "rw");
+        try {
+            raf.setLength (intact + 10);
+        } finally {
+            raf.close ();
+        }
+        
+        reopen ();
+        unlock ();
+        
+        assertEquals (intact, mVault.getFileBytes ());
+        assertArrayEquals (bytes ("4111-1111"), mVault.get ("card"));
+        assertNull (mVault.get ("pin"));
+        
+        mVault.put ("pin", bytes ("1234"));
+        reopen ();
+        unlock ();
+        assertArrayEquals (bytes ("1234"), mVault.get ("pin"));
+    }
+    
+    @Test
+    public void compaction_runsInTheBackgroundAndKeepsLiveValues () throws Exception {
+        byte[] value = new byte[1024];
+        for (int i = 0; mCompaction.size () == 0; i++) {
+            Arrays.fill (value, (byte) i);
+            mVault.put ("hot", value);
+            mVault.put ("cold-" + (i % 4), value);
+            assertTrue ("compaction never queued", i < 1000);
+        }
+        int before = mVault.getFileBytes ();
+        byte[] hot = mVault.get ("hot");
+        
+        assertEquals (1, mCompaction.runAll ());
+        
+        assertEquals (0, mVault.getGarbageBytes ());
+        assertTrue (mVault.getFileBytes () < before / 2);
+        assertEquals (5, mVault.size ());
+        assertArrayEquals (hot, mVault.get ("hot"));
+        mVault.put ("after", bytes ("compaction"));
+        
+        reopen ();
+        unlock ();
+        assertEquals (6, mVault.size ());
+        assertArrayEquals (hot, mVault.get ("hot"));
+        assertArrayEquals (bytes ("compaction"), mVault.get ("after"));
+        assertFalse (new File (mFile.getPath () + ".compact").exists ());
+    }
+    
+    @Test
+    public void writesDuringCompaction_areCarriedOver () throws Exception {
+        for (int i = 0; i < 200; i++) {
+            mVault.put ("key-" + (i % 10), new byte[256]);
+        }
+        final Exception[] failure = new Exception[1];
+        Thread compactor = new Thread (new Runnable () {
+            @Override
+            public void run () {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        mVault.compact ();
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        compactor.start ();
+        for (int i = 0; i < 500; i++) {
+            mVault.put ("key-" + (i % 10), bytes ("value-" + i));
+        }
+        compactor.join ();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        
+        reopen ();
+        unlock ();
+        assertEquals (10, mVault.size ());
+        for (int i = 490; i < 500; i++) {
+            assertArrayEquals (bytes ("value-" + i), mVault.get ("key-" + (i % 10)));
+        }
+    }
+    
+    private void reopen () throws Exception {
+        mVault.close ();
+        mVault = SecureVault.open (mFile, mCompaction);
+    }
+    
+    private void unlock () throws GeneralSecurityException {
+        mVault.unlock (authorized (Cipher.DECRYPT_MODE, mVault.getWrappedKey ().getIv ()));
+    }
+    
+    private Cipher authorized (int opmode, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance (SoftwareKeyProvider.TRANSFORMATION);
+        if (iv == null) {
+            cipher.init (opmode, mKeystoreKey);
+        } else {
+            cipher.init (opmode, mKeystoreKey, new IvParameterSpec (iv));
+        }
+        return cipher;
+    }
+    
+    private void flipByte (long position) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile (mFile, "rw");
+        try {
+            raf.seek (position);
+            int b = raf.read ();
+            raf.seek (position);
+            raf.write (b ^ 0xff);
+        } finally {
+            raf.close ();
+        }
+    }
+    
+    private void fixCrc (int start, int end) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile (mFile, "rw");
+        try {
+            byte[] body = new byte[end - start - 8];
+            raf.seek (start + 8);
+            raf.readFully (body);
+            CRC32 crc = new CRC32 ();
+            crc.update (body);
+            raf.seek (start + 4);
+            raf.writeInt ((int) crc.getValue ());
+        } finally {
+            raf.close ();
+        }
+    }
+    
+    private static byte[] bytes (String value) {
+        return value.getBytes (UTF_8);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,235 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SegmentedCipherTest {
+    
+    private static final int SEGMENT_SIZE = 1024;
+    
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder ();
+    
+    private ForkJoinPool mPool;
+    private SecretKey mKeystoreKey;
+    private SegmentedCipher mCipher;
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    
+    @Before
+    public void setUp () throws Exception {
+        mPool = new ForkJoinPool (4);
+        KeyGenerator keyGenerator = KeyGenerator.getInstance ("AES");
+        keyGenerator.init (128);
+        mKeystoreKey = keyGenerator.generateKey ();
+        mCipher = new SegmentedCipher (mPool, SEGMENT_SIZE);
+        mRaf = new RandomAccessFile (new File (mFolder.getRoot (), "payload.seg"), "rw");
+        mChannel = mRaf.getChannel ();
+    }
+    
+    @After
+    public void tearDown () throws Exception {
+        mRaf.close ();
+        mPool.shutdown ();
+    }
+    
+    @Test
+    public void roundTrip_acrossManySegments () throws Exception {
+        byte[] payload = payload (SEGMENT_SIZE * 37 + 123);
+        SegmentedCipher.Header written = mCipher.encrypt (authorized (Cipher.ENCRYPT_MODE, null),
+                ByteBuffer.wrap (payload), mChannel);
+        
+        assertEquals (38, written.getSegmentCount ());
+        assertEquals (written.getFileLength (), mChannel.size ());
+        assertArrayEquals (payload, decryptAll ());
+    }
+    
+    @Test
+    public void emptyPayload_isOneAuthenticatedSegment () throws Exception {
+        mCipher.encrypt (authorized (Cipher.ENCRYPT_MODE, null), ByteBuffer.allocate (0), mChannel);
+        
+        SegmentedCipher.Header header = SegmentedCipher.readHeader (mChannel);
+        assertEquals (1, header.getSegmentCount ());
+        assertEquals (0, decryptAll ().length);
+    }
+    
+    @Test
+    public void singleSegment_decryptsWithoutTheRest () throws Exception {
+        byte[] payload = payload (SEGMENT_SIZE * 10 + 7);
+        mCipher.encrypt (authorized (Cipher.ENCRYPT_MODE, null), ByteBuffer.wrap (payload), mChannel);
+        SegmentedCipher.Header header = SegmentedCipher.readHeader (mChannel);
+        SecretKey dataKey = unwrap (header);
+        // Damage a different segment: random access must not notice.
+        flipByte (header.segmentOffset (2) + 5);
+        
+        ByteBuffer segment = mCipher.decryptSegment (dataKey, header, mChannel, 7);
+        assertArrayEquals (Arrays.copyOfRange (payload, 7 * SEGMENT_SIZE, 8 * SEGMENT_SIZE), bytes (segment));
+        
+        ByteBuffer last = mCipher.decryptSegment (dataKey, header, mChannel, 10);
+        assertArrayEquals (Arrays.copyOfRange (payload, 10 * SEGMENT_SIZE, payload.length), bytes (last));
+    }
+    
+    @Test
+    public void tamperedSegment_failsAuthentication () throws Exception {
+        mCipher.encrypt (authorized (Cipher.ENCRYPT_MODE, null), ByteBuffer.wrap (payload (SEGMENT_SIZE * 8)), mChannel);
+        SegmentedCipher.Header header = SegmentedCipher.readHeader (mChannel);
+        flipByte (header.segmentOffset (3) + 1);
+        
+        try {
+            decryptAll ();
+            fail ("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException expected) {
+        }
+        try {
+            mCipher.decryptSegment (unwrap (header), header, mChannel, 3);
+            fail ("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+    
+    @Test
+    public void swappedSegments_failAuthentication () throws Exception {
+        mCipher.encrypt (authorized (Cipher.ENCRYPT_MODE, null), ByteBuffer.wrap (payload (SEGMENT_SIZE * 4)), mChannel);
+        SegmentedCipher.Header header = SegmentedCipher.readHeader (mChannel);
+        int sealedLength = SEGMENT_SIZE + SegmentedCipher.TAG_LENGTH;
+        ByteBuffer first = ByteBuffer.allocate (sealedLength);
+        ByteBuffer second = ByteBuffer.allocate (sealedLength);
+        SegmentedCipher.readFully (mChannel, first, header.segmentOffset (0));
+        SegmentedCipher.readFully (mChannel, second, header.segmentOffset (1));
+        SegmentedCipher.writeFully (mChannel, second, header.segmentOffset (0));
+        SegmentedCipher.writeFully (mChannel, first, header.segmentOffset (1));
+        
+        try {
+            mCipher.decryptSegment (unwrap (header), header, mChannel, 0);
+            fail ("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+    
+    @Test
+    public void truncatedFile_isReported () throws Exception {
+        mCipher.encrypt (authorized (Cipher.ENCRYPT_MODE, null), ByteBuffer.wrap (payload (SEGMENT_SIZE * 4)), mChannel);
+        mChannel.truncate (mChannel.size () - 10);
+        
+        try {
+            decryptAll ();
+            fail ("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+    
+    @Test
+    public void corruptHeader_failsBeforeAnySegmentIsTouched () throws Exception {
+        mCipher.encrypt (authorized (Cipher.ENCRYPT_MODE, null), ByteBuffer.wrap (payload (SEGMENT_SIZE * 4)), mChannel);
+        // segmentSize(4) at offset 5, plaintextLength(8) at offset 9.
+        SegmentedCipher.writeFully (mChannel, ByteBuffer.allocate (4).putInt (0, Integer.MAX_VALUE), 5);
+        try {
+            SegmentedCipher.readHeader (mChannel);
+            fail ("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException expected) {
+        }
+        
+        SegmentedCipher.writeFully (mChannel, ByteBuffer.allocate (4).putInt (0, SEGMENT_SIZE), 5);
+        SegmentedCipher.writeFully (mChannel, ByteBuffer.allocate (8).putLong (0, Long.MAX_VALUE), 9);
+        try {
+            SegmentedCipher.readHeader (mChannel);
+            fail ("Expected GeneralSecurityException");
+        } catch (GeneralSecurityException expected) {
+        }
+        
+        // More segments than the file holds.
+        SegmentedCipher.writeFully (mChannel, ByteBuffer.allocate (8).putLong (0, SEGMENT_SIZE * 40L), 9);
+        try {
+            SegmentedCipher.readHeader (mChannel);
+            fail ("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void oversizedSegments_areRejected () {
+        new SegmentedCipher (mPool, SegmentedCipher.MAX_SEGMENT_SIZE + 1);
+    }
+    
+    @Test
+    public void offsetBuffers_areHonouredAndLeftInPlace () throws Exception {
+        byte[] payload = payload (SEGMENT_SIZE * 3 + 1);
+        ByteBuffer in = ByteBuffer.allocate (payload.length + 16);
+        in.position (16);
+        in.put (payload);
+        in.position (16);
+        mCipher.encrypt (authorized (Cipher.ENCRYPT_MODE, null), in, mChannel);
+        assertEquals (16, in.position ());
+        
+        SegmentedCipher.Header header = SegmentedCipher.readHeader (mChannel);
+        ByteBuffer out = ByteBuffer.allocate (payload.length + 8);
+        out.position (8);
+        mCipher.decrypt (unwrap (header), header, mChannel, out);
+        
+        assertEquals (8, out.position ());
+        assertArrayEquals (payload, Arrays.copyOfRange (out.array (), 8, out.capacity ()));
+    }
+    
+    private byte[] decryptAll () throws Exception {
+        SegmentedCipher.Header header = SegmentedCipher.readHeader (mChannel);
+        ByteBuffer out = ByteBuffer.allocate ((int) header.getPlaintextLength ());
+        mCipher.decrypt (unwrap (header), header, mChannel, out);
+        return out.array ();
+    }
+    
+    private SecretKey unwrap (SegmentedCipher.Header header) throws GeneralSecurityException {
+        return mCipher.unwrapKey (authorized (Cipher.DECRYPT_MODE, header.getWrappedKey ().getIv ()), header);
+    }
+    
+    private Cipher authorized (int opmode, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance (SoftwareKeyProvider.TRANSFORMATION);
+        if (iv == null) {
+            cipher.init (opmode, mKeystoreKey);
+        } else {
+            cipher.init (opmode, mKeystoreKey, new IvParameterSpec (iv));
+        }
+        return cipher;
+    }
+    
+    private void flipByte (long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate (1);
+        mChannel.read (b, position);
+        b.put (0, (byte) (b.get (0) ^ 0xff));
+        b.rewind ();
+        mChannel.write (b, position);
+    }
+    
+    private static byte[] payload (int length) {
+        byte[] payload = new byte[length];
+        new Random (42).nextBytes (payload);
+        return payload;
+    }
+    
+    private static byte[] bytes (ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining ()];
+        buffer.duplicate ().get (bytes);
+        return bytes;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,206 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensorSessionTest {
+    
+    private static final String CRYPTO = "crypto";
+    
+    /** Counts sensor starts and cancels; the test fires the callbacks. */
+    private static class FakeAuthenticator implements Authenticator<String> {
+        Callback<String> mCallback;
+        int mAuthenticateCount;
+        int mCancelCount;
+        
+        @Override
+        public boolean isAvailable () {
+            return true;
+        }
+        
+        @Override
+        public void authenticate (String crypto, Callback<String> callback) {
+            mCallback = callback;
+            mAuthenticateCount++;
+        }
+        
+        @Override
+        public void cancel () {
+            mCallback = null;
+            mCancelCount++;
+        }
+    }
+    
+    private static class RecordingCallback implements Authenticator.Callback<String> {
+        final List<String> mEvents = new ArrayList<> ();
+        
+        @Override
+        public void onAuthenticationSucceeded (String crypto) {
+            mEvents.add ("succeeded:" + crypto);
+        }
+        
+        @Override
+        public void onAuthenticationFailed () {
+            mEvents.add ("failed");
+        }
+        
+        @Override
+        public void onAuthenticationHelp (int helpCode, CharSequence helpString) {
+            mEvents.add ("help:" + helpCode);
+        }
+        
+        @Override
+        public void onAuthenticationError (int errorCode, CharSequence errString) {
+            mEvents.add ("error:" + errorCode);
+        }
+    }
+    
+    private static class RecordingEarlyListener implements SensorSession.EarlyMatchListener<String> {
+        final List<String> mMatches = new ArrayList<> ();
+        
+        @Override
+        public void onEarlyMatch (String crypto) {
+            mMatches.add (crypto);
+        }
+    }
+    
+    private FakeAuthenticator mAuthenticator;
+    private SensorSession<String> mSession;
+    
+    @Before
+    public void setUp () {
+        mAuthenticator = new FakeAuthenticator ();
+        mSession = new SensorSession<> (mAuthenticator);
+    }
+    
+    @Test
+    public void rotation_rebindsWithoutRestartingTheSensor () {
+        RecordingCallback before = new RecordingCallback ();
+        assertTrue (mSession.listen (CRYPTO, before));
+        
+        mSession.park ();
+        RecordingCallback after = new RecordingCallback ();
+        assertFalse (mSession.listen (CRYPTO, after));
+        
+        assertEquals (1, mAuthenticator.mAuthenticateCount);
+        assertEquals (0, mAuthenticator.mCancelCount);
+        assertEquals (1, mSession.getStartCount ());
+        mAuthenticator.mCallback.onAuthenticationFailed ();
+        assertTrue (before.mEvents.isEmpty ());
+        assertEquals (1, after.mEvents.size ());
+    }
+    
+    @Test
+    public void eventsWhileParked_areReplayedInOrderToTheNewUi () {
+        mSession.listen (CRYPTO, new RecordingCallback ());
+        mSession.park ();
+        mAuthenticator.mCallback.onAuthenticationHelp (1, "Partial");
+        mAuthenticator.mCallback.onAuthenticationFailed ();
+        mAuthenticator.mCallback.onAuthenticationSucceeded (CRYPTO);
+        
+        RecordingCallback after = new RecordingCallback ();
+        assertFalse (mSession.listen (CRYPTO, after));
+        
+        assertEquals (1, mAuthenticator.mAuthenticateCount);
+        assertEquals ("[help:1, failed, succeeded:crypto]", after.mEvents.toString ());
+        assertFalse (mSession.isListening ());
+    }
+    
+    @Test
+    public void finishedSession_isStartedAgainOnNextListen () {
+        RecordingCallback callback = new RecordingCallback ();
+        mSession.listen (CRYPTO, callback);
+        mAuthenticator.mCallback.onAuthenticationError (7, "Lockout");
+        
+        assertTrue (mSession.listen (CRYPTO, callback));
+        assertEquals (2, mAuthenticator.mAuthenticateCount);
+    }
+    
+    @Test
+    public void newCrypto_restartsTheSensor () {
+        mSession.listen (CRYPTO, new RecordingCallback ());
+        mSession.park ();
+        
+        assertTrue (mSession.listen ("fresh", new RecordingCallback ()));
+        assertEquals (2, mAuthenticator.mAuthenticateCount);
+    }
+    
+    @Test
+    public void cancel_stopsTheSensorAndDropsParkedEvents () {
+        mSession.listen (CRYPTO, new RecordingCallback ());
+        mSession.park ();
+        mAuthenticator.mCallback.onAuthenticationFailed ();
+        
+        mSession.cancel ();
+        RecordingCallback after = new RecordingCallback ();
+        assertTrue (mSession.listen (CRYPTO, after));
+        
+        assertEquals (1, mAuthenticator.mCancelCount);
+        assertTrue (after.mEvents.isEmpty ());
+    }
+    
+    @Test
+    public void armedMatch_skipsTheUi () {
+        RecordingEarlyListener early = new RecordingEarlyListener ();
+        assertTrue (mSession.arm (CRYPTO, early));
+        mAuthenticator.mCallback.onAuthenticationFailed ();
+        mAuthenticator.mCallback.onAuthenticationSucceeded (CRYPTO);
+        
+        assertEquals ("[crypto]", early.mMatches.toString ());
+        assertFalse (mSession.isListening ());
+        // Nothing is left over for the UI that was on its way in.
+        RecordingCallback ui = new RecordingCallback ();
+        assertTrue (mSession.listen (CRYPTO, ui));
+        assertTrue (ui.mEvents.isEmpty ());
+    }
+    
+    @Test
+    public void eventsBeforeTheUi_areHandedToItWhenItBinds () {
+        RecordingEarlyListener early = new RecordingEarlyListener ();
+        mSession.arm (CRYPTO, early);
+        mAuthenticator.mCallback.onAuthenticationHelp (1, "Partial");
+        mAuthenticator.mCallback.onAuthenticationFailed ();
+        
+        RecordingCallback ui = new RecordingCallback ();
+        assertFalse (mSession.listen (CRYPTO, ui));
+        mAuthenticator.mCallback.onAuthenticationSucceeded (CRYPTO);
+        
+        assertEquals (1, mAuthenticator.mAuthenticateCount);
+        assertEquals ("[help:1, failed, succeeded:crypto]", ui.mEvents.toString ());
+        assertTrue (early.mMatches.isEmpty ());
+    }
+    
+    @Test
+    public void arm_isIgnoredWhileAUiIsBound () {
+        RecordingCallback ui = new RecordingCallback ();
+        mSession.listen (CRYPTO, ui);
+        RecordingEarlyListener early = new RecordingEarlyListener ();
+        
+        assertFalse (mSession.arm ("fresh", early));
+        mAuthenticator.mCallback.onAuthenticationSucceeded (CRYPTO);
+        
+        assertEquals (1, mAuthenticator.mAuthenticateCount);
+        assertEquals ("[succeeded:crypto]", ui.mEvents.toString ());
+        assertTrue (early.mMatches.isEmpty ());
+    }
+    
+    @Test
+    public void cancel_disarms () {
+        RecordingEarlyListener early = new RecordingEarlyListener ();
+        mSession.arm (CRYPTO, early);
+        Authenticator.Callback<String> sensor = mAuthenticator.mCallback;
+        
+        mSession.cancel ();
+        sensor.onAuthenticationSucceeded (CRYPTO);
+        
+        assertEquals (1, mAuthenticator.mCancelCount);
+        assertTrue (early.mMatches.isEmpty ());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,213 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingCipherTest {
+    
+    private static final String ALIAS = "default_key_name";
+    private static final int CHUNK = 1024;
+    
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder ();
+    
+    private KeyLifecycleManager mKeyManager;
+    private StreamingCipher mStreaming;
+    
+    @Before
+    public void setUp () throws Exception {
+        mKeyManager = new KeyLifecycleManager (new SoftwareKeyProvider ());
+        mStreaming = new StreamingCipher (CHUNK);
+    }
+    
+    private Cipher decryptCipher (Cipher encryptCipher) throws Exception {
+        Cipher cipher = mKeyManager.getProvider ().newCipher ();
+        cipher.init (Cipher.DECRYPT_MODE, mKeyManager.getKey (ALIAS), new IvParameterSpec (encryptCipher.getIV ()));
+        return cipher;
+    }
+    
+    private static byte[] random (int size) {
+        byte[] data = new byte[size];
+        new Random (size).nextBytes (data);
+        return data;
+    }
+    
+    @Test
+    public void stream_matchesOneShotDoFinal_andRoundTrips () throws Exception {
+        for (int size : new int[] {0, 1, 15, 16, CHUNK - 1, CHUNK, CHUNK + 1, 10 * CHUNK + 7}) {
+            byte[] plain = random (size);
+            Cipher encrypt = mKeyManager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream ();
+            long written = mStreaming.transform (encrypt, new ByteArrayInputStream (plain), encrypted);
+            
+            assertEquals (encrypted.size (), written);
+            assertArrayEquals ("size " + size, decryptCipher (encrypt).doFinal (encrypted.toByteArray ()), plain);
+            
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream ();
+            mStreaming.transform (decryptCipher (encrypt), new ByteArrayInputStream (encrypted.toByteArray ()), decrypted);
+            assertArrayEquals ("size " + size, plain, decrypted.toByteArray ());
+        }
+    }
+    
+    @Test
+    public void fileChannels_roundTrip () throws Exception {
+        byte[] plain = random (37 * CHUNK + 5);
+        File source = mFolder.newFile ();
+        File encrypted = mFolder.newFile ();
+        File decrypted = mFolder.newFile ();
+        try (OutputStream out = new FileOutputStream (source)) {
+            out.write (plain);
+        }
+        
+        Cipher encrypt = mKeyManager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+        try (FileChannel in = new FileInputStream (source).getChannel ();
+             FileChannel out = new FileOutputStream (encrypted).getChannel ()) {
+            long written = mStreaming.transform (encrypt, in, out);
+            assertEquals ((plain.length / 16 + 1) * 16, written);
+        }
+        try (FileChannel in = new FileInputStream (encrypted).getChannel ();
+             FileChannel out = new FileOutputStream (decrypted).getChannel ()) {
+            mStreaming.transform (decryptCipher (encrypt), in, out);
+        }
+        assertArrayEquals (plain, readAll (decrypted));
+    }
+    
+    @Test
+    public void base64_matchesRfc4648Vectors () throws Exception {
+        String[][] vectors = {
+                {"", ""}, {"f", "Zg=="}, {"fo", "Zm8="}, {"foo", "Zm9v"},
+                {"foob", "Zm9vYg=="}, {"fooba", "Zm9vYmE="}, {"foobar", "Zm9vYmFy"}};
+        for (String[] vector : vectors) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream ();
+            Base64OutputStream base64 = new Base64OutputStream (out, false);
+            // Byte at a time, to exercise the partial-group path.
+            for (byte b : vector[0].getBytes ("US-ASCII")) {
+                base64.write (b);
+            }
+            base64.finish ();
+            assertEquals (vector[1], out.toString ("US-ASCII"));
+        }
+    }
+    
+    @Test
+    public void base64_wrapsAt76Characters () throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        Base64OutputStream base64 = new Base64OutputStream (out, true);
+        base64.write (random (100));
+        base64.finish ();
+        
+        String[] lines = out.toString ("US-ASCII").split ("\n", -1);
+        assertEquals (3, lines.length);
+        assertEquals (76, lines[0].length ());
+        assertEquals (136 - 76, lines[1].length ());
+        assertEquals ("", lines[2]);
+    }
+    
+    @Test
+    public void transformToBase64_encodesCiphertext () throws Exception {
+        byte[] plain = random (5 * CHUNK + 3);
+        Cipher encrypt = mKeyManager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+        ByteArrayOutputStream base64 = new ByteArrayOutputStream ();
+        mStreaming.transformToBase64 (encrypt, new ByteArrayInputStream (plain), base64);
+        
+        Cipher oneShot = mKeyManager.getProvider ().newCipher ();
+        oneShot.init (Cipher.ENCRYPT_MODE, mKeyManager.getKey (ALIAS), new IvParameterSpec (encrypt.getIV ()));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream ();
+        Base64OutputStream encoder = new Base64OutputStream (expected, true);
+        encoder.write (oneShot.doFinal (plain));
+        encoder.finish ();
+        assertEquals (expected.toString ("US-ASCII"), base64.toString ("US-ASCII"));
+    }
+    
+    @Test
+    public void heapUse_doesNotGrowWithPayload () throws Exception {
+        Assume.assumeTrue (ManagementFactory.getThreadMXBean () instanceof com.sun.management.ThreadMXBean);
+        StreamingCipher streaming = new StreamingCipher ();
+        // Warm up so class loading and buffer allocation are out of the way.
+        allocatedWhileEncrypting (streaming, 1 << 20);
+        
+        long small = allocatedWhileEncrypting (streaming, 1 << 20);
+        long large = allocatedWhileEncrypting (streaming, 64 << 20);
+        assertTrue ("64 MB allocated " + large + " bytes", large < 4 * StreamingCipher.DEFAULT_CHUNK_SIZE);
+        assertTrue ("1 MB: " + small + ", 64 MB: " + large, large < small + 2 * StreamingCipher.DEFAULT_CHUNK_SIZE);
+    }
+    
+    private long allocatedWhileEncrypting (StreamingCipher streaming, long size) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+        Cipher encrypt = mKeyManager.initCipher (ALIAS, Cipher.ENCRYPT_MODE);
+        long before = threads.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+        streaming.transform (encrypt, new ZeroInputStream (size), new NullOutputStream ());
+        return threads.getThreadAllocatedBytes (Thread.currentThread ().getId ()) - before;
+    }
+    
+    private static byte[] readAll (File file) throws Exception {
+        byte[] data = new byte[(int) file.length ()];
+        try (InputStream in = new FileInputStream (file)) {
+            int off = 0;
+            while (off < data.length) {
+                off += in.read (data, off, data.length - off);
+            }
+        }
+        return data;
+    }
+    
+    private static class ZeroInputStream extends InputStream {
+        private long mRemaining;
+        
+        ZeroInputStream (long size) {
+            mRemaining = size;
+        }
+        
+        @Override
+        public int read () {
+            if (mRemaining == 0) {
+                return -1;
+            }
+            mRemaining--;
+            return 0;
+        }
+        
+        @Override
+        public int read (byte[] b, int off, int len) {
+            if (mRemaining == 0) {
+                return -1;
+            }
+            int n = (int) Math.min (len, mRemaining);
+            Arrays.fill (b, off, off + n, (byte) 0);
+            mRemaining -= n;
+            return n;
+        }
+    }
+    
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write (int b) {
+        }
+        
+        @Override
+        public void write (byte[] b, int off, int len) {
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,121 @@
+package com.karman.fingerprintdialog.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SuccessHoldTest {
+    
+    /** Virtual-time scheduler: nothing runs until {@link #advance} moves the clock past it. */
+    private static class FakeScheduler implements SuccessHold.Scheduler {
+        long mNow;
+        final List<long[]> mDue = new ArrayList<> ();
+        final List<Runnable> mTasks = new ArrayList<> ();
+        
+        @Override
+        public void postDelayed (Runnable runnable, long delayMillis) {
+            mDue.add (new long[] {mNow + delayMillis});
+            mTasks.add (runnable);
+        }
+        
+        @Override
+        public void cancel (Runnable runnable) {
+            for (int i = mTasks.size () - 1; i >= 0; i--) {
+                if (mTasks.get (i) == runnable) {
+                    mTasks.remove (i);
+                    mDue.remove (i);
+                }
+            }
+        }
+        
+        void advance (long millis) {
+            long until = mNow + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mDue.size (); i++) {
+                    if (mDue.get (i)[0] <= until && (next < 0 || mDue.get (i)[0] < mDue.get (next)[0])) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                mNow = mDue.remove (next)[0];
+                mTasks.remove (next).run ();
+            }
+            mNow = until;
+        }
+    }
+    
+    private final FakeScheduler mScheduler = new FakeScheduler ();
+    private long mDeliveredAt = -1;
+    private long mFinishedAt = -1;
+    private int mDeliveries;
+    private final SuccessHold.Target mTarget = new SuccessHold.Target () {
+        @Override
+        public void deliverResult () {
+            mDeliveries++;
+            mDeliveredAt = mScheduler.mNow;
+        }
+        
+        @Override
+        public void finish () {
+            mFinishedAt = mScheduler.mNow;
+        }
+    };
+    
+    private void succeed (LatencyPolicy policy) {
+        new SuccessHold (mScheduler, mTarget, policy).start ();
+        mScheduler.advance (10000);
+    }
+    
+    @Test
+    public void defaultPolicy_holdsForASecondBeforeDelivering () {
+        succeed (LatencyPolicy.DEFAULT);
+        assertEquals (1000, mDeliveredAt);
+        assertEquals (1000, mFinishedAt);
+    }
+    
+    @Test
+    public void shorterHold_dropsTimeToCallbackByTheSameAmount () {
+        succeed (new LatencyPolicy (250, 1500, false));
+        long saved = LatencyPolicy.DEFAULT.getSuccessHoldMillis () - mDeliveredAt;
+        assertEquals (750, saved);
+        assertEquals (250, mFinishedAt);
+    }
+    
+    @Test
+    public void zeroHold_deliversAndFinishesSynchronously () {
+        SuccessHold hold = new SuccessHold (mScheduler, mTarget, new LatencyPolicy (0, 0, false));
+        hold.start ();
+        assertEquals (0, mDeliveredAt);
+        assertEquals (0, mFinishedAt);
+        assertEquals (0, mScheduler.mTasks.size ());
+    }
+    
+    @Test
+    public void deliverDuringHold_startsContinuationBeforeAnimationEnds () {
+        succeed (new LatencyPolicy (1000, 1500, true));
+        assertEquals (0, mDeliveredAt);
+        assertEquals (1000, mFinishedAt);
+        assertEquals (1, mDeliveries);
+    }
+    
+    @Test
+    public void cancel_dropsPendingFinish () {
+        SuccessHold hold = new SuccessHold (mScheduler, mTarget, LatencyPolicy.INSTANT);
+        hold.start ();
+        hold.cancel ();
+        mScheduler.advance (10000);
+        assertEquals (0, mDeliveredAt);
+        assertEquals (-1, mFinishedAt);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeHold_isRejected () {
+        new LatencyPolicy (-1, 0, false);
+    }
+}
\ No newline at end of file